@@ -0,0 +1,86 @@
+package be.tomcools.twitchmcp.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths the MCP tools run against the chat history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatAnalysisBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int historySize;
+
+    @Param({"casual", "raid", "toxic"})
+    ChatFixtures.Mix mix;
+
+    private TwitchClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CamelRoute route = new CamelRoute();
+        route.maxMessages = historySize;
+        // Large enough to retain every generated message, up to 1M of them
+        route.historyBudgetMb = 1024;
+        route.loadHistory(new ChatFixtures(mix, 5_000, 42).storedHistory(historySize));
+        client = new TwitchClient();
+        client.camelRoute = route;
+        client.classifier = ChatClassifier.inMemory(18);
+        // Score the preloaded history as ingest would have, so descriptor lookups have users to rank
+        for (String message : route.getRecentMessages()) {
+            int colon = message.indexOf(':');
+            if (colon > 0) {
+                client.classifier.observe(message.substring(0, colon), message.substring(colon + 1));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<String> getRecentMessages() {
+        return client.camelRoute.getRecentMessages();
+    }
+
+    @Benchmark
+    public String getChatContext() {
+        return client.getChatContext(null);
+    }
+
+    @Benchmark
+    public String analyzeChat() {
+        return client.analyzeChat();
+    }
+
+    @Benchmark
+    public List<ChatClassifier.Suspect> findUsersByDescriptor() {
+        return client.findUsersByDescriptor("toxic");
+    }
+
+    @Benchmark
+    public String findUserInChat() {
+        return client.findUserInChat("gamer42");
+    }
+
+    @Benchmark
+    public TwitchClient.ModerationTarget resolveModerationTarget() {
+        return client.resolveModerationTarget("the user named xX_gamer42_Xx");
+    }
+}
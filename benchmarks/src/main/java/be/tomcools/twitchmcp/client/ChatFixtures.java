@@ -0,0 +1,114 @@
+package be.tomcools.twitchmcp.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates chat traffic that looks like a real channel: a skewed chatter population
+ * (a few regulars write most lines) and a configurable mix of message kinds.
+ */
+public final class ChatFixtures {
+
+    private static final String[] EMOTES = {"KEKW", "LUL", "PogChamp", "Kappa", "OMEGALUL", "monkaS", "Sadge", "catJAM"};
+    private static final String[] CASUAL = {
+            "what game is this", "that was a crazy play", "hello chat", "gg", "how long have you been streaming today",
+            "can you show the settings again", "first time here, love the stream", "this boss fight is insane",
+            "what keyboard do you use", "lets go"
+    };
+    private static final String[] TOXIC = {
+            "you are so bad at this game", "shut up noob", "this stream is trash", "what an idiot play",
+            "worst streamer ever", "stupid boss lol", "annoying music turn it off"
+    };
+    private static final String[] SPAM = {
+            "buy followers at www.cheap-viewers.example", "free promo visit http://spam.example",
+            "FOLLOW ME FOLLOW ME FOLLOW ME"
+    };
+
+    /**
+     * Message mixes benchmarked by default.
+     * casual: normal conversation; raid: mostly repeated emote walls; toxic: a channel under attack.
+     * Public because JMH sets it as a {@code @Param} from its generated code in a subpackage.
+     */
+    public enum Mix {
+        casual(0.15, 0.05, 0.02),
+        raid(0.75, 0.05, 0.05),
+        toxic(0.20, 0.30, 0.15);
+
+        final double emoteShare;
+        final double toxicShare;
+        final double spamShare;
+
+        Mix(double emoteShare, double toxicShare, double spamShare) {
+            this.emoteShare = emoteShare;
+            this.toxicShare = toxicShare;
+            this.spamShare = spamShare;
+        }
+    }
+
+    record ChatLine(String username, String body) {
+        // Same format CamelRoute stores
+        String stored() {
+            return username + ": " + body;
+        }
+    }
+
+    private final SplittableRandom random;
+    private final Mix mix;
+    private final int chatters;
+
+    ChatFixtures(Mix mix, int chatters, long seed) {
+        this.mix = mix;
+        this.chatters = chatters;
+        this.random = new SplittableRandom(seed);
+    }
+
+    ChatLine next() {
+        return new ChatLine(nextUsername(), nextBody());
+    }
+
+    List<ChatLine> lines(int count) {
+        List<ChatLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(next());
+        }
+        return lines;
+    }
+
+    List<String> storedHistory(int count) {
+        List<String> history = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            history.add(next().stored());
+        }
+        return history;
+    }
+
+    private String nextUsername() {
+        // Approximate Zipf: squaring a uniform sample favours low ids
+        double u = random.nextDouble();
+        int id = (int) (u * u * chatters);
+        return switch (id % 4) {
+            case 0 -> "viewer" + id;
+            case 1 -> "xX_gamer" + id + "_Xx";
+            case 2 -> "night_owl_" + id;
+            default -> "Lurker" + id;
+        };
+    }
+
+    private String nextBody() {
+        double kind = random.nextDouble();
+        if (kind < mix.emoteShare) {
+            String emote = EMOTES[random.nextInt(EMOTES.length)];
+            return (emote + " ").repeat(1 + random.nextInt(8)).trim();
+        }
+        kind -= mix.emoteShare;
+        if (kind < mix.toxicShare) {
+            return TOXIC[random.nextInt(TOXIC.length)];
+        }
+        kind -= mix.toxicShare;
+        if (kind < mix.spamShare) {
+            return SPAM[random.nextInt(SPAM.length)];
+        }
+        return CASUAL[random.nextInt(CASUAL.length)];
+    }
+}
@@ -0,0 +1,59 @@
+package be.tomcools.twitchmcp.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of storing one incoming PRIVMSG, i.e. the body of the receiveMessageFromTwitch route,
+ * with the history already full.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatIngestBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int historySize;
+
+    @Param({"casual", "raid", "toxic"})
+    ChatFixtures.Mix mix;
+
+    private CamelRoute route;
+    private List<ChatFixtures.ChatLine> incoming;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ChatFixtures fixtures = new ChatFixtures(mix, 5_000, 42);
+        route = new CamelRoute();
+        route.maxMessages = historySize;
+        // Large enough to retain every generated message, up to 1M of them
+        route.historyBudgetMb = 1024;
+        route.classifier = ChatClassifier.inMemory(18);
+        route.hype = new HypeDetector();
+        route.loadHistory(fixtures.storedHistory(historySize));
+        incoming = fixtures.lines(4096);
+    }
+
+    @Benchmark
+    public void recordChatMessage() {
+        ChatFixtures.ChatLine line = incoming.get(next++ & 4095);
+        route.recordChatMessage(line.username(), line.body());
+    }
+}
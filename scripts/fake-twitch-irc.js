@@ -0,0 +1,406 @@
+#!/usr/bin/env node
+
+// Local IRC server speaking enough of Twitch's dialect (CAP, PASS/NICK/USER, JOIN, PING, tagged PRIVMSG)
+// to replay chat into the real receiveMessageFromTwitch route and measure ingest.
+//
+//   node scripts/fake-twitch-irc.js --rate 2000 --duration 30 &
+//   TWITCH_IRC_HOST=localhost TWITCH_IRC_PORT=16667 TWITCH_CHAT_CONNECT_ON_STARTUP=true java -jar target/twitch-mcp-1.0.0-SNAPSHOT-runner.jar
+//
+// Ingest is observed through the twitch-chat entry on /q/health (messagesReceived), so latency
+// figures have the resolution of --poll-ms.
+//
+// With --server-jar the script starts the server itself, pointed at this IRC server, and stops it afterwards;
+// that is how `mvn verify` runs it:
+//
+//   node scripts/fake-twitch-irc.js --server-jar target/twitch-mcp-1.0.0-SNAPSHOT-runner.jar --max-p99-ms 250
+
+const net = require('net');
+const fs = require('fs');
+const http = require('http');
+const readline = require('readline');
+const path = require('path');
+const { execFileSync, spawn } = require('child_process');
+const { randomUUID } = require('crypto');
+
+function parseArgs(argv) {
+    const options = {
+        port: 16667,
+        log: null,
+        speed: 1,
+        rate: 1000,
+        duration: 10,
+        health: 'http://localhost:8080/q/health',
+        pollMs: 20,
+        drainMs: 3000,
+        pid: null,
+        maxP99Ms: Infinity,
+        maxDropRate: 1,
+        maxHeapGrowthMb: Infinity,
+        json: null,
+        serverJar: null,
+        java: 'java',
+        httpPort: 18080,
+        joinTimeoutMs: 120000
+    };
+    for (let i = 0; i < argv.length; i++) {
+        const arg = argv[i];
+        const next = () => argv[++i];
+        switch (arg) {
+            case '--port': options.port = parseInt(next(), 10); break;
+            case '--log': options.log = next(); break;
+            case '--speed': options.speed = parseFloat(next()); break;
+            case '--rate': options.rate = parseFloat(next()); break;
+            case '--duration': options.duration = parseFloat(next()); break;
+            case '--health': options.health = next(); break;
+            case '--poll-ms': options.pollMs = parseInt(next(), 10); break;
+            case '--drain-ms': options.drainMs = parseInt(next(), 10); break;
+            case '--pid': options.pid = next(); break;
+            case '--max-p99-ms': options.maxP99Ms = parseFloat(next()); break;
+            case '--max-drop-rate': options.maxDropRate = parseFloat(next()); break;
+            case '--max-heap-growth-mb': options.maxHeapGrowthMb = parseFloat(next()); break;
+            case '--json': options.json = next(); break;
+            case '--server-jar': options.serverJar = next(); break;
+            case '--java': options.java = next(); break;
+            case '--http-port': options.httpPort = parseInt(next(), 10); break;
+            case '--join-timeout-ms': options.joinTimeoutMs = parseInt(next(), 10); break;
+            case '--help':
+                console.log('Usage: fake-twitch-irc.js [--port 16667] (--log chat.log [--speed 10] | --rate 1000 --duration 10)');
+                console.log('                          [--health http://localhost:8080/q/health] [--poll-ms 20] [--drain-ms 3000]');
+                console.log('                          [--pid <server pid>] [--max-p99-ms N] [--max-drop-rate 0.001] [--max-heap-growth-mb N]');
+                console.log('                          [--json results.json]');
+                console.log('                          [--server-jar runner.jar [--java java] [--http-port 18080]] [--join-timeout-ms 120000]');
+                process.exit(0);
+                break;
+            default:
+                console.error(`Unknown option: ${arg}`);
+                process.exit(1);
+        }
+    }
+    return options;
+}
+
+// ---------------------------------------------------------------------------
+// Chat sources. Each yields { delayMs, username, userId, text } in send order.
+// ---------------------------------------------------------------------------
+
+const WORDS = ['gg', 'lets go', 'KEKW', 'LUL', 'PogChamp', 'what game is this', 'hello chat', 'that was insane',
+    'Kappa', 'how long is the stream', 'first time here', 'catJAM catJAM catJAM', 'monkaS'];
+
+function* syntheticChat(rate, durationSeconds) {
+    const total = Math.round(rate * durationSeconds);
+    for (let i = 0; i < total; i++) {
+        // Squared uniform sample: a few regulars write most of the lines
+        const id = Math.floor(Math.random() * Math.random() * 5000);
+        yield {
+            delayMs: 1000 / rate,
+            username: `viewer${id}`,
+            userId: String(100000 + id),
+            text: WORDS[Math.floor(Math.random() * WORDS.length)]
+        };
+    }
+}
+
+/**
+ * Recorded logs are raw IRC lines as received from Twitch (the tmi-sent-ts tag drives timing, scaled by --speed)
+ * or plain "username: message" lines, which are sent at --rate.
+ */
+async function* recordedChat(file, speed, rate) {
+    const lines = readline.createInterface({ input: fs.createReadStream(file), crlfDelay: Infinity });
+    let previousTs = null;
+    for await (const line of lines) {
+        if (!line.trim()) continue;
+        const raw = line.match(/^(?:@(\S+) )?:(\w+)!\S+ PRIVMSG #\S+ :(.*)$/);
+        if (raw) {
+            const tags = Object.fromEntries((raw[1] || '').split(';').filter(Boolean).map(tag => tag.split('=')));
+            const ts = tags['tmi-sent-ts'] ? parseInt(tags['tmi-sent-ts'], 10) : null;
+            const delayMs = ts !== null && previousTs !== null ? Math.max(0, ts - previousTs) / speed : 1000 / rate;
+            if (ts !== null) previousTs = ts;
+            yield { delayMs, username: raw[2], userId: tags['user-id'] || null, text: raw[3] };
+            continue;
+        }
+        const plain = line.match(/^(\w+): (.*)$/);
+        if (plain) {
+            yield { delayMs: 1000 / rate, username: plain[1], userId: null, text: plain[2] };
+        }
+    }
+}
+
+function privmsg(channel, message, withTags) {
+    const prefix = `:${message.username}!${message.username}@${message.username}.tmi.twitch.tv`;
+    if (!withTags) {
+        return `${prefix} PRIVMSG #${channel} :${message.text}\r\n`;
+    }
+    const tags = [
+        'badge-info=', 'badges=', 'color=', `display-name=${message.username}`, 'emotes=', 'first-msg=0', 'flags=',
+        `id=${randomUUID()}`, 'mod=0', 'room-id=1', 'subscriber=0', `tmi-sent-ts=${Date.now()}`, 'turbo=0',
+        `user-id=${message.userId || ''}`, 'user-type='
+    ].join(';');
+    return `@${tags} ${prefix} PRIVMSG #${channel} :${message.text}\r\n`;
+}
+
+// ---------------------------------------------------------------------------
+// IRC server
+// ---------------------------------------------------------------------------
+
+function startIrcServer(port, onJoin, stats) {
+    const server = net.createServer((socket) => {
+        const client = { socket, nick: null, tags: false, joined: null };
+        const send = (line) => socket.write(`${line}\r\n`);
+        let buffer = '';
+
+        socket.setNoDelay(true);
+        socket.on('error', () => {});
+        socket.on('data', (data) => {
+            buffer += data.toString('utf8');
+            let index;
+            while ((index = buffer.indexOf('\n')) !== -1) {
+                const line = buffer.slice(0, index).replace(/\r$/, '');
+                buffer = buffer.slice(index + 1);
+                handle(line);
+            }
+        });
+
+        function handle(line) {
+            const [command, ...rest] = line.split(' ');
+            switch (command.toUpperCase()) {
+                case 'CAP':
+                    if (rest[0] === 'LS') {
+                        send(':tmi.twitch.tv CAP * LS :twitch.tv/tags twitch.tv/commands twitch.tv/membership');
+                    } else if (rest[0] === 'REQ') {
+                        const caps = rest.slice(1).join(' ').replace(/^:/, '');
+                        client.tags = client.tags || caps.includes('twitch.tv/tags');
+                        send(`:tmi.twitch.tv CAP * ACK :${caps}`);
+                    }
+                    break;
+                case 'PASS':
+                    break;
+                case 'NICK':
+                    client.nick = rest[0];
+                    ['001 %s :Welcome, GLHF!', '002 %s :Your host is tmi.twitch.tv', '003 %s :This server is rather new',
+                        '004 %s :-', '375 %s :-', '372 %s :You are in a maze of twisty passages, all alike.', '376 %s :>']
+                        .forEach(reply => send(`:tmi.twitch.tv ${reply.replace('%s', client.nick)}`));
+                    break;
+                case 'JOIN': {
+                    const channel = rest[0].replace(/^#/, '');
+                    client.joined = channel;
+                    send(`:${client.nick}!${client.nick}@${client.nick}.tmi.twitch.tv JOIN #${channel}`);
+                    send(`:${client.nick}.tmi.twitch.tv 353 ${client.nick} = #${channel} :${client.nick}`);
+                    send(`:${client.nick}.tmi.twitch.tv 366 ${client.nick} #${channel} :End of /NAMES list`);
+                    onJoin(client);
+                    break;
+                }
+                case 'PING':
+                    send(`PONG :tmi.twitch.tv`);
+                    break;
+                case 'PRIVMSG':
+                    stats.outbound++;
+                    break;
+                default:
+                    break;
+            }
+        }
+    });
+    return new Promise(resolve => server.listen(port, () => resolve(server)));
+}
+
+// ---------------------------------------------------------------------------
+// Measurement
+// ---------------------------------------------------------------------------
+
+function readIngestCount(healthUrl) {
+    return new Promise((resolve) => {
+        http.get(healthUrl, (res) => {
+            let body = '';
+            res.on('data', chunk => body += chunk);
+            res.on('end', () => {
+                try {
+                    const check = JSON.parse(body).checks.find(c => c.name === 'twitch-chat');
+                    resolve(check ? check.data.messagesReceived : null);
+                } catch {
+                    resolve(null);
+                }
+            });
+        }).on('error', () => resolve(null));
+    });
+}
+
+// Heap after a full GC, in MB, using the JDK tools on the server's pid; those next to --java when it is a path
+function heapUsedMb(pid, java) {
+    if (!pid) return null;
+    const tool = name => java && path.isAbsolute(java) ? path.join(path.dirname(java), name) : name;
+    try {
+        execFileSync(tool('jcmd'), [pid, 'GC.run'], { stdio: 'ignore' });
+        const output = execFileSync(tool('jstat'), ['-gc', pid], { encoding: 'utf8' }).trim().split('\n');
+        const header = output[0].trim().split(/\s+/);
+        const values = output[1].trim().split(/\s+/).map(parseFloat);
+        const used = ['S0U', 'S1U', 'EU', 'OU'].reduce((sum, column) => sum + (values[header.indexOf(column)] || 0), 0);
+        return used / 1024;
+    } catch (error) {
+        console.warn(`⚠️  Could not read heap of pid ${pid}: ${error.message}`);
+        return null;
+    }
+}
+
+function percentile(sorted, p) {
+    if (sorted.length === 0) return 0;
+    return sorted[Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+}
+
+async function replay(client, source, options) {
+    const sentAt = [];
+    const receivedAt = [];
+    const baseline = await readIngestCount(options.health);
+    if (baseline === null) {
+        console.warn(`⚠️  ${options.health} has no twitch-chat check; latency and drops cannot be measured`);
+    }
+    const heapBefore = heapUsedMb(options.pid, options.java);
+
+    // Poll the ingest counter while replaying; every increase marks those messages as received
+    let polling = baseline !== null;
+    const poller = (async () => {
+        while (polling) {
+            const count = await readIngestCount(options.health);
+            if (count !== null) {
+                const now = Date.now();
+                while (receivedAt.length < count - baseline) receivedAt.push(now);
+            }
+            await new Promise(resolve => setTimeout(resolve, options.pollMs));
+        }
+    })();
+
+    console.log(`▶️  Replaying into #${client.joined} (${client.tags ? 'tagged' : 'untagged'} PRIVMSG)`);
+    const started = Date.now();
+    let due = started;
+    for await (const message of source) {
+        due += message.delayMs;
+        const wait = due - Date.now();
+        if (wait > 1) await new Promise(resolve => setTimeout(resolve, wait));
+        sentAt.push(Date.now());
+        if (!client.socket.write(privmsg(client.joined, message, client.tags))) {
+            await new Promise(resolve => client.socket.once('drain', resolve));
+        }
+    }
+    const sendSeconds = (Date.now() - started) / 1000;
+
+    // Give the server time to catch up
+    let lastCount = -1;
+    const drainDeadline = Date.now() + options.drainMs;
+    while (baseline !== null && Date.now() < drainDeadline && receivedAt.length < sentAt.length) {
+        await new Promise(resolve => setTimeout(resolve, options.pollMs * 5));
+        if (receivedAt.length === lastCount) break;
+        lastCount = receivedAt.length;
+    }
+    polling = false;
+    await poller;
+
+    const heapAfter = heapUsedMb(options.pid, options.java);
+    const latencies = receivedAt.map((at, i) => at - sentAt[i]).sort((a, b) => a - b);
+    return {
+        sent: sentAt.length,
+        received: receivedAt.length,
+        dropRate: sentAt.length > 0 ? (sentAt.length - receivedAt.length) / sentAt.length : 0,
+        sendRate: sentAt.length / sendSeconds,
+        latencyMs: {
+            p50: percentile(latencies, 0.5),
+            p95: percentile(latencies, 0.95),
+            p99: percentile(latencies, 0.99),
+            max: latencies.length ? latencies[latencies.length - 1] : 0
+        },
+        heapGrowthMb: heapBefore !== null && heapAfter !== null ? heapAfter - heapBefore : null,
+        measured: baseline !== null
+    };
+}
+
+// Starts the server jar against this IRC server, with its HTTP port moved so /q/health is the one polled
+function startServer(options) {
+    const server = spawn(options.java, ['-jar', options.serverJar], {
+        env: {
+            ...process.env,
+            TWITCH_IRC_HOST: 'localhost',
+            TWITCH_IRC_PORT: String(options.port),
+            TWITCH_CHAT_CONNECT_ON_STARTUP: 'true',
+            PORT: String(options.httpPort)
+        },
+        stdio: ['ignore', 'inherit', 'inherit']
+    });
+    server.on('exit', (code) => {
+        if (code !== null && code !== 0) console.error(`Server exited with code ${code}`);
+    });
+    options.health = `http://localhost:${options.httpPort}/q/health`;
+    options.pid = options.pid || String(server.pid);
+    console.log(`🚀 Started ${options.serverJar} (pid ${server.pid})`);
+    return server;
+}
+
+function withTimeout(promise, ms, message) {
+    let timer;
+    return Promise.race([
+        promise,
+        new Promise((resolve, reject) => timer = setTimeout(() => reject(new Error(message)), ms))
+    ]).finally(() => clearTimeout(timer));
+}
+
+async function run(options) {
+    const stats = { outbound: 0 };
+    let resolveJoin;
+    const joined = new Promise(resolve => resolveJoin = resolve);
+    const server = await startIrcServer(options.port, client => resolveJoin(client), stats);
+    console.log(`🧪 Fake Twitch IRC listening on localhost:${options.port}; waiting for the server to JOIN...`);
+    const serverProcess = options.serverJar ? startServer(options) : null;
+
+    const failures = [];
+    try {
+        // A server that fails to start fails the run right away instead of at the timeout
+        const exited = serverProcess
+            ? new Promise((resolve, reject) => serverProcess.on('exit',
+                code => reject(new Error(`the server exited with code ${code} before joining`))))
+            : new Promise(() => {});
+        exited.catch(() => {});
+        const client = await withTimeout(Promise.race([joined, exited]), options.joinTimeoutMs,
+            `the server did not JOIN within ${options.joinTimeoutMs}ms`);
+        // Let the route settle (connected message, etc.) before measuring
+        await new Promise(resolve => setTimeout(resolve, 1000));
+
+        const source = options.log
+            ? recordedChat(options.log, options.speed, options.rate)
+            : syntheticChat(options.rate, options.duration);
+        const result = await replay(client, source, options);
+        result.outbound = stats.outbound;
+
+        console.log('');
+        console.log(`Sent:       ${result.sent} messages at ${result.sendRate.toFixed(0)}/s`);
+        console.log(`Received:   ${result.received} (drop rate ${(result.dropRate * 100).toFixed(3)}%)`);
+        console.log(`Latency:    p50 ${result.latencyMs.p50}ms  p95 ${result.latencyMs.p95}ms  p99 ${result.latencyMs.p99}ms  max ${result.latencyMs.max}ms`);
+        console.log(`Heap delta: ${result.heapGrowthMb !== null ? result.heapGrowthMb.toFixed(1) + ' MB' : 'n/a (pass --pid)'}`);
+        console.log(`Outbound:   ${result.outbound} PRIVMSG from the server`);
+        if (options.json) {
+            fs.writeFileSync(options.json, JSON.stringify(result, null, 2));
+        }
+
+        if (!result.measured) failures.push('ingest could not be observed');
+        if (result.latencyMs.p99 > options.maxP99Ms) failures.push(`p99 ${result.latencyMs.p99}ms > ${options.maxP99Ms}ms`);
+        if (result.dropRate > options.maxDropRate) failures.push(`drop rate ${result.dropRate} > ${options.maxDropRate}`);
+        if (result.heapGrowthMb !== null && result.heapGrowthMb > options.maxHeapGrowthMb) {
+            failures.push(`heap growth ${result.heapGrowthMb.toFixed(1)}MB > ${options.maxHeapGrowthMb}MB`);
+        }
+        client.socket.end();
+    } finally {
+        server.close();
+        if (serverProcess) serverProcess.kill();
+    }
+    if (failures.length > 0) {
+        failures.forEach(failure => console.log(`❌ ${failure}`));
+        process.exit(1);
+    }
+    console.log('✅ Ingest test passed');
+    process.exit(0);
+}
+
+if (require.main === module) {
+    run(parseArgs(process.argv.slice(2))).catch((error) => {
+        console.error('Ingest test failed:', error.message);
+        process.exit(1);
+    });
+}
+
+module.exports = { startIrcServer, syntheticChat, recordedChat };
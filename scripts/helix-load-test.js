@@ -0,0 +1,144 @@
+#!/usr/bin/env node
+
+// Drives the Helix-backed MCP tools of a running server and reports throughput and tail latency.
+// Start the server against scripts/helix-simulator.js so the run stays offline, e.g.:
+//   node scripts/helix-simulator.js --latency lognormal:3.5,0.6 --error-rate 0.01 &
+//   TWITCH_HELIX_URL=http://localhost:8089/helix TWITCH_OAUTH_URL=http://localhost:8089/oauth2 java -jar target/*-runner.jar &
+//   node scripts/helix-load-test.js --concurrency 16 --duration 30 --max-p99 500
+
+const http = require('http');
+const { URL } = require('url');
+
+const DEFAULT_CALLS = [
+    { name: 'createTwitchPoll', arguments: { title: 'Load test poll', choices: 'yes,no', duration: 60 } },
+    { name: 'createTwitchPrediction', arguments: { title: 'Load test prediction', outcomes: 'win,lose', duration: 60 } },
+    { name: 'createTwitchClip', arguments: {} },
+    { name: 'timeoutUser', arguments: { usernameOrDescriptor: 'load_test_user', reason: 'spam' } },
+    { name: 'banUser', arguments: { usernameOrDescriptor: 'load_test_user', reason: 'load test' } },
+    { name: 'updateStreamTitle', arguments: { title: 'Load test title' } },
+    { name: 'updateStreamCategory', arguments: { category: 'Just Chatting' } }
+];
+
+function parseArgs(argv) {
+    const options = {
+        server: 'http://localhost:8080/mcp',
+        concurrency: 8,
+        duration: 10,
+        tools: [],
+        maxP99: Infinity,
+        minThroughput: 0
+    };
+    for (let i = 0; i < argv.length; i++) {
+        const arg = argv[i];
+        const next = () => argv[++i];
+        switch (arg) {
+            case '--server': options.server = next(); break;
+            case '--concurrency': options.concurrency = parseInt(next(), 10); break;
+            case '--duration': options.duration = parseFloat(next()); break;
+            case '--tool': options.tools.push(next()); break;
+            case '--max-p99': options.maxP99 = parseFloat(next()); break;
+            case '--min-throughput': options.minThroughput = parseFloat(next()); break;
+            default:
+                console.error(`Unknown option: ${arg}`);
+                process.exit(1);
+        }
+    }
+    return options;
+}
+
+function configuredUrl(server) {
+    const url = new URL(server);
+    // Dummy credentials; the simulator accepts anything
+    url.searchParams.set('twitch.channel', 'loadtest');
+    url.searchParams.set('twitch.auth', 'loadtest-token');
+    url.searchParams.set('twitch.clientId', 'loadtest-client');
+    url.searchParams.set('twitch.broadcasterId', '1');
+    return url;
+}
+
+function callTool(url, call, id) {
+    const payload = JSON.stringify({ jsonrpc: '2.0', id, method: 'tools/call', params: call });
+    return new Promise((resolve) => {
+        const started = process.hrtime.bigint();
+        const req = http.request(url, {
+            method: 'POST',
+            agent: keepAliveAgent,
+            headers: { 'Content-Type': 'application/json', 'Content-Length': Buffer.byteLength(payload) }
+        }, (res) => {
+            res.resume();
+            res.on('end', () => resolve({
+                ok: res.statusCode === 200,
+                latencyMs: Number(process.hrtime.bigint() - started) / 1e6
+            }));
+        });
+        req.on('error', () => resolve({ ok: false, latencyMs: Number(process.hrtime.bigint() - started) / 1e6 }));
+        req.end(payload);
+    });
+}
+
+const keepAliveAgent = new http.Agent({ keepAlive: true, maxSockets: 1024 });
+
+function percentile(sorted, p) {
+    if (sorted.length === 0) return 0;
+    return sorted[Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+}
+
+async function runLoadTest(options) {
+    const calls = options.tools.length > 0
+        ? DEFAULT_CALLS.filter(call => options.tools.includes(call.name))
+        : DEFAULT_CALLS;
+    const url = configuredUrl(options.server);
+    const deadline = Date.now() + options.duration * 1000;
+    const results = {};
+    let nextId = 1;
+
+    async function worker() {
+        while (Date.now() < deadline) {
+            const call = calls[nextId % calls.length];
+            const result = await callTool(url, call, nextId++);
+            const entry = results[call.name] || (results[call.name] = { latencies: [], failures: 0 });
+            entry.latencies.push(result.latencyMs);
+            if (!result.ok) entry.failures++;
+        }
+    }
+
+    console.log(`🚀 ${options.concurrency} workers for ${options.duration}s against ${options.server}`);
+    await Promise.all(Array.from({ length: options.concurrency }, worker));
+
+    let total = 0;
+    let worstP99 = 0;
+    console.log('');
+    console.log('tool                       calls  fail   p50ms   p95ms   p99ms   maxms');
+    for (const [name, entry] of Object.entries(results)) {
+        const sorted = entry.latencies.sort((a, b) => a - b);
+        const p99 = percentile(sorted, 0.99);
+        worstP99 = Math.max(worstP99, p99);
+        total += sorted.length;
+        console.log(`${name.padEnd(25)} ${String(sorted.length).padStart(6)} ${String(entry.failures).padStart(5)} ` +
+            `${percentile(sorted, 0.5).toFixed(1).padStart(7)} ${percentile(sorted, 0.95).toFixed(1).padStart(7)} ` +
+            `${p99.toFixed(1).padStart(7)} ${sorted[sorted.length - 1].toFixed(1).padStart(7)}`);
+    }
+    const throughput = total / options.duration;
+    console.log('');
+    console.log(`Throughput: ${throughput.toFixed(1)} calls/s`);
+
+    let failed = false;
+    if (worstP99 > options.maxP99) {
+        console.log(`❌ p99 ${worstP99.toFixed(1)}ms exceeds --max-p99 ${options.maxP99}ms`);
+        failed = true;
+    }
+    if (throughput < options.minThroughput) {
+        console.log(`❌ Throughput ${throughput.toFixed(1)}/s is below --min-throughput ${options.minThroughput}/s`);
+        failed = true;
+    }
+    keepAliveAgent.destroy();
+    if (failed) process.exit(1);
+    console.log('✅ Load test passed');
+}
+
+if (require.main === module) {
+    runLoadTest(parseArgs(process.argv.slice(2))).catch((error) => {
+        console.error('Load test failed:', error.message);
+        process.exit(1);
+    });
+}
@@ -0,0 +1,661 @@
+#!/usr/bin/env node
+
+// Local stand-in for the Twitch Helix and OAuth APIs, and for the EventSub WebSocket.
+// Point the server at it with TWITCH_HELIX_URL=http://localhost:<port>/helix,
+// TWITCH_OAUTH_URL=http://localhost:<port>/oauth2 and TWITCH_EVENTSUB_URL=ws://localhost:<port>/ws.
+//
+// Polls and predictions created through it run their EventSub lifecycle (begin, progress with random votes,
+// end or lock; PATCH /helix/predictions resolves), channel PATCHes send channel.update, and the control
+// endpoints POST /_sim/eventsub/follow?user=..., /_sim/eventsub/raid?from=...&viewers=...,
+// /_sim/eventsub/reconnect and /_sim/eventsub/drop exercise the rest of the consumer.
+
+const http = require('http');
+const crypto = require('crypto');
+const { URL } = require('url');
+
+function parseArgs(argv) {
+    const options = {
+        port: 8089,
+        latency: 'fixed:0',
+        rateLimit: 800,
+        rateWindowMs: 60000,
+        errorRate: 0,
+        errorStatus: 503,
+        speed: 1,
+        keepaliveSeconds: 10,
+        quiet: false
+    };
+    for (let i = 0; i < argv.length; i++) {
+        const arg = argv[i];
+        const next = () => argv[++i];
+        switch (arg) {
+            case '--port': options.port = parseInt(next(), 10); break;
+            case '--latency': options.latency = next(); break;
+            case '--rate-limit': options.rateLimit = parseInt(next(), 10); break;
+            case '--rate-window-ms': options.rateWindowMs = parseInt(next(), 10); break;
+            case '--error-rate': options.errorRate = parseFloat(next()); break;
+            case '--error-status': options.errorStatus = parseInt(next(), 10); break;
+            case '--speed': options.speed = parseFloat(next()); break;
+            case '--keepalive': options.keepaliveSeconds = parseInt(next(), 10); break;
+            case '--quiet': options.quiet = true; break;
+            case '--help':
+                console.log('Usage: helix-simulator.js [--port 8089] [--latency fixed:20|uniform:10-80|normal:40,10|lognormal:3.5,0.6]');
+                console.log('                          [--rate-limit 800] [--rate-window-ms 60000]');
+                console.log('                          [--error-rate 0.01] [--error-status 503] [--quiet]');
+                console.log('                          [--speed 10 (poll and prediction clock)] [--keepalive 10]');
+                process.exit(0);
+                break;
+            default:
+                console.error(`Unknown option: ${arg}`);
+                process.exit(1);
+        }
+    }
+    return options;
+}
+
+/**
+ * Build a sampler (returning milliseconds) from a latency spec such as "uniform:10-80".
+ */
+function latencySampler(spec) {
+    const [kind, params = '0'] = spec.split(':');
+    const gaussian = () => {
+        // Box-Muller transform
+        const u = 1 - Math.random();
+        const v = Math.random();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    };
+    switch (kind) {
+        case 'fixed': {
+            const ms = parseFloat(params);
+            return () => ms;
+        }
+        case 'uniform': {
+            const [min, max] = params.split('-').map(parseFloat);
+            return () => min + Math.random() * (max - min);
+        }
+        case 'normal': {
+            const [mean, stddev] = params.split(',').map(parseFloat);
+            return () => Math.max(0, mean + gaussian() * stddev);
+        }
+        case 'lognormal': {
+            // Long-tailed, like real network latency: exp(mu + sigma * N(0,1))
+            const [mu, sigma] = params.split(',').map(parseFloat);
+            return () => Math.exp(mu + gaussian() * sigma);
+        }
+        default:
+            throw new Error(`Unknown latency distribution: ${kind}`);
+    }
+}
+
+/**
+ * Token bucket that mirrors Helix' Ratelimit-* headers.
+ */
+function createRateLimiter(limit, windowMs) {
+    let remaining = limit;
+    let resetAt = Date.now() + windowMs;
+    return () => {
+        const now = Date.now();
+        if (now >= resetAt) {
+            remaining = limit;
+            resetAt = now + windowMs;
+        }
+        const allowed = remaining > 0;
+        if (allowed) {
+            remaining--;
+        }
+        return {
+            allowed,
+            headers: {
+                'Ratelimit-Limit': String(limit),
+                'Ratelimit-Remaining': String(remaining),
+                'Ratelimit-Reset': String(Math.ceil(resetAt / 1000))
+            }
+        };
+    };
+}
+
+function createState() {
+    return {
+        nextId: 1000,
+        users: new Map(),
+        channel: { title: 'Simulated stream', game_id: '509658', game_name: 'Just Chatting', broadcaster_language: 'en', tags: ['English'] },
+        polls: [],
+        predictions: [],
+        clips: new Map(),
+        bans: [],
+        stats: {}
+    };
+}
+
+function userFor(state, login) {
+    const key = login.toLowerCase();
+    if (!state.users.has(key)) {
+        state.users.set(key, { id: String(state.nextId++), login: key, display_name: login });
+    }
+    return state.users.get(key);
+}
+
+// Handlers return [status, body]; body may be undefined for 204 responses.
+const routes = {
+    'GET /oauth2/validate': () => [200, {
+        client_id: 'simulated-client-id',
+        login: 'simulated_broadcaster',
+        scopes: ['channel:manage:broadcast', 'channel:manage:polls', 'channel:manage:predictions',
+            'clips:edit', 'moderator:manage:banned_users', 'moderator:read:followers'],
+        user_id: '1',
+        expires_in: 14400
+    }],
+    'POST /oauth2/token': () => [200, {
+        access_token: `simulated-${Date.now()}`,
+        refresh_token: 'simulated-refresh-token',
+        expires_in: 14400,
+        token_type: 'bearer'
+    }],
+    'POST /helix/polls': (state, url, body, eventsub) => {
+        const invalid = missing(body, ['broadcaster_id', 'title', 'choices', 'duration'])
+            || listProblem(body.choices, 'choices', 2, 5);
+        if (invalid) return badRequest(invalid);
+        const id = String(state.nextId++);
+        const poll = {
+            id,
+            broadcaster_id: body.broadcaster_id,
+            title: body.title,
+            choices: body.choices.map((choice, i) => ({
+                id: `${id}-${i}`, title: choice.title, votes: 0, channel_points_votes: 0, bits_votes: 0
+            })),
+            status: 'ACTIVE',
+            duration: body.duration,
+            started_at: new Date().toISOString(),
+            ended_at: null
+        };
+        state.polls.push(poll);
+        eventsub.runPoll(poll);
+        return [200, { data: [poll] }];
+    },
+    'POST /helix/predictions': (state, url, body, eventsub) => {
+        const invalid = missing(body, ['broadcaster_id', 'title', 'outcomes', 'prediction_window'])
+            || listProblem(body.outcomes, 'outcomes', 2, 10);
+        if (invalid) return badRequest(invalid);
+        const id = String(state.nextId++);
+        const prediction = {
+            id,
+            broadcaster_id: body.broadcaster_id,
+            title: body.title,
+            outcomes: body.outcomes.map((outcome, i) => ({
+                id: `${id}-${i}`, title: outcome.title, users: 0, channel_points: 0,
+                color: i === 0 ? 'BLUE' : 'PINK'
+            })),
+            status: 'ACTIVE',
+            prediction_window: body.prediction_window,
+            created_at: new Date().toISOString(),
+            ended_at: null,
+            locked_at: null
+        };
+        state.predictions.push(prediction);
+        eventsub.runPrediction(prediction);
+        return [200, { data: [prediction] }];
+    },
+    'PATCH /helix/predictions': (state, url, body, eventsub) => {
+        const prediction = state.predictions.find(p => p.id === (body && body.id));
+        if (!prediction) {
+            return [400, { error: 'Bad Request', status: 400, message: 'prediction not found' }];
+        }
+        prediction.status = body.status || 'RESOLVED';
+        prediction.winning_outcome_id = body.winning_outcome_id || null;
+        prediction.ended_at = new Date().toISOString();
+        eventsub.endPrediction(prediction);
+        return [200, { data: [prediction] }];
+    },
+    'POST /helix/eventsub/subscriptions': (state, url, body, eventsub) => eventsub.subscribe(body || {}),
+    'POST /helix/clips': (state, url) => {
+        const invalid = missingQuery(url, ['broadcaster_id']);
+        if (invalid) return badRequest(invalid);
+        const id = `SimulatedClip${state.nextId++}`;
+        state.clips.set(id, { id, url: `https://clips.twitch.tv/${id}`, created_at: new Date().toISOString() });
+        return [202, { data: [{ id, edit_url: `https://clips.twitch.tv/${id}/edit` }] }];
+    },
+    'GET /helix/clips': (state, url) => {
+        const clip = state.clips.get(url.searchParams.get('id'));
+        return [200, { data: clip ? [clip] : [] }];
+    },
+    'GET /helix/users': (state, url) => {
+        const logins = url.searchParams.getAll('login');
+        return [200, { data: logins.map(login => userFor(state, login)) }];
+    },
+    'POST /helix/moderation/bans': (state, url, body) => {
+        const invalid = missingQuery(url, ['broadcaster_id', 'moderator_id']) || missing(body, ['data'])
+            || missing(body.data, ['user_id'], 'data.');
+        if (invalid) return badRequest(invalid);
+        const data = body.data;
+        state.bans.push(data);
+        return [200, { data: [{ broadcaster_id: url.searchParams.get('broadcaster_id'), user_id: data.user_id,
+            end_time: data.duration ? new Date(Date.now() + data.duration * 1000).toISOString() : null }] }];
+    },
+    'GET /helix/channels': (state, url) => [200, { data: [{ broadcaster_id: url.searchParams.get('broadcaster_id'), ...state.channel }] }],
+    'PATCH /helix/channels': (state, url, body, eventsub) => {
+        const invalid = missingQuery(url, ['broadcaster_id']);
+        if (invalid) return badRequest(invalid);
+        const title = body && body.title;
+        const gameId = body && body.game_id;
+        if (title === undefined && gameId === undefined) {
+            return badRequest('The request must update at least one field');
+        }
+        if (title !== undefined) state.channel.title = title;
+        if (gameId !== undefined) {
+            state.channel.game_id = gameId;
+            state.channel.game_name = gameId === '509658' ? 'Just Chatting' : `Category ${gameId}`;
+        }
+        eventsub.emit('channel.update', {
+            title: state.channel.title, language: 'en', category_id: state.channel.game_id,
+            category_name: state.channel.game_name, content_classification_labels: []
+        });
+        return [204, undefined];
+    },
+    'GET /helix/search/categories': (state, url) => {
+        const query = url.searchParams.get('query') || '';
+        return [200, { data: [{ id: String(Math.abs(hash(query)) % 1000000), name: query, box_art_url: '' }] }];
+    }
+};
+
+// Request validation as strict as Helix: keys must match exactly, so a misspelt key is a missing field
+function badRequest(message) {
+    return [400, { error: 'Bad Request', status: 400, message }];
+}
+
+function missing(object, names, prefix = '') {
+    if (!object || typeof object !== 'object') return `Missing required parameter "${prefix}${names[0]}"`;
+    const name = names.find(n => object[n] === undefined || object[n] === null || object[n] === '');
+    return name === undefined ? null : `Missing required parameter "${prefix}${name}"`;
+}
+
+function missingQuery(url, names) {
+    const name = names.find(n => !url.searchParams.get(n));
+    return name === undefined ? null : `Missing required parameter "${name}"`;
+}
+
+function listProblem(list, name, min, max) {
+    if (!Array.isArray(list) || list.length < min || list.length > max) {
+        return `"${name}" must contain ${min} to ${max} entries`;
+    }
+    const index = list.findIndex(entry => !entry || typeof entry.title !== 'string' || entry.title === '');
+    return index < 0 ? null : `Missing required parameter "${name}[${index}].title"`;
+}
+
+/**
+ * EventSub WebSocket sessions and their subscriptions, following Twitch's message format:
+ * session_welcome, session_keepalive, notification, session_reconnect.
+ */
+function createEventSub(options) {
+    const sessions = new Map();
+    const timers = new Set();
+    const broadcaster = { broadcaster_user_id: '1', broadcaster_user_login: 'simulated_broadcaster',
+        broadcaster_user_name: 'Simulated_Broadcaster' };
+    const scaled = seconds => Math.max(100, seconds * 1000 / options.speed);
+    const later = (fn, ms) => {
+        const timer = setTimeout(() => { timers.delete(timer); fn(); }, ms);
+        timers.add(timer);
+    };
+
+    function message(type, payload, subscription) {
+        return JSON.stringify({
+            metadata: {
+                message_id: crypto.randomUUID(),
+                message_type: type,
+                message_timestamp: new Date().toISOString(),
+                ...(subscription ? { subscription_type: subscription.type, subscription_version: subscription.version } : {})
+            },
+            payload
+        });
+    }
+
+    function send(session, text) {
+        const payload = Buffer.from(text);
+        let header;
+        if (payload.length < 126) {
+            header = Buffer.from([0x81, payload.length]);
+        } else if (payload.length < 65536) {
+            header = Buffer.alloc(4);
+            header[0] = 0x81;
+            header[1] = 126;
+            header.writeUInt16BE(payload.length, 2);
+        } else {
+            header = Buffer.alloc(10);
+            header[0] = 0x81;
+            header[1] = 127;
+            header.writeBigUInt64BE(BigInt(payload.length), 2);
+        }
+        session.socket.write(Buffer.concat([header, payload]));
+        session.lastSent = Date.now();
+    }
+
+    function close(session, code) {
+        const frame = Buffer.from([0x88, 2, code >> 8, code & 0xff]);
+        session.socket.end(frame);
+        clearInterval(session.keepalive);
+        sessions.delete(session.id);
+    }
+
+    // Client frames are masked; only close and ping need an answer here
+    function readFrames(session) {
+        let buffer = Buffer.alloc(0);
+        session.socket.on('data', chunk => {
+            buffer = Buffer.concat([buffer, chunk]);
+            while (buffer.length >= 2) {
+                const opcode = buffer[0] & 0x0f;
+                let length = buffer[1] & 0x7f;
+                let offset = 2;
+                if (length === 126) {
+                    if (buffer.length < 4) return;
+                    length = buffer.readUInt16BE(2);
+                    offset = 4;
+                } else if (length === 127) {
+                    if (buffer.length < 10) return;
+                    length = Number(buffer.readBigUInt64BE(2));
+                    offset = 10;
+                }
+                const mask = (buffer[1] & 0x80) ? buffer.subarray(offset, offset + 4) : null;
+                if (mask) offset += 4;
+                if (buffer.length < offset + length) return;
+                const payload = Buffer.from(buffer.subarray(offset, offset + length));
+                if (mask) payload.forEach((b, i) => { payload[i] = b ^ mask[i % 4]; });
+                buffer = buffer.subarray(offset + length);
+                if (opcode === 0x8) {
+                    close(session, 1000);
+                } else if (opcode === 0x9) {
+                    session.socket.write(Buffer.concat([Buffer.from([0x8a, payload.length]), payload]));
+                }
+            }
+        });
+        session.socket.on('close', () => {
+            clearInterval(session.keepalive);
+            sessions.delete(session.id);
+        });
+        session.socket.on('error', () => {});
+    }
+
+    // Reconnects carry the subscriptions of the session they replace
+    function accept(req, socket, url) {
+        if (url.pathname !== '/ws') {
+            socket.destroy();
+            return;
+        }
+        const acceptKey = crypto.createHash('sha1')
+            .update(req.headers['sec-websocket-key'] + '258EAFA5-E914-47DA-95CA-C5AB0DC85B11').digest('base64');
+        socket.write('HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n'
+            + `Sec-WebSocket-Accept: ${acceptKey}\r\n\r\n`);
+        const previous = sessions.get(url.searchParams.get('replaces'));
+        const session = {
+            id: crypto.randomUUID(),
+            socket,
+            subscriptions: previous ? previous.subscriptions : [],
+            lastSent: Date.now(),
+            connectedAt: new Date().toISOString()
+        };
+        sessions.set(session.id, session);
+        readFrames(session);
+        send(session, message('session_welcome', { session: {
+            id: session.id, status: 'connected', connected_at: session.connectedAt,
+            keepalive_timeout_seconds: options.keepaliveSeconds, reconnect_url: null
+        } }));
+        session.keepalive = setInterval(() => {
+            if (Date.now() - session.lastSent >= options.keepaliveSeconds * 1000 * 0.8) {
+                send(session, message('session_keepalive', {}));
+            }
+        }, options.keepaliveSeconds * 1000 / 2);
+        if (!options.quiet) {
+            console.log(`🔌 EventSub session ${session.id}${previous ? ' (reconnect)' : ''}`);
+        }
+    }
+
+    function subscribe(body) {
+        const transport = body.transport || {};
+        const session = sessions.get(transport.session_id);
+        if (transport.method !== 'websocket' || !session) {
+            return [400, { error: 'Bad Request', status: 400,
+                message: 'websocket transport session does not exist or has already disconnected' }];
+        }
+        if (session.subscriptions.some(s => s.type === body.type)) {
+            return [409, { error: 'Conflict', status: 409, message: 'subscription already exists' }];
+        }
+        const subscription = {
+            id: crypto.randomUUID(), status: 'enabled', type: body.type, version: body.version,
+            condition: body.condition || {}, transport: { method: 'websocket', session_id: session.id },
+            created_at: new Date().toISOString(), cost: 0
+        };
+        session.subscriptions.push(subscription);
+        return [202, { data: [subscription], total: session.subscriptions.length, total_cost: 0, max_total_cost: 10 }];
+    }
+
+    function emit(type, event) {
+        for (const session of sessions.values()) {
+            for (const subscription of session.subscriptions) {
+                if (subscription.type === type) {
+                    send(session, message('notification', { subscription, event: { ...broadcaster, ...event } }, subscription));
+                }
+            }
+        }
+    }
+
+    function pollEvent(poll, withVotes) {
+        return {
+            id: poll.id, title: poll.title,
+            choices: poll.choices.map(c => withVotes
+                ? { id: c.id, title: c.title, votes: c.votes, channel_points_votes: c.channel_points_votes, bits_votes: 0 }
+                : { id: c.id, title: c.title }),
+            bits_voting: { is_enabled: false, amount_per_vote: 0 },
+            channel_points_voting: { is_enabled: false, amount_per_vote: 0 },
+            started_at: poll.started_at,
+            ends_at: new Date(Date.parse(poll.started_at) + poll.duration * 1000).toISOString()
+        };
+    }
+
+    function runPoll(poll) {
+        emit('channel.poll.begin', pollEvent(poll, false));
+        const steps = Math.max(1, Math.min(10, Math.floor(poll.duration / 5)));
+        for (let step = 1; step <= steps; step++) {
+            later(() => {
+                poll.choices.forEach(c => { c.votes += Math.floor(Math.random() * 5); });
+                if (step < steps) {
+                    emit('channel.poll.progress', pollEvent(poll, true));
+                } else {
+                    poll.status = 'COMPLETED';
+                    poll.ended_at = new Date().toISOString();
+                    const { ends_at, ...event } = pollEvent(poll, true);
+                    emit('channel.poll.end', { ...event, status: 'completed', ended_at: poll.ended_at });
+                }
+            }, scaled(poll.duration * step / steps));
+        }
+    }
+
+    function predictionEvent(prediction) {
+        return {
+            id: prediction.id, title: prediction.title,
+            outcomes: prediction.outcomes.map(o => ({ ...o, top_predictors: [] })),
+            started_at: prediction.created_at,
+            locks_at: new Date(Date.parse(prediction.created_at) + prediction.prediction_window * 1000).toISOString()
+        };
+    }
+
+    function runPrediction(prediction) {
+        emit('channel.prediction.begin', predictionEvent(prediction));
+        const steps = Math.max(1, Math.min(10, Math.floor(prediction.prediction_window / 5)));
+        for (let step = 1; step <= steps; step++) {
+            later(() => {
+                if (prediction.status !== 'ACTIVE') return;
+                prediction.outcomes.forEach(o => {
+                    const users = Math.floor(Math.random() * 4);
+                    o.users += users;
+                    o.channel_points += users * (100 + Math.floor(Math.random() * 900));
+                });
+                if (step < steps) {
+                    emit('channel.prediction.progress', predictionEvent(prediction));
+                } else {
+                    prediction.status = 'LOCKED';
+                    prediction.locked_at = new Date().toISOString();
+                    const { locks_at, ...event } = predictionEvent(prediction);
+                    emit('channel.prediction.lock', { ...event, locked_at: prediction.locked_at });
+                }
+            }, scaled(prediction.prediction_window * step / steps));
+        }
+    }
+
+    function endPrediction(prediction) {
+        const { locks_at, ...event } = predictionEvent(prediction);
+        emit('channel.prediction.end', { ...event, winning_outcome_id: prediction.winning_outcome_id,
+            status: prediction.status.toLowerCase(), ended_at: prediction.ended_at });
+    }
+
+    // POST /_sim/eventsub/<action>
+    function control(action, url) {
+        switch (action) {
+            case 'follow': {
+                const user = url.searchParams.get('user') || `viewer${Math.floor(Math.random() * 1000)}`;
+                emit('channel.follow', { user_id: String(hash(user) >>> 0), user_login: user.toLowerCase(), user_name: user,
+                    followed_at: new Date().toISOString() });
+                return true;
+            }
+            case 'raid': {
+                const from = url.searchParams.get('from') || 'simulated_raider';
+                emit('channel.raid', { from_broadcaster_user_id: String(hash(from) >>> 0), from_broadcaster_user_login: from.toLowerCase(),
+                    from_broadcaster_user_name: from, to_broadcaster_user_id: '1', to_broadcaster_user_login: 'simulated_broadcaster',
+                    to_broadcaster_user_name: 'Simulated_Broadcaster', viewers: parseInt(url.searchParams.get('viewers') || '42', 10) });
+                return true;
+            }
+            case 'reconnect':
+                for (const session of sessions.values()) {
+                    send(session, message('session_reconnect', { session: {
+                        id: session.id, status: 'reconnecting', keepalive_timeout_seconds: null,
+                        reconnect_url: `ws://localhost:${options.port}/ws?replaces=${session.id}`,
+                        connected_at: session.connectedAt
+                    } }));
+                }
+                return true;
+            case 'drop':
+                for (const session of [...sessions.values()]) {
+                    session.socket.destroy();
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    function stop() {
+        timers.forEach(clearTimeout);
+        timers.clear();
+        for (const session of [...sessions.values()]) {
+            clearInterval(session.keepalive);
+            session.socket.destroy();
+        }
+    }
+
+    return { accept, subscribe, emit, runPoll, runPrediction, endPrediction, control, stop, sessions };
+}
+
+function hash(text) {
+    let h = 0;
+    for (let i = 0; i < text.length; i++) {
+        h = (h * 31 + text.charCodeAt(i)) | 0;
+    }
+    return h;
+}
+
+function readBody(req) {
+    return new Promise((resolve) => {
+        const chunks = [];
+        req.on('data', chunk => chunks.push(chunk));
+        req.on('end', () => {
+            const raw = Buffer.concat(chunks).toString('utf8');
+            if (!raw) return resolve(undefined);
+            try {
+                resolve(JSON.parse(raw));
+            } catch {
+                resolve(raw);
+            }
+        });
+    });
+}
+
+function startSimulator(options) {
+    const sampleLatency = latencySampler(options.latency);
+    const takeToken = createRateLimiter(options.rateLimit, options.rateWindowMs);
+    const state = createState();
+    const eventsub = createEventSub(options);
+
+    const server = http.createServer(async (req, res) => {
+        const url = new URL(req.url, 'http://localhost');
+        const body = await readBody(req);
+
+        // Control endpoints for harnesses; never delayed or rate limited
+        if (url.pathname === '/_sim/stats') {
+            res.writeHead(200, { 'Content-Type': 'application/json' });
+            res.end(JSON.stringify(state.stats));
+            return;
+        }
+        if (url.pathname.startsWith('/_sim/eventsub/') && req.method === 'POST') {
+            const handled = eventsub.control(url.pathname.substring('/_sim/eventsub/'.length), url);
+            res.writeHead(handled ? 204 : 404);
+            res.end();
+            return;
+        }
+        if (url.pathname === '/_sim/reset') {
+            Object.assign(state, createState());
+            res.writeHead(204);
+            res.end();
+            return;
+        }
+
+        const key = `${req.method} ${url.pathname}`;
+        const stats = state.stats[key] || (state.stats[key] = { requests: 0, rateLimited: 0, errors: 0 });
+        stats.requests++;
+
+        await new Promise(resolve => setTimeout(resolve, sampleLatency()));
+
+        const limit = takeToken();
+        const headers = { 'Content-Type': 'application/json', ...limit.headers };
+        if (!limit.allowed) {
+            stats.rateLimited++;
+            res.writeHead(429, headers);
+            res.end(JSON.stringify({ error: 'Too Many Requests', status: 429, message: 'Rate limit exceeded' }));
+            return;
+        }
+        if (options.errorRate > 0 && Math.random() < options.errorRate) {
+            stats.errors++;
+            res.writeHead(options.errorStatus, headers);
+            res.end(JSON.stringify({ error: 'Service Unavailable', status: options.errorStatus, message: 'Simulated failure' }));
+            return;
+        }
+
+        const handler = routes[key];
+        if (!handler) {
+            res.writeHead(404, headers);
+            res.end(JSON.stringify({ error: 'Not Found', status: 404, message: `No simulated route for ${key}` }));
+            return;
+        }
+        const [status, responseBody] = handler(state, url, body, eventsub);
+        res.writeHead(status, headers);
+        res.end(responseBody === undefined ? undefined : JSON.stringify(responseBody));
+    });
+
+    server.on('upgrade', (req, socket) => eventsub.accept(req, socket, new URL(req.url, 'http://localhost')));
+    server.on('close', () => eventsub.stop());
+
+    return new Promise(resolve => server.listen(options.port, () => {
+        if (!options.quiet) {
+            console.log(`🧪 Helix simulator listening on http://localhost:${options.port}`);
+            console.log(`   TWITCH_HELIX_URL=http://localhost:${options.port}/helix`);
+            console.log(`   TWITCH_OAUTH_URL=http://localhost:${options.port}/oauth2`);
+            console.log(`   TWITCH_EVENTSUB_URL=ws://localhost:${options.port}/ws`);
+        }
+        resolve(server);
+    }));
+}
+
+if (require.main === module) {
+    startSimulator(parseArgs(process.argv.slice(2))).catch((error) => {
+        console.error('Simulator failed:', error.message);
+        process.exit(1);
+    });
+}
+
+module.exports = { startSimulator, latencySampler, createRateLimiter, createEventSub };
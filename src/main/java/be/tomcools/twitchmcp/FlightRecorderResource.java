@@ -0,0 +1,163 @@
+package be.tomcools.twitchmcp;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Continuous Flight Recorder recording of the Twitch MCP events (chat ingest, tool calls, Helix requests),
+ * dumped on demand so a slow stream can be profiled without restarting the server. Dumps require the
+ * {@code twitch.jfr.token} bearer token.
+ */
+@jakarta.ws.rs.Path("/jfr")
+@ApplicationScoped
+public class FlightRecorderResource {
+
+    private static final Logger LOG = Logger.getLogger(FlightRecorderResource.class);
+
+    private static final String[] EVENTS = {
+            "be.tomcools.twitchmcp.ChatIngest",
+            "be.tomcools.twitchmcp.ToolCall",
+            "be.tomcools.twitchmcp.HelixRequest"
+    };
+
+    // Recorded by the built-in settings, and they carry the Twitch token and client secret when those come from the
+    // environment or -D flags
+    private static final String[] SECRET_EVENTS = {
+            "jdk.InitialEnvironmentVariable",
+            "jdk.InitialSystemProperty",
+            "jdk.JVMInformation"
+    };
+
+    @ConfigProperty(name = "twitch.jfr.enabled", defaultValue = "false")
+    boolean enabled;
+
+    // Built-in JFR settings ("default" or "profile") recorded alongside our own events; empty records only ours
+    @ConfigProperty(name = "twitch.jfr.settings")
+    Optional<String> settings;
+
+    @ConfigProperty(name = "twitch.jfr.max_age", defaultValue = "PT30M")
+    Duration maxAge;
+
+    // Bearer token GET /jfr requires; without one the recording runs but cannot be downloaded
+    @ConfigProperty(name = "twitch.jfr.token")
+    Optional<String> token;
+
+    private Recording recording;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            recording = settings.isPresent()
+                    ? new Recording(Configuration.getConfiguration(settings.get()))
+                    : new Recording();
+            for (String event : EVENTS) {
+                recording.enable(event);
+            }
+            for (String event : SECRET_EVENTS) {
+                recording.disable(event);
+            }
+            recording.setName("twitch-mcp");
+            recording.setToDisk(true);
+            recording.setMaxAge(maxAge);
+            recording.start();
+            LOG.info(token.filter(value -> !value.isBlank()).isPresent()
+                    ? "Flight Recorder recording started, dump it with GET /jfr"
+                    : "Flight Recorder recording started; set twitch.jfr.token to dump it with GET /jfr");
+        } catch (Exception e) {
+            LOG.warn("Could not start Flight Recorder recording: " + e.getMessage());
+            recording = null;
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    /**
+     * Streams everything recorded so far as a .jfr file, for JDK Mission Control or {@code jfr print}.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response dump(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+        if (!authorized(authorization)) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(Map.of("error", "Missing or wrong bearer token; set TWITCH_JFR_TOKEN"))
+                    .build();
+        }
+        if (recording == null) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(Map.of("error", "Flight Recorder is not enabled; set TWITCH_JFR_ENABLED=true"))
+                    .build();
+        }
+        Path file = null;
+        try {
+            file = Files.createTempFile("twitch-mcp-", ".jfr");
+            recording.dump(file);
+            // Copied to the response from disk, a dump can be hundreds of megabytes; the stream deletes it once sent
+            Path dumped = file;
+            file = null;
+            StreamingOutput body = output -> {
+                try {
+                    Files.copy(dumped, output);
+                } finally {
+                    delete(dumped);
+                }
+            };
+            return Response.ok(body)
+                    .header("Content-Disposition", "attachment; filename=\"twitch-mcp.jfr\"")
+                    .build();
+        } catch (IOException | IllegalStateException e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(Map.of("error", "Failed to dump recording: " + e.getMessage()))
+                    .build();
+        } finally {
+            if (file != null) {
+                delete(file);
+            }
+        }
+    }
+
+    // Compared in constant time, so the token cannot be guessed from response times
+    private boolean authorized(String authorization) {
+        String expected = token.filter(value -> !value.isBlank()).map(value -> "Bearer " + value).orElse(null);
+        return expected != null && authorization != null && MessageDigest.isEqual(
+                authorization.getBytes(StandardCharsets.UTF_8), expected.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not delete Flight Recorder dump " + file + ": " + e.getMessage());
+        }
+    }
+}
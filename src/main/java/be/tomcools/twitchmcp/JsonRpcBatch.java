@@ -0,0 +1,104 @@
+package be.tomcools.twitchmcp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * One JSON-RPC 2.0 batch in flight. All calls start immediately and run concurrently, except that calls with the
+ * same side-effect target are chained so they take effect in batch order. The response array is written in request
+ * order, each element as soon as it and every element before it are done.
+ */
+final class JsonRpcBatch implements StreamingOutput {
+
+    private final List<CompletableFuture<Object>> responses = new ArrayList<>();
+    private final ObjectMapper objectMapper;
+    private boolean expectsResponse;
+
+    /**
+     * @param handler  turns one request into its response entity: a map, or bytes that are already JSON
+     * @param targetOf side-effect target of a request, or null when it can run in any order
+     */
+    JsonRpcBatch(List<?> batch, Function<Map<String, Object>, Object> handler,
+                 Function<Map<String, Object>, String> targetOf, Executor executor, ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        Map<String, CompletableFuture<Object>> lastByTarget = new HashMap<>();
+        for (Object element : batch) {
+            if (!(element instanceof Map<?, ?> map) || !(map.get("method") instanceof String)) {
+                responses.add(CompletableFuture.completedFuture(error(null, -32600, "Invalid Request")));
+                expectsResponse = true;
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> request = (Map<String, Object>) map;
+            // Notifications (no id) are executed but get no response
+            boolean notification = !request.containsKey("id");
+            Supplier<Object> call = () -> {
+                try {
+                    return handler.apply(request);
+                } catch (RuntimeException e) {
+                    return error(request.get("id"), -32603, "Internal error: " + e.getMessage());
+                }
+            };
+
+            String target = targetOf.apply(request);
+            CompletableFuture<Object> previous = target != null ? lastByTarget.get(target) : null;
+            // call never completes exceptionally, so a failed predecessor does not cancel its successors
+            CompletableFuture<Object> response = previous == null
+                    ? CompletableFuture.supplyAsync(call, executor)
+                    : previous.thenApplyAsync(ignored -> call.get(), executor);
+            if (target != null) {
+                lastByTarget.put(target, response);
+            }
+            responses.add(notification ? response.thenApply(ignored -> null) : response);
+            expectsResponse |= !notification;
+        }
+    }
+
+    /**
+     * False when the batch only held notifications; JSON-RPC then sends no body at all.
+     */
+    boolean expectsResponse() {
+        return expectsResponse;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        output.write('[');
+        boolean first = true;
+        for (CompletableFuture<Object> response : responses) {
+            Object entity = response.join();
+            if (entity == null) {
+                continue;
+            }
+            if (!first) {
+                output.write(',');
+            }
+            first = false;
+            output.write(entity instanceof byte[] json ? json : objectMapper.writeValueAsBytes(entity));
+            output.flush();
+        }
+        output.write(']');
+        output.flush();
+    }
+
+    static Map<String, Object> error(Object id, int code, String message) {
+        // LinkedHashMap rather than Map.of: the id is null for requests that could not be parsed
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("jsonrpc", "2.0");
+        response.put("id", id);
+        response.put("error", Map.of("code", code, "message", message));
+        return response;
+    }
+}
@@ -0,0 +1,73 @@
+package be.tomcools.twitchmcp;
+
+import be.tomcools.twitchmcp.client.ChatEventBus;
+import be.tomcools.twitchmcp.client.TwitchTenants;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of one MCP session on the HTTP transport, identified by the Mcp-Session-Id header.
+ * Holds the configuration validated at initialize and the chat event streams opened within the session.
+ */
+final class McpSession {
+
+    private final String id;
+    private final TwitchTenants.TenantConfig config;
+    private final Set<ChatEventBus.Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private volatile long lastAccess = System.currentTimeMillis();
+    private volatile boolean closed;
+
+    /**
+     * @param config validated configuration, or null when initialize came without one; requests then pass it
+     *               in the query string as without a session
+     */
+    McpSession(String id, TwitchTenants.TenantConfig config) {
+        this.id = id;
+        this.config = config;
+    }
+
+    String id() {
+        return id;
+    }
+
+    TwitchTenants.TenantConfig config() {
+        return config;
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    void addSubscription(ChatEventBus.Subscription subscription) {
+        subscriptions.add(subscription);
+        // The session may have been closed meanwhile; don't leave the stream open
+        if (closed) {
+            subscription.close();
+        }
+    }
+
+    void removeSubscription(ChatEventBus.Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    void close() {
+        closed = true;
+        for (ChatEventBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+    }
+}
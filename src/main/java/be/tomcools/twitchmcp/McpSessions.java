@@ -0,0 +1,170 @@
+package be.tomcools.twitchmcp;
+
+import be.tomcools.twitchmcp.client.TwitchTenants;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open MCP sessions of the HTTP transport.
+ * Idle sessions are expired by a hashed timer wheel with one slot per second of the idle timeout. A request only
+ * records the access time on its session; when the wheel reaches a session's slot, the session either expires or
+ * is filed again under its new expiry. Expiry therefore costs O(1) per session and nothing per request. Sessions
+ * with an open event stream count as in use.
+ */
+@ApplicationScoped
+public class McpSessions {
+
+    static final String HEADER = "Mcp-Session-Id";
+
+    private static final Logger LOG = Logger.getLogger(McpSessions.class);
+    private static final long TICK_MILLIS = 1000;
+
+    @ConfigProperty(name = "twitch.sessions.idle_timeout", defaultValue = "PT30M")
+    Duration idleTimeout;
+
+    @ConfigProperty(name = "twitch.sessions.max", defaultValue = "10000")
+    int maxSessions;
+
+    @Inject
+    TwitchTenants tenants;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, McpSession> sessions = new ConcurrentHashMap<>();
+    // Open sessions per configuration, so closing one knows whether the tenant context is still used
+    private final Map<TwitchTenants.TenantConfig, Integer> configUsers = new ConcurrentHashMap<>();
+    private List<Queue<McpSession>> wheel;
+    private volatile int cursor;
+    private ScheduledExecutorService ticker;
+
+    void onStart(@Observes StartupEvent ev) {
+        int slots = (int) Math.max(2, idleTimeout.toMillis() / TICK_MILLIS + 1);
+        wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mcp-sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        Gauge.builder("mcp.sessions.active", sessions, Map::size)
+                .description("Open MCP sessions on the HTTP transport")
+                .register(registry);
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        for (McpSession session : List.copyOf(sessions.values())) {
+            session.close();
+        }
+        sessions.clear();
+        configUsers.clear();
+    }
+
+    /**
+     * Opens a session, or returns null when the session limit is reached.
+     */
+    McpSession create(TwitchTenants.TenantConfig config) {
+        if (sessions.size() >= maxSessions) {
+            return null;
+        }
+        McpSession session = new McpSession(UUID.randomUUID().toString(), config);
+        if (config != null) {
+            configUsers.merge(config, 1, Integer::sum);
+        }
+        sessions.put(session.id(), session);
+        file(session);
+        return session;
+    }
+
+    /**
+     * Looks up a session and marks it as used, or returns null for unknown and expired ids.
+     */
+    McpSession get(String id) {
+        McpSession session = sessions.get(id);
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session: closes its event streams and, when no other session uses the same configuration, the
+     * tenant context holding its chat connection and buffers.
+     */
+    boolean close(String id) {
+        McpSession session = sessions.remove(id);
+        if (session == null) {
+            return false;
+        }
+        session.close();
+        TwitchTenants.TenantConfig config = session.config();
+        if (config != null && configUsers.computeIfPresent(config, (key, users) -> users > 1 ? users - 1 : null) == null) {
+            tenants.release(config);
+        }
+        return true;
+    }
+
+    private void tick() {
+        try {
+            int slot = (cursor + 1) % wheel.size();
+            cursor = slot;
+            long now = System.currentTimeMillis();
+            Queue<McpSession> due = wheel.get(slot);
+            // Only drain what was due at the start of this tick; re-filed sessions land in later slots
+            for (int i = due.size(); i > 0; i--) {
+                McpSession session = due.poll();
+                if (session == null) {
+                    break;
+                }
+                if (session.isClosed()) {
+                    continue;
+                }
+                // A client may only be reading its event streams, which send no requests
+                if (session.hasSubscriptions()) {
+                    session.touch();
+                }
+                if (now - session.lastAccess() >= idleTimeout.toMillis()) {
+                    LOG.debugf("Expiring idle MCP session %s", session.id());
+                    close(session.id());
+                } else {
+                    file(session);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warnf("MCP session expiry failed: %s", e.getMessage());
+        }
+    }
+
+    // Puts the session in the slot of its current expiry time; never further than one revolution ahead
+    private void file(McpSession session) {
+        long remaining = session.lastAccess() + idleTimeout.toMillis() - System.currentTimeMillis();
+        long ticks = Math.max(1, (remaining + TICK_MILLIS - 1) / TICK_MILLIS);
+        int slot = (int) ((cursor + Math.min(ticks, wheel.size() - 1)) % wheel.size());
+        wheel.get(slot).add(session);
+    }
+}
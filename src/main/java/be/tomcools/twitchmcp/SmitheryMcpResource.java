@@ -1,18 +1,41 @@
 package be.tomcools.twitchmcp;
 
+import be.tomcools.twitchmcp.client.ChatEvent;
+import be.tomcools.twitchmcp.client.ChatEventBus;
+import be.tomcools.twitchmcp.client.ChatEventFilter;
 import be.tomcools.twitchmcp.client.TwitchClient;
+import be.tomcools.twitchmcp.client.TwitchTenants;
+import be.tomcools.twitchmcp.cluster.TwitchCluster;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.io.UncheckedIOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * HTTP endpoint for Smithery integration.
@@ -24,7 +47,28 @@ import java.util.List;
 public class SmitheryMcpResource {
 
     @Inject
-    TwitchClient client;
+    TwitchTenants tenants;
+
+    @Inject
+    ToolMetrics toolMetrics;
+
+    @Inject
+    ToolRegistry toolRegistry;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    McpSessions sessions;
+
+    @Inject
+    TwitchCluster cluster;
+
+    @ConfigProperty(name = "twitch.mcp.max_batch_size", defaultValue = "50")
+    int maxBatchSize;
+
+    // Tool calls mostly wait on Helix and IRC, so batch calls get a virtual thread each
+    private final ExecutorService batchExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Context
     UriInfo uriInfo;
@@ -34,11 +78,16 @@ public class SmitheryMcpResource {
      * Implements "lazy loading" - tools are discoverable without authentication
      */
     @GET
-    public Response handleGet() {
+    public Response handleGet(@Context Request request) {
         try {
             // Always return available tools for discovery, regardless of authentication status
             // This implements Smithery's "lazy loading" best practice
-            return Response.ok(getAvailableTools()).build();
+            EntityTag tag = toolRegistry.discoveryTag();
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+            return Response.ok(toolRegistry.discovery()).tag(tag).build();
             
         } catch (Exception e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
@@ -47,16 +96,129 @@ public class SmitheryMcpResource {
         }
     }
 
+    /**
+     * Chat event stream for clients asking for text/event-stream: new chat messages, moderation actions and stats
+     * deltas of the channel in the query-string configuration, filtered by the comma-separated
+     * users, keywords and types query parameters
+     */
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void subscribeChatEvents(@Context SseEventSink sink, @Context Sse sse,
+                                    @HeaderParam(McpSessions.HEADER) String sessionId,
+                                    @QueryParam("users") String users,
+                                    @QueryParam("keywords") String keywords,
+                                    @QueryParam("types") String types) {
+        McpSession session = sessionId != null ? sessions.get(sessionId) : null;
+        String error = null;
+        TwitchTenants.TenantConfig tenant = session != null ? session.config() : null;
+        if (sessionId != null && session == null) {
+            error = "Session not found: " + sessionId;
+        } else if (tenant == null) {
+            Map<String, String> config = parseConfiguration();
+            error = validateTwitchConfiguration(config);
+            tenant = error == null ? tenantConfig(config) : null;
+        }
+        // Streams are not forwarded; the channel's chat only reaches the server that owns it
+        String owner = error == null ? cluster.remoteOwner(tenant.channel()) : null;
+        if (owner != null) {
+            error = "Channel #" + tenant.channel() + " is served by " + owner + "; open the event stream there";
+        }
+        ChatEventFilter filter = ChatEventFilter.ALL;
+        if (error == null) {
+            try {
+                filter = ChatEventFilter.parse(users, keywords, types);
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+        if (error != null) {
+            sink.send(sse.newEventBuilder().name("error").data(error).build()).whenComplete((ignored, e) -> sink.close());
+            return;
+        }
+
+        ChatEventFilter subscriptionFilter = filter;
+        ChatEventBus.Subscription[] opened = new ChatEventBus.Subscription[1];
+        ChatEventBus.Subscription subscription = tenants.withClient(tenant, client -> client.subscribe(subscriptionFilter, new ChatEventBus.Subscriber() {
+            @Override
+            public CompletionStage<?> send(ChatEvent event) {
+                if (sink.isClosed()) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("Client disconnected"));
+                }
+                return sink.send(toSseEvent(sse, event));
+            }
+
+            @Override
+            public void closed() {
+                if (session != null && opened[0] != null) {
+                    session.removeSubscription(opened[0]);
+                }
+                sink.close();
+            }
+        }));
+        opened[0] = subscription;
+        // Streams opened within a session end with it
+        if (session != null) {
+            session.addSubscription(subscription);
+        }
+    }
+
+    private OutboundSseEvent toSseEvent(Sse sse, ChatEvent event) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("type", event.type().id());
+        data.put("timestamp", event.timestamp());
+        if (event.username() != null) {
+            data.put("user", event.username());
+        }
+        if (event.text() != null) {
+            data.put("text", event.text());
+        }
+        data.putAll(event.details());
+        OutboundSseEvent.Builder builder = sse.newEventBuilder().name(event.type().id());
+        if (event.sequence() > 0) {
+            builder.id(String.valueOf(event.sequence()));
+        }
+        try {
+            return builder.data(objectMapper.writeValueAsString(data)).build();
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Handle POST requests - supports both custom format and MCP JSON-RPC
      * Validates authentication only when tools are invoked (lazy loading)
      */
     @POST
-    public Response handlePost(Map<String, Object> request) {
+    public Response handlePost(@HeaderParam(McpSessions.HEADER) String sessionId, Object body) {
         try {
+            McpSession session = null;
+            if (sessionId != null) {
+                session = sessions.get(sessionId);
+                if (session == null) {
+                    // Expired or deleted; the MCP spec has clients start a new session on 404
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity(JsonRpcBatch.error(null, -32001, "Session not found: " + sessionId))
+                            .build();
+                }
+            }
+            // Within a session the configuration was validated at initialize; otherwise read it from the query string
+            Map<String, String> config = session != null && session.config() != null ? Map.of() : parseConfiguration();
+
+            // A JSON array is a JSON-RPC batch
+            if (body instanceof List<?> batch) {
+                return handleBatch(batch, session, config);
+            }
+            if (!(body instanceof Map<?, ?> object)) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity(Map.of("error", "Request body must be a JSON object or a JSON-RPC batch"))
+                        .build();
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> request = (Map<String, Object>) object;
+
             // Check if this is an MCP JSON-RPC request
             if (request.containsKey("method")) {
-                return handleMcpRequest(request);
+                return handleMcpRequest(request, session, config);
             }
             
             // Handle our custom format
@@ -69,17 +231,69 @@ public class SmitheryMcpResource {
         }
     }
 
+    /**
+     * Handle a JSON-RPC batch: calls run concurrently and the response array is streamed back in request order
+     */
+    private Response handleBatch(List<?> batch, McpSession session, Map<String, String> config) {
+        if (batch.isEmpty() || batch.size() > maxBatchSize) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(JsonRpcBatch.error(null, -32600, batch.isEmpty()
+                            ? "Invalid Request: empty batch"
+                            : "Invalid Request: batches are limited to " + maxBatchSize + " calls"))
+                    .build();
+        }
+        // The configuration was read on this thread; the calls run on other threads, outside this request.
+        // Only entities survive a batch, not headers, so an initialize would open a session its client never learns;
+        // the MCP spec keeps initialize out of batches for the same reason
+        JsonRpcBatch running = new JsonRpcBatch(batch,
+                request -> "initialize".equals(request.get("method"))
+                        ? JsonRpcBatch.error(request.get("id"), -32600, "Invalid Request: initialize cannot be part of a batch")
+                        : handleMcpRequest(request, session, config).getEntity(),
+                this::sideEffectTarget, batchExecutor, objectMapper);
+        if (!running.expectsResponse()) {
+            return Response.accepted().build();
+        }
+        return Response.ok(running).build();
+    }
+
+    /**
+     * What a call changes, so calls changing the same thing keep their batch order; null for read-only calls
+     */
+    private String sideEffectTarget(Map<String, Object> request) {
+        if (!"tools/call".equals(request.get("method")) || !(request.get("params") instanceof Map<?, ?> params)) {
+            return null;
+        }
+        return sideEffectTarget(String.valueOf(params.get("name")), params.get("arguments"));
+    }
+
+    private static String sideEffectTarget(String toolName, Object arguments) {
+        return switch (toolName) {
+            case "sendMessageToChat" -> "chat";
+            case "createTwitchPoll" -> "poll";
+            case "createTwitchPrediction" -> "prediction";
+            case "createTwitchClip" -> "clip";
+            case "updateStreamTitle", "updateStreamCategory" -> "channel";
+            case "timeoutUser", "banUser" -> "moderation:" + (arguments instanceof Map<?, ?> args
+                    ? String.valueOf(args.get("usernameOrDescriptor")).toLowerCase() : "");
+            default -> null;
+        };
+    }
+
     /**
      * Handle MCP JSON-RPC requests
      */
-    private Response handleMcpRequest(Map<String, Object> request) {
+    private Response handleMcpRequest(Map<String, Object> request, McpSession session, Map<String, String> config) {
         String method = (String) request.get("method");
         Object id = request.get("id");
         
         switch (method) {
             case "initialize":
-                // MCP initialization handshake
-                Map<String, Object> params = (Map<String, Object>) request.get("params");
+                // MCP initialization handshake; the session keeps the validated configuration, if any was passed
+                TwitchTenants.TenantConfig validated = validateTwitchConfiguration(config) == null ? tenantConfig(config) : null;
+                McpSession newSession = sessions.create(validated);
+                if (newSession == null) {
+                    return createMcpError(id, -32000, "Too many open sessions, try again later");
+                }
                 return Response.ok(Map.of(
                     "jsonrpc", "2.0",
                     "id", id,
@@ -93,15 +307,11 @@ public class SmitheryMcpResource {
                             "tools", Map.of("listChanged", true)
                         )
                     )
-                )).build();
+                )).header(McpSessions.HEADER, newSession.id()).build();
                 
             case "tools/list":
                 // Return tools list without authentication (lazy loading)
-                return Response.ok(Map.of(
-                    "jsonrpc", "2.0",
-                    "id", id,
-                    "result", Map.of("tools", getMcpToolsList())
-                )).build();
+                return Response.ok(toolRegistry.toolsListResponse(id)).build();
                 
             case "tools/call":
                 // Handle tool execution with authentication
@@ -113,18 +323,18 @@ public class SmitheryMcpResource {
                 String toolName = (String) callParams.get("name");
                 Map<String, Object> arguments = (Map<String, Object>) callParams.get("arguments");
                 
-                // Parse configuration from query parameters
-                Map<String, String> config = parseConfiguration();
-                
-                // Validate authentication for tool execution
-                String validationError = validateTwitchConfiguration(config);
-                if (validationError != null) {
-                    return createMcpError(id, -32001, validationError);
+                // Validate authentication for tool execution, unless the session already did
+                TwitchTenants.TenantConfig tenant = session != null ? session.config() : null;
+                if (tenant == null) {
+                    String validationError = validateTwitchConfiguration(config);
+                    if (validationError != null) {
+                        return createMcpError(id, -32001, validationError);
+                    }
+                    tenant = tenantConfig(config);
                 }
                 
-                // Update configuration and execute
-                updateTwitchConfiguration(config);
-                Object result = executeTool(toolName, arguments != null ? arguments : Map.of());
+                // Execute against this tenant's own client
+                Object result = callTool(tenant, toolName, arguments != null ? arguments : Map.of());
                 
                 return Response.ok(Map.of(
                     "jsonrpc", "2.0",
@@ -162,38 +372,77 @@ public class SmitheryMcpResource {
                     .build();
         }
         
-        // Update Twitch client configuration
-        updateTwitchConfiguration(config);
-        
-        // Execute the requested tool
-        Object result = executeTool(tool, params != null ? params : Map.of());
+        // Execute the requested tool against this tenant's own client
+        Object result = callTool(tenantConfig(config), tool, params != null ? params : Map.of());
         
         return Response.ok(Map.of("result", result)).build();
     }
 
+    /**
+     * Tool call forwarded by another server of the cluster, which found that this server owns the channel
+     */
+    @POST
+    @Path("forward")
+    public Response handleForward(@HeaderParam(TwitchCluster.SECRET_HEADER) String secret, Map<String, Object> body) {
+        if (!cluster.authorized(secret)) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(Map.of("error", "Missing or wrong " + TwitchCluster.SECRET_HEADER))
+                    .build();
+        }
+        try {
+            TwitchTenants.TenantConfig tenant = objectMapper.convertValue(body.get("config"), TwitchTenants.TenantConfig.class);
+            String toolName = (String) body.get("tool");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> arguments = body.get("arguments") instanceof Map<?, ?> map
+                    ? (Map<String, Object>) map : Map.of();
+            // Runs here even if this server's view of the ring differs, so calls never bounce between servers
+            Object result = tenants.withClient(tenant, client -> executeTool(client, toolName, arguments));
+            return Response.ok(Collections.singletonMap("result", result)).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(Map.of("error", "Failed to process request: " + e.getMessage()))
+                    .build();
+        }
+    }
+
+    /**
+     * Runs a tool against the tenant's own client, on the server owning its channel when running as a cluster
+     */
+    private Object callTool(TwitchTenants.TenantConfig tenant, String toolName, Map<String, Object> arguments) {
+        Optional<Object> forwarded = cluster.forward(tenant, toolName, arguments,
+                sideEffectTarget(toolName, arguments) == null);
+        if (forwarded.isPresent()) {
+            return forwarded.get();
+        }
+        return tenants.withClient(tenant, client -> executeTool(client, toolName, arguments));
+    }
+
     /**
      * Create MCP JSON-RPC error response
      */
     private Response createMcpError(Object id, int code, String message) {
         return Response.status(Response.Status.BAD_REQUEST)
-                .entity(Map.of(
-                    "jsonrpc", "2.0",
-                    "id", id,
-                    "error", Map.of(
-                        "code", code,
-                        "message", message
-                    )
-                )).build();
+                .entity(JsonRpcBatch.error(id, code, message))
+                .build();
     }
 
     /**
-     * Handle DELETE requests - typically for cleanup operations
+     * Handle DELETE requests - ends the MCP session, closing its event streams and chat connection
      */
     @DELETE
-    public Response handleDelete() {
+    public Response handleDelete(@HeaderParam(McpSessions.HEADER) String sessionId) {
         try {
-            // Perform any cleanup operations if needed
-            return Response.ok(Map.of("message", "Cleanup completed")).build();
+            if (sessionId == null) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity(Map.of("error", "Missing " + McpSessions.HEADER + " header"))
+                        .build();
+            }
+            if (!sessions.close(sessionId)) {
+                return Response.status(Response.Status.NOT_FOUND)
+                        .entity(Map.of("error", "Session not found: " + sessionId))
+                        .build();
+            }
+            return Response.ok(Map.of("message", "Session closed")).build();
         } catch (Exception e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(Map.of("error", "Failed to cleanup: " + e.getMessage()))
@@ -244,327 +493,210 @@ public class SmitheryMcpResource {
     }
 
     /**
-     * Update TwitchClient configuration from parsed parameters
+     * Tenant the validated configuration belongs to; each tenant gets its own isolated client
      */
-    private void updateTwitchConfiguration(Map<String, String> config) {
-        // Update Twitch configuration if provided in query parameters
-        String channel = config.get("twitch.channel");
-        String auth = config.get("twitch.auth");
-        String clientId = config.get("twitch.clientId");
-        String broadcasterId = config.get("twitch.broadcasterId");
-        
-        if (channel != null) {
-            System.setProperty("twitch.channel", channel);
-        }
-        if (auth != null) {
-            System.setProperty("twitch.auth", auth);
-        }
-        if (clientId != null) {
-            System.setProperty("twitch.client_id", clientId);
-        }
-        if (broadcasterId != null) {
-            System.setProperty("twitch.broadcaster_id", broadcasterId);
-        }
+    private TwitchTenants.TenantConfig tenantConfig(Map<String, String> config) {
+        return new TwitchTenants.TenantConfig(
+                config.get("twitch.channel").trim(),
+                config.get("twitch.auth").trim(),
+                config.get("twitch.clientId").trim(),
+                config.get("twitch.broadcasterId").trim());
     }
 
-    /**
-     * Return MCP-formatted tools list for JSON-RPC
-     */
-    private java.util.List<Map<String, Object>> getMcpToolsList() {
-        return Arrays.asList(
-            Map.of(
-                "name", "sendMessageToChat",
-                "description", "Send message to the Twitch Chat",
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "message", Map.of("type", "string", "description", "The message to send")
-                    ),
-                    "required", Arrays.asList("message")
-                )
-            ),
-            Map.of(
-                "name", "createTwitchPoll",
-                "description", "Create a Twitch Poll",
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "title", Map.of("type", "string", "description", "Poll title"),
-                        "choices", Map.of("type", "string", "description", "Comma-separated choices"),
-                        "duration", Map.of("type", "integer", "description", "Duration in seconds")
-                    ),
-                    "required", Arrays.asList("title", "choices", "duration")
-                )
-            ),
-            Map.of(
-                "name", "createTwitchPrediction", 
-                "description", "Create a Twitch Prediction",
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "title", Map.of("type", "string", "description", "Prediction title"),
-                        "outcomes", Map.of("type", "string", "description", "Comma-separated outcomes"),
-                        "duration", Map.of("type", "integer", "description", "Duration in seconds")
-                    ),
-                    "required", Arrays.asList("title", "outcomes", "duration")
-                )
-            ),
-            Map.of(
-                "name", "createTwitchClip",
-                "description", "Create a Twitch clip of the current stream",
-                "inputSchema", Map.of("type", "object", "properties", Map.of())
-            ),
-            Map.of(
-                "name", "analyzeChat",
-                "description", "Analyze recent Twitch chat messages and provide a summary",
-                "inputSchema", Map.of("type", "object", "properties", Map.of())
-            ),
-            Map.of(
-                "name", "getRecentChatLog",
-                "description", "Get the last 20 chat messages for moderation context",
-                "inputSchema", Map.of("type", "object", "properties", Map.of())
-            ),
-            Map.of(
-                "name", "timeoutUser",
-                "description", "Timeout a user in the Twitch chat",
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "usernameOrDescriptor", Map.of("type", "string", "description", "Username or descriptor"),
-                        "reason", Map.of("type", "string", "description", "Reason for timeout")
-                    ),
-                    "required", Arrays.asList("usernameOrDescriptor")
-                )
-            ),
-            Map.of(
-                "name", "banUser",
-                "description", "Ban a user from the Twitch chat", 
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "usernameOrDescriptor", Map.of("type", "string", "description", "Username or descriptor"),
-                        "reason", Map.of("type", "string", "description", "Reason for ban")
-                    ),
-                    "required", Arrays.asList("usernameOrDescriptor")
-                )
-            ),
-            Map.of(
-                "name", "updateStreamTitle",
-                "description", "Update the stream title",
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "title", Map.of("type", "string", "description", "New stream title")
-                    ),
-                    "required", Arrays.asList("title")
-                )
-            ),
-            Map.of(
-                "name", "updateStreamCategory",
-                "description", "Update the game category of the stream",
-                "inputSchema", Map.of(
-                    "type", "object",
-                    "properties", Map.of(
-                        "category", Map.of("type", "string", "description", "Game category name")
-                    ),
-                    "required", Arrays.asList("category")
-                )
-            )
-        );
+    @FunctionalInterface
+    private interface ToolHandler {
+        Object handle(TwitchClient client, Map<String, Object> params);
     }
 
-    /**
-     * Return list of available tools for discovery (lazy loading implementation)
-     * Tools are discoverable without authentication - validation happens on execution
-     */
-    private Map<String, Object> getAvailableTools() {
-        return Map.of(
-            "server", "Twitch MCP Server",
-            "version", "1.0.0",
-            "description", "AI integration for Twitch chat moderation, stream management, and viewer engagement",
-            "authentication", Map.of(
-                "required", true,
-                "type", "oauth",
-                "description", "Twitch OAuth token and client credentials required for tool execution",
-                "lazy_loading", true
-            ),
-            "tools", Arrays.asList(
-                Map.of(
-                    "name", "sendMessageToChat", 
-                    "description", "Send message to the Twitch Chat",
-                    "parameters", Map.of("message", "string (required)")
-                ),
-                Map.of(
-                    "name", "createTwitchPoll", 
-                    "description", "Create a Twitch Poll",
-                    "parameters", Map.of(
-                        "title", "string (required)",
-                        "choices", "string (required - comma-separated)",
-                        "duration", "integer (required - seconds)"
-                    )
-                ),
-                Map.of(
-                    "name", "createTwitchPrediction", 
-                    "description", "Create a Twitch Prediction",
-                    "parameters", Map.of(
-                        "title", "string (required)",
-                        "outcomes", "string (required - comma-separated)",
-                        "duration", "integer (required - seconds)"
-                    )
-                ),
-                Map.of(
-                    "name", "createTwitchClip", 
-                    "description", "Create a Twitch clip of the current stream",
-                    "parameters", Map.of()
-                ),
-                Map.of(
-                    "name", "analyzeChat", 
-                    "description", "Analyze recent Twitch chat messages and provide a summary",
-                    "parameters", Map.of()
-                ),
-                Map.of(
-                    "name", "getRecentChatLog", 
-                    "description", "Get the last 20 chat messages for moderation context",
-                    "parameters", Map.of()
-                ),
-                Map.of(
-                    "name", "timeoutUser", 
-                    "description", "Timeout a user in the Twitch chat",
-                    "parameters", Map.of(
-                        "usernameOrDescriptor", "string (required)",
-                        "reason", "string (optional)"
-                    )
-                ),
-                Map.of(
-                    "name", "banUser", 
-                    "description", "Ban a user from the Twitch chat",
-                    "parameters", Map.of(
-                        "usernameOrDescriptor", "string (required)",
-                        "reason", "string (optional)"
-                    )
-                ),
-                Map.of(
-                    "name", "updateStreamTitle", 
-                    "description", "Update the stream title",
-                    "parameters", Map.of("title", "string (required)")
-                ),
-                Map.of(
-                    "name", "updateStreamCategory", 
-                    "description", "Update the game category of the stream",
-                    "parameters", Map.of("category", "string (required)")
-                )
-            )
-        );
+    // HTTP implementation of every tool in the registry, looked up once per call instead of matching names in a switch
+    private final Map<String, ToolHandler> handlers = Map.ofEntries(
+        Map.entry("sendMessageToChat", this::sendMessageToChat),
+        Map.entry("createTwitchPoll", this::createTwitchPoll),
+        Map.entry("createTwitchPrediction", this::createTwitchPrediction),
+        Map.entry("getPollStatus", (client, params) -> client.getPollStatus()),
+        Map.entry("getPredictionStatus", (client, params) -> client.getPredictionStatus()),
+        Map.entry("getChannelActivity", this::getChannelActivity),
+        Map.entry("createTwitchClip", (client, params) -> client.createClip()),
+        Map.entry("listRecentClips", this::listRecentClips),
+        Map.entry("getChatHighlights", this::getChatHighlights),
+        Map.entry("analyzeChat", (client, params) -> client.analyzeChat()),
+        Map.entry("getRecentChatLog", this::getRecentChatLog),
+        Map.entry("getChatLogSince", this::getChatLogSince),
+        // The archive records the server's own channel, so tenants must not read it
+        Map.entry("queryChatArchive", (client, params) ->
+                "The chat archive is only available for the server's configured channel, not over HTTP."),
+        Map.entry("timeoutUser", this::timeoutUser),
+        Map.entry("banUser", this::banUser),
+        Map.entry("getStreamInfo", this::getStreamInfo),
+        Map.entry("updateStreamTitle", this::updateStreamTitle),
+        Map.entry("updateStreamCategory", this::updateStreamCategory)
+    );
+
+    @PreDestroy
+    void shutdown() {
+        batchExecutor.shutdownNow();
+    }
+
+    @PostConstruct
+    void checkHandlers() {
+        if (!handlers.keySet().equals(toolRegistry.names())) {
+            throw new IllegalStateException("HTTP tool handlers " + handlers.keySet()
+                    + " do not match the registered tools " + toolRegistry.names());
+        }
     }
 
     /**
      * Execute the specified tool with given parameters
      */
-    private Object executeTool(String toolName, Map<String, Object> params) {
-        switch (toolName) {
-            case "sendMessageToChat":
-                String message = (String) params.get("message");
-                if (message == null) throw new IllegalArgumentException("message parameter is required");
-                client.sendMessage(message);
-                return "Successfully sent message: " + message;
-
-            case "createTwitchPoll":
-                String pollTitle = (String) params.get("title");
-                String choices = (String) params.get("choices");
-                Integer pollDuration = (Integer) params.get("duration");
-                if (pollTitle == null || choices == null || pollDuration == null) {
-                    throw new IllegalArgumentException("title, choices, and duration parameters are required");
-                }
-                try {
-                    return client.createPoll(pollTitle, Arrays.asList(choices.split(",")), pollDuration);
-                } catch (Exception e) {
-                    return "Error creating poll: " + e.getMessage();
-                }
+    private Object executeTool(TwitchClient client, String toolName, Map<String, Object> params) {
+        ToolHandler handler = toolName != null ? handlers.get(toolName) : null;
+        // Anything unknown is reported as "unknown" so callers cannot create unbounded metric tags
+        String metricName = handler != null ? toolName : "unknown";
+        return toolMetrics.record(ToolMetrics.TRANSPORT_HTTP, metricName, () -> {
+            if (handler == null) {
+                throw new IllegalArgumentException("Unknown tool: " + toolName);
+            }
+            return handler.handle(client, params);
+        });
+    }
 
-            case "createTwitchPrediction":
-                String predTitle = (String) params.get("title");
-                String outcomes = (String) params.get("outcomes");
-                Integer predDuration = (Integer) params.get("duration");
-                if (predTitle == null || outcomes == null || predDuration == null) {
-                    throw new IllegalArgumentException("title, outcomes, and duration parameters are required");
-                }
-                try {
-                    return client.createPrediction(predTitle, Arrays.asList(outcomes.split(",")), predDuration);
-                } catch (Exception e) {
-                    return "Error creating prediction: " + e.getMessage();
-                }
+    private Object sendMessageToChat(TwitchClient client, Map<String, Object> params) {
+        String message = (String) params.get("message");
+        if (message == null) throw new IllegalArgumentException("message parameter is required");
+        client.sendMessage(message);
+        return "Successfully sent message: " + message;
+    }
 
-            case "createTwitchClip":
-                try {
-                    return client.createClip();
-                } catch (Exception e) {
-                    return "Error creating clip: " + e.getMessage();
-                }
+    private Object createTwitchPoll(TwitchClient client, Map<String, Object> params) {
+        String pollTitle = (String) params.get("title");
+        String choices = (String) params.get("choices");
+        Integer pollDuration = (Integer) params.get("duration");
+        if (pollTitle == null || choices == null || pollDuration == null) {
+            throw new IllegalArgumentException("title, choices, and duration parameters are required");
+        }
+        try {
+            return client.createPoll(pollTitle, Arrays.asList(choices.split(",")), pollDuration);
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "createTwitchPoll");
+            return "Error creating poll: " + e.getMessage();
+        }
+    }
+
+    private Object createTwitchPrediction(TwitchClient client, Map<String, Object> params) {
+        String predTitle = (String) params.get("title");
+        String outcomes = (String) params.get("outcomes");
+        Integer predDuration = (Integer) params.get("duration");
+        if (predTitle == null || outcomes == null || predDuration == null) {
+            throw new IllegalArgumentException("title, outcomes, and duration parameters are required");
+        }
+        try {
+            return client.createPrediction(predTitle, Arrays.asList(outcomes.split(",")), predDuration);
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "createTwitchPrediction");
+            return "Error creating prediction: " + e.getMessage();
+        }
+    }
 
-            case "analyzeChat":
-                return client.analyzeChat();
+    private Object getChannelActivity(TwitchClient client, Map<String, Object> params) {
+        Number limit = (Number) params.get("limit");
+        return client.getChannelActivity(limit != null ? limit.intValue() : null);
+    }
 
-            case "getRecentChatLog":
-                var log = client.getRecentChatLog(20);
-                return log.isEmpty() ? "No recent chat messages available." : String.join("\n", log);
+    private Object listRecentClips(TwitchClient client, Map<String, Object> params) {
+        Number limit = (Number) params.get("limit");
+        return client.listRecentClips(limit != null ? limit.intValue() : null);
+    }
 
-            case "timeoutUser":
-                String timeoutTarget = (String) params.get("usernameOrDescriptor");
-                String timeoutReason = (String) params.get("reason");
-                if (timeoutTarget == null) {
-                    var chatLog = client.getRecentChatLog(20);
-                    return "No explicit username provided. Here are the last 20 chat messages:\n" + String.join("\n", chatLog);
-                }
-                String resolvedUser = client.resolveModerationTarget(timeoutTarget);
-                if (resolvedUser == null) {
-                    var chatLog = client.getRecentChatLog(20);
-                    return "Could not resolve user. Here are the last 20 chat messages:\n" + String.join("\n", chatLog);
-                }
-                int duration = client.guessTimeoutDuration(timeoutReason != null ? timeoutReason : "inappropriate behavior");
-                try {
-                    return client.timeoutUser(resolvedUser, timeoutReason != null ? timeoutReason : "inappropriate behavior", duration);
-                } catch (Exception e) {
-                    return "Error timing out user: " + e.getMessage();
-                }
+    private Object getChatHighlights(TwitchClient client, Map<String, Object> params) {
+        Number limit = (Number) params.get("limit");
+        return client.getChatHighlights(limit != null ? limit.intValue() : null);
+    }
 
-            case "banUser":
-                String banTarget = (String) params.get("usernameOrDescriptor");
-                String banReason = (String) params.get("reason");
-                if (banTarget == null) {
-                    var chatLog = client.getRecentChatLog(20);
-                    return "No explicit username provided. Here are the last 20 chat messages:\n" + String.join("\n", chatLog);
-                }
-                String resolvedBanUser = client.resolveModerationTarget(banTarget);
-                if (resolvedBanUser == null) {
-                    var chatLog = client.getRecentChatLog(20);
-                    return "Could not resolve user. Here are the last 20 chat messages:\n" + String.join("\n", chatLog);
-                }
-                try {
-                    return client.banUser(resolvedBanUser, banReason != null ? banReason : "severe violation of chat rules");
-                } catch (Exception e) {
-                    return "Error banning user: " + e.getMessage();
-                }
+    private Object getRecentChatLog(TwitchClient client, Map<String, Object> params) {
+        Number maxTokens = (Number) params.get("maxTokens");
+        return client.getChatContext(maxTokens != null ? maxTokens.intValue() : null);
+    }
 
-            case "updateStreamTitle":
-                String newTitle = (String) params.get("title");
-                if (newTitle == null) throw new IllegalArgumentException("title parameter is required");
-                try {
-                    return client.updateStreamTitle(newTitle);
-                } catch (Exception e) {
-                    return "Failed to update stream title: " + e.getMessage();
-                }
+    private Object getChatLogSince(TwitchClient client, Map<String, Object> params) {
+        Number since = (Number) params.get("since");
+        Number limit = (Number) params.get("limit");
+        return client.getChatLogSince(since != null ? since.longValue() : null, limit != null ? limit.intValue() : null)
+                .format();
+    }
 
-            case "updateStreamCategory":
-                String category = (String) params.get("category");
-                if (category == null) throw new IllegalArgumentException("category parameter is required");
-                try {
-                    return client.updateStreamCategory(category);
-                } catch (Exception e) {
-                    return "Failed to update stream category: " + e.getMessage();
-                }
+    private Object timeoutUser(TwitchClient client, Map<String, Object> params) {
+        String timeoutTarget = (String) params.get("usernameOrDescriptor");
+        String timeoutReason = (String) params.get("reason");
+        if (timeoutTarget == null) {
+            return "No explicit username provided. Here is the recent chat:\n" + client.getChatContext(null);
+        }
+        var target = client.resolveModerationTarget(timeoutTarget, Boolean.TRUE.equals(params.get("confirm")));
+        if (target == null) {
+            return "Could not resolve user. Here is the recent chat:\n" + client.getChatContext(null);
+        }
+        if (!target.confirmed()) {
+            return target.confirmation(timeoutTarget);
+        }
+        String resolvedUser = target.username();
+        int duration = client.guessTimeoutDuration(resolvedUser, timeoutReason != null ? timeoutReason : "inappropriate behavior");
+        try {
+            return client.timeoutUser(resolvedUser, timeoutReason != null ? timeoutReason : "inappropriate behavior", duration);
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "timeoutUser");
+            return "Error timing out user: " + e.getMessage();
+        }
+    }
 
-            default:
-                throw new IllegalArgumentException("Unknown tool: " + toolName);
+    private Object banUser(TwitchClient client, Map<String, Object> params) {
+        String banTarget = (String) params.get("usernameOrDescriptor");
+        String banReason = (String) params.get("reason");
+        if (banTarget == null) {
+            return "No explicit username provided. Here is the recent chat:\n" + client.getChatContext(null);
+        }
+        var target = client.resolveModerationTarget(banTarget, Boolean.TRUE.equals(params.get("confirm")));
+        if (target == null) {
+            return "Could not resolve user. Here is the recent chat:\n" + client.getChatContext(null);
+        }
+        if (!target.confirmed()) {
+            return target.confirmation(banTarget);
+        }
+        String resolvedBanUser = target.username();
+        try {
+            return client.banUser(resolvedBanUser, banReason != null ? banReason : "severe violation of chat rules");
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "banUser");
+            return "Error banning user: " + e.getMessage();
+        }
+    }
+
+    private Object getStreamInfo(TwitchClient client, Map<String, Object> params) {
+        try {
+            return client.getStreamInfo();
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "getStreamInfo");
+            return "Failed to get stream info: " + e.getMessage();
+        }
+    }
+
+    private Object updateStreamTitle(TwitchClient client, Map<String, Object> params) {
+        String newTitle = (String) params.get("title");
+        if (newTitle == null) throw new IllegalArgumentException("title parameter is required");
+        try {
+            return client.updateStreamTitle(newTitle);
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "updateStreamTitle");
+            return "Failed to update stream title: " + e.getMessage();
+        }
+    }
+
+    private Object updateStreamCategory(TwitchClient client, Map<String, Object> params) {
+        String category = (String) params.get("category");
+        if (category == null) throw new IllegalArgumentException("category parameter is required");
+        try {
+            return client.updateStreamCategory(category);
+        } catch (Exception e) {
+            toolMetrics.error(ToolMetrics.TRANSPORT_HTTP, "updateStreamCategory");
+            return "Failed to update stream category: " + e.getMessage();
         }
     }
 }
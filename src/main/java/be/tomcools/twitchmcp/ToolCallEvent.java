@@ -0,0 +1,30 @@
+package be.tomcools.twitchmcp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for one MCP tool call. Only calls slower than the threshold are recorded.
+ */
+@Name("be.tomcools.twitchmcp.ToolCall")
+@Label("MCP Tool Call")
+@Category({"Twitch MCP", "Tools"})
+@Description("Execution of an MCP tool, over stdio or the /mcp HTTP endpoint")
+@Threshold("50 ms")
+@StackTrace(false)
+class ToolCallEvent extends Event {
+
+    @Label("Tool")
+    String tool;
+
+    @Label("Transport")
+    String transport;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,101 @@
+package be.tomcools.twitchmcp;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Invocation count, error count and latency histogram per MCP tool and transport, plus a {@link ToolCallEvent}
+ * for calls slow enough to pass its Flight Recorder threshold.
+ * Meters are created once per tool and cached, so recording a call is a map lookup plus two atomic updates.
+ */
+@ApplicationScoped
+public class ToolMetrics {
+
+    static final String TRANSPORT_MCP = "mcp";
+    static final String TRANSPORT_HTTP = "http";
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+
+    /**
+     * Times the call; an exception counts as an error and is turned into a response by {@code onError}.
+     */
+    public <T> T record(String transport, String tool, Callable<T> call, Function<Exception, T> onError) {
+        ToolCallEvent event = new ToolCallEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.call();
+        } catch (Exception e) {
+            failed = true;
+            error(transport, tool);
+            return onError.apply(e);
+        } finally {
+            finish(event, transport, tool, failed, start);
+        }
+    }
+
+    /**
+     * Times the call; a runtime exception counts as an error and is rethrown.
+     */
+    public <T> T record(String transport, String tool, Supplier<T> call) {
+        ToolCallEvent event = new ToolCallEvent();
+        event.begin();
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            failed = true;
+            error(transport, tool);
+            throw e;
+        } finally {
+            finish(event, transport, tool, failed, start);
+        }
+    }
+
+    /**
+     * Counts an error the tool handled itself, e.g. by returning an error message.
+     */
+    public void error(String transport, String tool) {
+        errors.computeIfAbsent(transport + '/' + tool, key -> Counter.builder("mcp.tool.errors")
+                .description("MCP tool calls that failed")
+                .tag("transport", transport)
+                .tag("tool", tool)
+                .register(registry)).increment();
+    }
+
+    private void finish(ToolCallEvent event, String transport, String tool, boolean failed, long start) {
+        timer(transport, tool).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        event.end();
+        if (event.shouldCommit()) {
+            event.tool = tool;
+            event.transport = transport;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    private Timer timer(String transport, String tool) {
+        return timers.computeIfAbsent(transport + '/' + tool, key -> Timer.builder("mcp.tool.calls")
+                .description("MCP tool call latency")
+                .tag("transport", transport)
+                .tag("tool", tool)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -0,0 +1,220 @@
+package be.tomcools.twitchmcp;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkiverse.mcp.server.Tool;
+import io.quarkiverse.mcp.server.ToolArg;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.EntityTag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Tool catalogue read once from the {@link Tool} and {@link ToolArg} annotations in {@link TwitchMcp}, which the
+ * stdio transport also serves, so the HTTP endpoint can no longer drift from it. The HTTP discovery documents are
+ * serialized a single time and handed out as bytes, with an ETag for conditional GETs.
+ */
+@ApplicationScoped
+public class ToolRegistry {
+
+    // Defaults the annotations use for "not set"
+    private static final String ELEMENT_NAME = "<<element name>>";
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private List<ToolDefinition> tools;
+    private Map<String, ToolDefinition> toolsByName;
+    private byte[] toolsListResult;
+    private byte[] discovery;
+    private EntityTag discoveryTag;
+
+    public record ToolParameter(String name, String type, String description, boolean required) {
+    }
+
+    public record ToolDefinition(String name, String description, List<ToolParameter> parameters) {
+
+        // JSON schema of the arguments, as used in the MCP tools/list result
+        Map<String, Object> inputSchema() {
+            Map<String, Object> properties = new LinkedHashMap<>();
+            for (ToolParameter parameter : parameters) {
+                properties.put(parameter.name(), ordered("type", parameter.type(), "description", parameter.description()));
+            }
+            Map<String, Object> schema = new LinkedHashMap<>();
+            schema.put("type", "object");
+            schema.put("properties", properties);
+            List<String> required = parameters.stream().filter(ToolParameter::required).map(ToolParameter::name).toList();
+            if (!required.isEmpty()) {
+                schema.put("required", required);
+            }
+            return schema;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        tools = scan(TwitchMcp.class);
+        toolsByName = tools.stream().collect(Collectors.toMap(ToolDefinition::name, Function.identity()));
+        toolsListResult = serialize(Map.of("tools", tools.stream().map(tool -> {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", tool.name());
+            entry.put("description", tool.description());
+            entry.put("inputSchema", tool.inputSchema());
+            return entry;
+        }).toList()));
+        discovery = serialize(discoveryDocument());
+        discoveryTag = new EntityTag(hash(discovery));
+    }
+
+    public List<ToolDefinition> tools() {
+        return tools;
+    }
+
+    public Set<String> names() {
+        return toolsByName.keySet();
+    }
+
+    public boolean contains(String name) {
+        return name != null && toolsByName.containsKey(name);
+    }
+
+    /**
+     * Body of GET /mcp, identical for every caller.
+     */
+    public byte[] discovery() {
+        return discovery;
+    }
+
+    public EntityTag discoveryTag() {
+        return discoveryTag;
+    }
+
+    /**
+     * Complete JSON-RPC response to tools/list; only the request id is serialized per call.
+     */
+    public byte[] toolsListResponse(Object id) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(toolsListResult.length + 64);
+        out.writeBytes("{\"jsonrpc\":\"2.0\",\"id\":".getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(serialize(id));
+        out.writeBytes(",\"result\":".getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(toolsListResult);
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    static List<ToolDefinition> scan(Class<?> type) {
+        List<ToolDefinition> definitions = new ArrayList<>();
+        for (Method method : type.getDeclaredMethods()) {
+            Tool tool = method.getAnnotation(Tool.class);
+            if (tool == null) {
+                continue;
+            }
+            List<ToolParameter> parameters = new ArrayList<>();
+            for (Parameter parameter : method.getParameters()) {
+                ToolArg arg = parameter.getAnnotation(ToolArg.class);
+                String name = arg != null && !ELEMENT_NAME.equals(arg.name()) ? arg.name() : parameter.getName();
+                parameters.add(new ToolParameter(name, jsonType(parameter.getType()),
+                        arg != null ? arg.description() : "", arg == null || arg.required()));
+            }
+            String name = ELEMENT_NAME.equals(tool.name()) ? method.getName() : tool.name();
+            definitions.add(new ToolDefinition(name, tool.description(), List.copyOf(parameters)));
+        }
+        // getDeclaredMethods has no defined order; sort so the documents and their ETag stay stable across restarts
+        definitions.sort(Comparator.comparing(ToolDefinition::name));
+        return List.copyOf(definitions);
+    }
+
+    private Map<String, Object> discoveryDocument() {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("server", "Twitch MCP Server");
+        document.put("version", "1.0.0");
+        document.put("description", "AI integration for Twitch chat moderation, stream management, and viewer engagement");
+        document.put("authentication", ordered(
+            "required", true,
+            "type", "oauth",
+            "description", "Twitch OAuth token and client credentials required for tool execution",
+            "lazy_loading", true
+        ));
+        document.put("tools", tools.stream().map(tool -> {
+            Map<String, Object> parameters = new LinkedHashMap<>();
+            for (ToolParameter parameter : tool.parameters()) {
+                parameters.put(parameter.name(), parameter.type() + (parameter.required() ? " (required)" : " (optional)")
+                        + (parameter.description().isEmpty() ? "" : " - " + parameter.description()));
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", tool.name());
+            entry.put("description", tool.description());
+            entry.put("parameters", parameters);
+            return entry;
+        }).toList());
+        document.put("events", ordered(
+            "description", "Chat event stream: GET /mcp with Accept: text/event-stream and the same configuration parameters",
+            "types", List.of("message", "moderation", "stats", "highlight", "lag"),
+            "filters", ordered(
+                "users", "comma-separated usernames",
+                "keywords", "comma-separated words the message or moderation reason must contain",
+                "types", "comma-separated event types"
+            )
+        ));
+        return document;
+    }
+
+    // Map.of iterates in a different order on every JVM run, which would change the ETag
+    private static Map<String, Object> ordered(Object... keysAndValues) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static String jsonType(Class<?> type) {
+        if (type == String.class) {
+            return "string";
+        }
+        if (Arrays.asList(int.class, Integer.class, long.class, Long.class).contains(type)) {
+            return "integer";
+        }
+        if (Arrays.asList(double.class, Double.class, float.class, Float.class).contains(type)) {
+            return "number";
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return "boolean";
+        }
+        return "object";
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
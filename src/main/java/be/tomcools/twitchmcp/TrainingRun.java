@@ -0,0 +1,35 @@
+package be.tomcools.twitchmcp;
+
+import io.quarkus.runtime.Quarkus;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Training run for the class data sharing archive built by the {@code appcds} Maven profile: when enabled, the
+ * server starts, takes the path of a first {@code tools/list} so its classes are archived too, and exits.
+ */
+@ApplicationScoped
+public class TrainingRun {
+
+    private static final Logger LOG = Logger.getLogger(TrainingRun.class);
+
+    @ConfigProperty(name = "twitch.training_run", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    ToolRegistry toolRegistry;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            return;
+        }
+        toolRegistry.toolsListResponse(1);
+        toolRegistry.discovery();
+        LOG.info("Training run finished, exiting");
+        Quarkus.asyncExit();
+    }
+}
@@ -1,5 +1,6 @@
 package be.tomcools.twitchmcp;
 
+import be.tomcools.twitchmcp.archive.ChatArchive;
 import be.tomcools.twitchmcp.client.TwitchClient;
 import io.quarkiverse.mcp.server.TextContent;
 import io.quarkiverse.mcp.server.Tool;
@@ -15,10 +16,18 @@ public class TwitchMcp {
     @Inject
     TwitchClient client;
 
+    @Inject
+    ToolMetrics metrics;
+
+    @Inject
+    ChatArchive archive;
+
     @Tool(description = "Send message to the Twitch Chat")
     ToolResponse sendMessageToChat(@ToolArg(description = "The message") String message) {
-        client.sendMessage(message);
-        return ToolResponse.success(new TextContent("Successfully sent message: " + message));
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "sendMessageToChat", () -> {
+            client.sendMessage(message);
+            return ToolResponse.success(new TextContent("Successfully sent message: " + message));
+        });
     }
 
     @Tool(description = "Create a Twitch Poll")
@@ -27,12 +36,9 @@ public class TwitchMcp {
         @ToolArg(description = "Comma-separated choices") String choices,
         @ToolArg(description = "Duration in seconds") int duration
     ) {
-        try {
-            String result = client.createPoll(title, Arrays.asList(choices.split(",")), duration);
-            return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Error creating poll: " + e.getMessage()));
-        }
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "createTwitchPoll",
+                () -> ToolResponse.success(new TextContent(client.createPoll(title, Arrays.asList(choices.split(",")), duration))),
+                e -> ToolResponse.success(new TextContent("Error creating poll: " + e.getMessage())));
     }
 
     @Tool(description = "Create a Twitch Prediction")
@@ -41,99 +47,165 @@ public class TwitchMcp {
         @ToolArg(description = "Comma-separated outcomes") String outcomes,
         @ToolArg(description = "Duration in seconds") int duration
     ) {
-        try {
-            String result = client.createPrediction(title, Arrays.asList(outcomes.split(",")), duration);
-            return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Error creating prediction: " + e.getMessage()));
-        }
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "createTwitchPrediction",
+                () -> ToolResponse.success(new TextContent(client.createPrediction(title, Arrays.asList(outcomes.split(",")), duration))),
+                e -> ToolResponse.success(new TextContent("Error creating prediction: " + e.getMessage())));
+    }
+
+    @Tool(description = "Get the current or most recent poll with its vote counts. Updated live from Twitch, "
+            + "so it can be called repeatedly while a poll runs.")
+    ToolResponse getPollStatus() {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getPollStatus",
+                () -> ToolResponse.success(new TextContent(client.getPollStatus())));
     }
 
-    @Tool(description = "Create a Twitch clip of the current stream")
+    @Tool(description = "Get the current or most recent prediction with the users and channel points per outcome. "
+            + "Updated live from Twitch, so it can be called repeatedly while a prediction runs.")
+    ToolResponse getPredictionStatus() {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getPredictionStatus",
+                () -> ToolResponse.success(new TextContent(client.getPredictionStatus())));
+    }
+
+    @Tool(description = "Get recent follows, raids and title/category changes of the channel, newest first")
+    ToolResponse getChannelActivity(
+        @ToolArg(description = "Maximum number of events to return (optional, default 20, at most 50 are kept)", required = false) Integer limit
+    ) {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getChannelActivity",
+                () -> ToolResponse.success(new TextContent(client.getChannelActivity(limit))));
+    }
+
+    @Tool(description = "Create a Twitch clip of the current stream. Returns right away; requests within a few seconds "
+            + "of each other share one clip. Use listRecentClips for the URL once Twitch has processed it.")
     ToolResponse createTwitchClip() {
-        try {
-            String result = client.createClip();
-            return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Error creating clip: " + e.getMessage()));
-        }
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "createTwitchClip",
+                () -> ToolResponse.success(new TextContent(client.createClip())));
+    }
+
+    @Tool(description = "List the clips created recently with their status (creating, processing, ready with URL, or failed), newest first")
+    ToolResponse listRecentClips(
+        @ToolArg(description = "Maximum number of clips to list (optional, default 10)", required = false) Integer limit
+    ) {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "listRecentClips",
+                () -> ToolResponse.success(new TextContent(client.listRecentClips(limit))));
+    }
+
+    @Tool(description = "List recent moments when chat exploded (message rate far above its usual level, with many "
+            + "chatters or emotes), newest first, with any clip created for them")
+    ToolResponse getChatHighlights(
+        @ToolArg(description = "Maximum number of highlights to list (optional, default 10, at most 20 are kept)", required = false) Integer limit
+    ) {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getChatHighlights",
+                () -> ToolResponse.success(new TextContent(client.getChatHighlights(limit))));
     }
 
     @Tool(description = "Analyze recent Twitch chat messages and provide a summary of topics and activity")
     ToolResponse analyzeChat() {
-        String analysis = client.analyzeChat();
-        return ToolResponse.success(new TextContent(analysis));
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "analyzeChat",
+                () -> ToolResponse.success(new TextContent(client.analyzeChat())));
+    }
+
+    @Tool(description = "Get recent chat for moderation context, condensed to a token budget: repeated messages are "
+            + "collapsed into one line with a ×N count, each user's messages are joined into one line and emote-only "
+            + "or one-word lines are dropped")
+    ToolResponse getRecentChatLog(
+        @ToolArg(description = "Approximate size of the log in tokens, 50 to 8000 (optional, default 400)", required = false) Integer maxTokens
+    ) {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getRecentChatLog",
+                () -> ToolResponse.success(new TextContent(client.getChatContext(maxTokens))));
+    }
+
+    @Tool(description = "Get the chat messages received after a cursor, oldest first, followed by the next cursor to pass. "
+            + "Use cursor 0 to start from the oldest retained message, then keep passing the returned cursor to only fetch new messages.")
+    ToolResponse getChatLogSince(
+        @ToolArg(description = "Cursor returned by the previous call, or 0 to start (optional)", required = false) Long since,
+        @ToolArg(description = "Maximum number of messages to return, 1 to 500 (optional, default 50)", required = false) Integer limit
+    ) {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getChatLogSince", () -> {
+            var page = client.getChatLogSince(since, limit);
+            return ToolResponse.success(new TextContent(page.format()));
+        });
     }
 
-    @Tool(description = "Get the last 20 chat messages for moderation context")
-    ToolResponse getRecentChatLog() {
-        var log = client.getRecentChatLog(20);
-        if (log.isEmpty()) {
-            return ToolResponse.success(new TextContent("No recent chat messages available."));
-        }
-        return ToolResponse.success(new TextContent(String.join("\n", log)));
+    @Tool(description = "Aggregate the archived chat over a time range, e.g. the top chatters between 20:00 and 21:00 "
+            + "or how topics shifted over the stream. Covers whole streams, unlike the recent chat log.")
+    ToolResponse queryChatArchive(
+        @ToolArg(description = "top_chatters, top_topics, or activity for messages, chatters and topics per time bucket (optional, default top_chatters)", required = false) String metric,
+        @ToolArg(description = "Start: ISO date-time like 2025-01-31T20:00, or a time of day like 20:00 for its last occurrence (optional, default 8 hours ago)", required = false) String from,
+        @ToolArg(description = "End, in the same formats (optional, default now)", required = false) String to,
+        @ToolArg(description = "Bucket size in minutes for activity (optional, default 15)", required = false) Integer bucketMinutes,
+        @ToolArg(description = "Number of chatters or topics to list (optional, default 10)", required = false) Integer limit
+    ) {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "queryChatArchive",
+                () -> ToolResponse.success(new TextContent(archive.query(metric, from, to, bucketMinutes, limit))),
+                e -> ToolResponse.success(new TextContent("Error querying chat archive: " + e.getMessage())));
     }
 
     @Tool(description = "Timeout a user in the Twitch chat. If no username is provided, it will return the recent chat log for LLM review.")
     ToolResponse timeoutUser(
         @ToolArg(description = "Username or descriptor to timeout (e.g. 'toxic', 'spammer', or a username)") String usernameOrDescriptor,
-        @ToolArg(description = "Reason for timeout (optional)") String reason
+        @ToolArg(description = "Reason for timeout (optional)", required = false) String reason,
+        @ToolArg(description = "True to act on usernameOrDescriptor as the exact username, e.g. one offered as a possible match (optional)", required = false) Boolean confirm
     ) {
-        try {
-            String targetUser = client.resolveModerationTarget(usernameOrDescriptor);
-            if (targetUser == null) {
-                var log = client.getRecentChatLog(20);
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "timeoutUser", () -> {
+            var target = client.resolveModerationTarget(usernameOrDescriptor, Boolean.TRUE.equals(confirm));
+            if (target == null) {
                 return ToolResponse.success(new TextContent(
-                    "No explicit username provided. Here are the last 20 chat messages:\n" + String.join("\n", log)
+                    "No explicit username provided. Here is the recent chat:\n" + client.getChatContext(null)
                 ));
             }
-            int duration = client.guessTimeoutDuration(reason != null ? reason : "inappropriate behavior");
+            if (!target.confirmed()) {
+                return ToolResponse.success(new TextContent(target.confirmation(usernameOrDescriptor)));
+            }
+            String targetUser = target.username();
+            int duration = client.guessTimeoutDuration(targetUser, reason != null ? reason : "inappropriate behavior");
             String defaultReason = "inappropriate behavior";
             String result = client.timeoutUser(targetUser, reason != null ? reason : defaultReason, duration);
             return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Error timing out user: " + e.getMessage()));
-        }
+        }, e -> ToolResponse.success(new TextContent("Error timing out user: " + e.getMessage())));
     }
 
     @Tool(description = "Ban a user from the Twitch chat. If no username is provided, it will return the recent chat log for LLM review.")
     ToolResponse banUser(
         @ToolArg(description = "Username or descriptor to ban (e.g. 'toxic', 'spammer', or a username)") String usernameOrDescriptor,
-        @ToolArg(description = "Reason for ban (optional)") String reason
+        @ToolArg(description = "Reason for ban (optional)", required = false) String reason,
+        @ToolArg(description = "True to act on usernameOrDescriptor as the exact username, e.g. one offered as a possible match (optional)", required = false) Boolean confirm
     ) {
-        try {
-            String targetUser = client.resolveModerationTarget(usernameOrDescriptor);
-            if (targetUser == null) {
-                var log = client.getRecentChatLog(20);
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "banUser", () -> {
+            var target = client.resolveModerationTarget(usernameOrDescriptor, Boolean.TRUE.equals(confirm));
+            if (target == null) {
                 return ToolResponse.success(new TextContent(
-                    "No explicit username provided. Here are the last 20 chat messages:\n" + String.join("\n", log)
+                    "No explicit username provided. Here is the recent chat:\n" + client.getChatContext(null)
                 ));
             }
+            if (!target.confirmed()) {
+                return ToolResponse.success(new TextContent(target.confirmation(usernameOrDescriptor)));
+            }
+            String targetUser = target.username();
             String defaultReason = "severe violation of chat rules";
             String result = client.banUser(targetUser, reason != null ? reason : defaultReason);
             return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Error banning user: " + e.getMessage()));
-        }
+        }, e -> ToolResponse.success(new TextContent("Error banning user: " + e.getMessage())));
+    }
+
+    @Tool(description = "Get the current stream title, category, language and tags. Served from a cache kept current "
+            + "by Twitch notifications, so it is cheap to call before changing them.")
+    ToolResponse getStreamInfo() {
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "getStreamInfo",
+                () -> ToolResponse.success(new TextContent(client.getStreamInfo())),
+                e -> ToolResponse.success(new TextContent("Failed to get stream info: " + e.getMessage())));
     }
 
     @Tool(name = "updateStreamTitle", description = "Update the stream title")
     ToolResponse updateStreamTitle(@ToolArg(description = "The new title for the stream") String title) {
-        try {
-            String result = client.updateStreamTitle(title);
-            return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Failed to update stream title: " + e.getMessage()));
-        }
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "updateStreamTitle",
+                () -> ToolResponse.success(new TextContent(client.updateStreamTitle(title))),
+                e -> ToolResponse.success(new TextContent("Failed to update stream title: " + e.getMessage())));
     }
 
     @Tool(name = "updateStreamCategory", description = "Update the game category of the stream")
     ToolResponse updateStreamCategory(@ToolArg(description = "The new game category, e.g. 'Fortnite'") String category) {
-        try {
-            String result = client.updateStreamCategory(category);
-            return ToolResponse.success(new TextContent(result));
-        } catch (Exception e) {
-            return ToolResponse.success(new TextContent("Failed to update stream category: " + e.getMessage()));
-        }
+        return metrics.record(ToolMetrics.TRANSPORT_MCP, "updateStreamCategory",
+                () -> ToolResponse.success(new TextContent(client.updateStreamCategory(category))),
+                e -> ToolResponse.success(new TextContent("Failed to update stream category: " + e.getMessage())));
     }
 }
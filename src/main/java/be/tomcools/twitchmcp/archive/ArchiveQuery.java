@@ -0,0 +1,279 @@
+package be.tomcools.twitchmcp.archive;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * One aggregate query over a time range of the archive. Counting happens on the dictionary ids of each segment
+ * and is only resolved to names when the segment ends, so the per-message work is array increments.
+ */
+public final class ArchiveQuery implements SegmentFile.Visitor {
+
+    public enum Metric {
+        TOP_CHATTERS, TOP_TOPICS, ACTIVITY;
+
+        /**
+         * @throws IllegalArgumentException for an unknown metric
+         */
+        public static Metric parse(String value) {
+            try {
+                return value == null || value.isBlank() ? TOP_CHATTERS
+                        : valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown metric: " + value + " (expected top_chatters, top_topics or activity)");
+            }
+        }
+    }
+
+    // Same spirit as the filter of analyzeChat: short words and filler are not topics
+    private static final Set<String> COMMON_WORDS = Set.of(
+            "the", "and", "that", "have", "for", "not", "with", "you", "this", "but", "his", "from", "they", "say",
+            "her", "she", "will", "one", "all", "would", "there", "their", "what", "out", "about", "who", "get",
+            "which", "when", "make", "can", "like", "time", "just", "him", "know", "take", "into", "your", "some",
+            "could", "them", "see", "other", "than", "then", "now", "look", "only", "come", "its", "over", "think",
+            "also", "back", "after", "use", "how", "our", "work", "first", "well", "way", "even", "want", "because",
+            "any", "these", "give", "most", "yeah", "lmao", "haha", "been", "were", "does", "dont", "really", "here",
+            "going", "much", "very", "why", "where", "right", "good");
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final Metric metric;
+    private final long from;
+    private final long to;
+    private final long bucketMillis;
+    private final int limit;
+
+    private long messages;
+    private final Set<String> chatters = new HashSet<>();
+    private final Map<String, Integer> userCounts = new HashMap<>();
+    private final Map<String, Integer> tokenCounts = new HashMap<>();
+    private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+
+    // Per-segment counters indexed by dictionary id
+    private String[] segmentUsers;
+    private String[] segmentTokens;
+    private int[] segmentUserCounts;
+    private int[] segmentTokenCounts;
+    private final Map<Long, SegmentBucket> segmentBuckets = new HashMap<>();
+
+    private static final class Bucket {
+        long messages;
+        final Set<String> chatters = new HashSet<>();
+        final Map<String, Integer> tokens = new HashMap<>();
+    }
+
+    private static final class SegmentBucket {
+        long messages;
+        final BitSet users = new BitSet();
+        final int[] tokens;
+
+        SegmentBucket(int tokenCount) {
+            tokens = new int[tokenCount];
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException when the range is empty
+     */
+    public ArchiveQuery(Metric metric, long from, long to, long bucketMillis, int limit) {
+        if (to <= from) {
+            throw new IllegalArgumentException("The end of the range must be after its start");
+        }
+        this.metric = metric;
+        this.from = from;
+        this.to = to;
+        this.bucketMillis = Math.max(60_000, bucketMillis);
+        this.limit = limit;
+    }
+
+    long from() {
+        return from;
+    }
+
+    long to() {
+        return to;
+    }
+
+    // Only the columns this metric reads are decoded
+    Set<SegmentFile.Column> columns() {
+        return switch (metric) {
+            case TOP_CHATTERS -> EnumSet.of(SegmentFile.Column.USERS);
+            case TOP_TOPICS -> EnumSet.of(SegmentFile.Column.TOKENS);
+            case ACTIVITY -> EnumSet.allOf(SegmentFile.Column.class);
+        };
+    }
+
+    @Override
+    public void segment(String[] users, String[] tokens) {
+        segmentUsers = users;
+        segmentTokens = tokens;
+        segmentUserCounts = users != null ? new int[users.length] : null;
+        segmentTokenCounts = tokens != null && metric == Metric.TOP_TOPICS ? new int[tokens.length] : null;
+        segmentBuckets.clear();
+    }
+
+    @Override
+    public void block(SegmentFile.Block block) {
+        long[] timestamps = block.timestamps();
+        for (int row = 0; row < block.rows(); row++) {
+            if (timestamps != null && (timestamps[row] < from || timestamps[row] >= to)) {
+                continue;
+            }
+            messages++;
+            if (segmentUserCounts != null) {
+                segmentUserCounts[block.users()[row]]++;
+            }
+            if (segmentTokenCounts != null) {
+                for (int t = block.tokenStarts()[row]; t < block.tokenStarts()[row + 1]; t++) {
+                    segmentTokenCounts[block.tokens()[t]]++;
+                }
+            }
+            if (metric == Metric.ACTIVITY) {
+                long bucketStart = timestamps[row] - Math.floorMod(timestamps[row] - from, bucketMillis);
+                SegmentBucket bucket = segmentBuckets.computeIfAbsent(bucketStart,
+                        key -> new SegmentBucket(segmentTokens.length));
+                bucket.messages++;
+                bucket.users.set(block.users()[row]);
+                for (int t = block.tokenStarts()[row]; t < block.tokenStarts()[row + 1]; t++) {
+                    bucket.tokens[block.tokens()[t]]++;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void endSegment() {
+        if (segmentUserCounts != null) {
+            for (int id = 0; id < segmentUserCounts.length; id++) {
+                if (segmentUserCounts[id] > 0) {
+                    chatters.add(segmentUsers[id]);
+                    userCounts.merge(segmentUsers[id], segmentUserCounts[id], Integer::sum);
+                }
+            }
+        }
+        if (segmentTokenCounts != null) {
+            mergeTopics(segmentTokenCounts, tokenCounts);
+        }
+        for (Map.Entry<Long, SegmentBucket> entry : segmentBuckets.entrySet()) {
+            Bucket bucket = buckets.computeIfAbsent(entry.getKey(), key -> new Bucket());
+            SegmentBucket segmentBucket = entry.getValue();
+            bucket.messages += segmentBucket.messages;
+            segmentBucket.users.stream().forEach(id -> bucket.chatters.add(segmentUsers[id]));
+            mergeTopics(segmentBucket.tokens, bucket.tokens);
+        }
+        segmentBuckets.clear();
+    }
+
+    private void mergeTopics(int[] counts, Map<String, Integer> into) {
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0 && isTopic(segmentTokens[id])) {
+                into.merge(segmentTokens[id], counts[id], Integer::sum);
+            }
+        }
+    }
+
+    public String format(ZoneId zone) {
+        StringBuilder text = new StringBuilder("Chat archive ")
+                .append(TIME.format(Instant.ofEpochMilli(from).atZone(zone))).append(" to ")
+                .append(TIME.format(Instant.ofEpochMilli(to).atZone(zone))).append(": ")
+                .append(messages).append(" messages");
+        if (metric != Metric.TOP_TOPICS) {
+            text.append(" from ").append(chatters.size()).append(" chatters");
+        }
+        text.append('\n');
+        if (messages == 0) {
+            return text.append("No archived chat in this range.").toString();
+        }
+        switch (metric) {
+            case TOP_CHATTERS -> {
+                text.append("Top chatters:\n");
+                int rank = 1;
+                for (Map.Entry<String, Integer> entry : top(userCounts, limit)) {
+                    text.append(rank++).append(". ").append(entry.getKey()).append(" - ").append(entry.getValue())
+                            .append(" messages (").append(String.format("%.1f", entry.getValue() * 100.0 / messages))
+                            .append("%)\n");
+                }
+            }
+            case TOP_TOPICS -> {
+                text.append("Top topics: ").append(joinTop(tokenCounts, limit)).append('\n');
+            }
+            case ACTIVITY -> {
+                DateTimeFormatter clock = DateTimeFormatter.ofPattern("HH:mm");
+                for (Map.Entry<Long, Bucket> entry : buckets.entrySet()) {
+                    Bucket bucket = entry.getValue();
+                    text.append(clock.format(Instant.ofEpochMilli(entry.getKey()).atZone(zone))).append('-')
+                            .append(clock.format(Instant.ofEpochMilli(entry.getKey() + bucketMillis).atZone(zone)))
+                            .append(": ").append(bucket.messages).append(" messages, ")
+                            .append(bucket.chatters.size()).append(" chatters, topics: ")
+                            .append(joinTop(bucket.tokens, Math.min(limit, 5))).append('\n');
+                }
+            }
+        }
+        return text.toString().stripTrailing();
+    }
+
+    private static String joinTop(Map<String, Integer> counts, int n) {
+        List<Map.Entry<String, Integer>> top = top(counts, n);
+        if (top.isEmpty()) {
+            return "none";
+        }
+        return top.stream().map(e -> e.getKey() + " (" + e.getValue() + ")").collect(Collectors.joining(", "));
+    }
+
+    private static List<Map.Entry<String, Integer>> top(Map<String, Integer> counts, int n) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(n)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isTopic(String token) {
+        return token.length() > 3 && !COMMON_WORDS.contains(token);
+    }
+
+    /**
+     * Parses a query time: an ISO instant or offset date-time, a local date-time in {@code zone}, or a time of day
+     * meaning its last occurrence at or before {@code latest}. Blank values give {@code defaultValue}.
+     *
+     * @throws DateTimeParseException when the value matches none of these
+     */
+    public static long parseTime(String value, long defaultValue, ZoneId zone, long latest) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        String trimmed = value.trim();
+        try {
+            return Instant.parse(trimmed).toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return OffsetDateTime.parse(trimmed).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+        }
+        try {
+            return LocalDateTime.parse(trimmed).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+        }
+        LocalTime time = LocalTime.parse(trimmed);
+        ZonedDateTime sameDay = LocalDate.ofInstant(Instant.ofEpochMilli(latest), zone).atTime(time).atZone(zone);
+        long millis = sameDay.toInstant().toEpochMilli();
+        return millis > latest ? sameDay.minusDays(1).toInstant().toEpochMilli() : millis;
+    }
+}
@@ -0,0 +1,249 @@
+package be.tomcools.twitchmcp.archive;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Long-term chat archive of the configured channel, for questions about a whole stream after the in-memory
+ * history has rolled over. Messages are collected into fixed time segments; a completed segment is encoded as a
+ * compressed columnar {@link SegmentFile} in the background. Queries prune segments by the time range in their
+ * file names and blocks by their index, and include the segments not written yet.
+ */
+@ApplicationScoped
+public class ChatArchive {
+
+    private static final Logger LOG = Logger.getLogger(ChatArchive.class);
+
+    @ConfigProperty(name = "twitch.archive.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "twitch.archive.dir", defaultValue = "archive")
+    String directory;
+
+    @ConfigProperty(name = "twitch.archive.segment_duration", defaultValue = "PT10M")
+    Duration segmentDuration;
+
+    @ConfigProperty(name = "twitch.archive.retention", defaultValue = "P30D")
+    Duration retention;
+
+    @ConfigProperty(name = "twitch.channel")
+    String channel;
+
+    private Path channelDirectory;
+    private ExecutorService writer;
+
+    // Guarded by this: the segment being recorded, completed ones still being written, and written files by start
+    private SegmentBuilder current;
+    private final List<SegmentBuilder> pending = new ArrayList<>();
+    private final ConcurrentSkipListMap<Long, Path> files = new ConcurrentSkipListMap<>();
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            channelDirectory = Path.of(directory, channel.toLowerCase());
+            Files.createDirectories(channelDirectory);
+            try (Stream<Path> existing = Files.list(channelDirectory)) {
+                existing.forEach(path -> {
+                    long[] range = range(path);
+                    if (range != null) {
+                        files.put(range[0], path);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            LOG.warnf("Chat archive disabled, cannot use %s: %s", directory, e.getMessage());
+            enabled = false;
+            return;
+        }
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.execute(this::expire);
+        LOG.infof("Archiving chat of #%s to %s (%d segments on disk)", channel, channelDirectory, files.size());
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (writer == null) {
+            return;
+        }
+        synchronized (this) {
+            complete();
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Chat archive did not finish writing before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records one chat message; a no-op while the archive is disabled.
+     */
+    public void append(long timestamp, String username, String text) {
+        if (!enabled) {
+            return;
+        }
+        SegmentBuilder segment;
+        synchronized (this) {
+            if (current == null || timestamp >= current.end() || timestamp < current.start()) {
+                complete();
+                long length = segmentDuration.toMillis();
+                long start = timestamp - Math.floorMod(timestamp, length);
+                current = new SegmentBuilder(start, start + length);
+            }
+            segment = current;
+        }
+        segment.add(timestamp, username, text);
+    }
+
+    /**
+     * Answers an aggregate query over a time range, by default the last 8 hours. Times are ISO date-times or times
+     * of day in the server's time zone; see {@link ArchiveQuery#parseTime}.
+     *
+     * @throws IllegalArgumentException for an unknown metric or an invalid range
+     */
+    public String query(String metric, String from, String to, Integer bucketMinutes, Integer limit) {
+        if (!enabled) {
+            return "The chat archive is disabled. Set twitch.archive.enabled=true (TWITCH_ARCHIVE_ENABLED) to record chat.";
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        long now = System.currentTimeMillis();
+        long start;
+        long end;
+        try {
+            start = ArchiveQuery.parseTime(from, now - Duration.ofHours(8).toMillis(), zone, now);
+            // A time of day as end is its first occurrence after the start, so "20:00" to "02:00" spans midnight
+            end = ArchiveQuery.parseTime(to, now, zone, start + Duration.ofDays(1).toMillis() - 1);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time '" + e.getParsedString()
+                    + "', use an ISO date-time like 2025-01-31T20:00 or a time of day like 20:00");
+        }
+        ArchiveQuery query = new ArchiveQuery(ArchiveQuery.Metric.parse(metric), start, end,
+                Duration.ofMinutes(bucketMinutes != null ? bucketMinutes : 15).toMillis(),
+                limit != null ? Math.max(1, Math.min(limit, 100)) : 10);
+        scan(query);
+        return query.format(zone);
+    }
+
+    private void scan(ArchiveQuery query) {
+        List<Path> segmentFiles;
+        List<SegmentBuilder> inMemory = new ArrayList<>();
+        synchronized (this) {
+            // Files start at most one segment before the range; anything earlier also ends before it
+            Long first = files.floorKey(query.from());
+            Map<Long, Path> candidates = files.subMap(first != null ? first : Long.MIN_VALUE, true, query.to(), false);
+            segmentFiles = new ArrayList<>(candidates.values());
+            inMemory.addAll(pending);
+            if (current != null) {
+                inMemory.add(current);
+            }
+        }
+        for (Path path : segmentFiles) {
+            try (SegmentFile segment = SegmentFile.open(path)) {
+                if (segment.end() > query.from() && segment.start() < query.to()) {
+                    segment.scan(query.from(), query.to(), query.columns(), query);
+                }
+            } catch (IOException e) {
+                LOG.warnf("Skipping unreadable archive segment %s: %s", path, e.getMessage());
+            }
+        }
+        for (SegmentBuilder segment : inMemory) {
+            if (segment.end() > query.from() && segment.start() < query.to()) {
+                segment.scan(query.from(), query.to(), query.columns(), query);
+            }
+        }
+    }
+
+    // Hands the current segment to the writer; caller holds the lock
+    private void complete() {
+        if (current == null || current.rows() == 0) {
+            current = null;
+            return;
+        }
+        SegmentBuilder segment = current;
+        current = null;
+        pending.add(segment);
+        writer.execute(() -> write(segment));
+    }
+
+    private void write(SegmentBuilder segment) {
+        Path target = channelDirectory.resolve(segment.start() + "-" + segment.end() + SegmentFile.SUFFIX);
+        try {
+            Path temp = channelDirectory.resolve(target.getFileName() + ".tmp");
+            Files.write(temp, segment.encode());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                files.put(segment.start(), target);
+                pending.remove(segment);
+            }
+            expire();
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warnf("Could not write chat archive segment %s: %s", target, e.getMessage());
+            synchronized (this) {
+                pending.remove(segment);
+            }
+        }
+    }
+
+    // Deletes segments that ended before the retention period
+    private void expire() {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        for (Map.Entry<Long, Path> entry : files.headMap(cutoff).entrySet()) {
+            long[] range = range(entry.getValue());
+            if (range != null && range[1] <= cutoff) {
+                try {
+                    Files.deleteIfExists(entry.getValue());
+                    files.remove(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    LOG.warnf("Could not delete expired archive segment %s: %s", entry.getValue(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Start and end from a "<start>-<end>.tca" file name, or null for other files
+    private static long[] range(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SegmentFile.SUFFIX)) {
+            return null;
+        }
+        String[] parts = name.substring(0, name.length() - SegmentFile.SUFFIX.length()).split("-");
+        try {
+            return parts.length == 2 ? new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package be.tomcools.twitchmcp.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The segment currently being recorded, held in memory as dictionary-encoded columns until it is complete and
+ * encoded into a {@link SegmentFile}. Queries scan it like a file, as a single block.
+ */
+final class SegmentBuilder {
+
+    static final int BLOCK_ROWS = 4096;
+
+    // Longer words are rarely topics and would only bloat the token dictionary
+    private static final int MAX_TOKEN_LENGTH = 32;
+
+    private final long start;
+    private final long end;
+
+    // Guarded by this
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final List<String> users = new ArrayList<>();
+    private final Map<String, Integer> tokenIds = new HashMap<>();
+    private final List<String> tokens = new ArrayList<>();
+    private long[] timestamps = new long[256];
+    private int[] userColumn = new int[256];
+    private int[] tokenStarts = new int[257];
+    private int[] tokenColumn = new int[1024];
+    private int rows;
+
+    SegmentBuilder(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    long start() {
+        return start;
+    }
+
+    long end() {
+        return end;
+    }
+
+    synchronized int rows() {
+        return rows;
+    }
+
+    synchronized void add(long timestamp, String username, String text) {
+        if (rows == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, rows * 2);
+            userColumn = Arrays.copyOf(userColumn, rows * 2);
+            tokenStarts = Arrays.copyOf(tokenStarts, rows * 2 + 1);
+        }
+        timestamps[rows] = timestamp;
+        userColumn[rows] = id(username.toLowerCase(), userIds, users);
+
+        int count = tokenStarts[rows];
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isWordChar(text.charAt(i))) {
+                i++;
+            }
+            int wordStart = i;
+            while (i < length && isWordChar(text.charAt(i))) {
+                i++;
+            }
+            int wordLength = i - wordStart;
+            if (wordLength >= 2 && wordLength <= MAX_TOKEN_LENGTH) {
+                if (count == tokenColumn.length) {
+                    tokenColumn = Arrays.copyOf(tokenColumn, count * 2);
+                }
+                tokenColumn[count++] = id(text.substring(wordStart, i).toLowerCase(), tokenIds, tokens);
+            }
+        }
+        rows++;
+        tokenStarts[rows] = count;
+    }
+
+    /**
+     * Scans the rows recorded so far, with the same contract as {@link SegmentFile#scan}.
+     */
+    synchronized void scan(long from, long to, Set<SegmentFile.Column> columns, SegmentFile.Visitor visitor) {
+        visitor.segment(
+                columns.contains(SegmentFile.Column.USERS) ? users.toArray(String[]::new) : null,
+                columns.contains(SegmentFile.Column.TOKENS) ? tokens.toArray(String[]::new) : null);
+        if (rows > 0) {
+            visitor.block(new SegmentFile.Block(rows, timestamps, userColumn, tokenStarts, tokenColumn));
+        }
+        visitor.endSegment();
+    }
+
+    /**
+     * Encodes the segment in the {@link SegmentFile} format.
+     */
+    synchronized byte[] encode() {
+        List<byte[]> sections = new ArrayList<>();
+        List<SegmentFile.Section> userAndTokenDictionaries = new ArrayList<>();
+        int blockCount = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        long offset = SegmentFile.HEADER_BYTES + (long) blockCount * SegmentFile.BLOCK_INDEX_BYTES;
+
+        for (List<String> dictionary : List.of(users, tokens)) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            SegmentFile.putVarLong(raw, dictionary.size());
+            for (String value : dictionary) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                SegmentFile.putVarLong(raw, bytes.length);
+                raw.writeBytes(bytes);
+            }
+            offset = addSection(raw, sections, userAndTokenDictionaries, offset);
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(blockCount * SegmentFile.BLOCK_INDEX_BYTES);
+        for (int block = 0; block < blockCount; block++) {
+            int first = block * BLOCK_ROWS;
+            int last = Math.min(rows, first + BLOCK_ROWS);
+            ByteArrayOutputStream timeColumn = new ByteArrayOutputStream();
+            ByteArrayOutputStream users = new ByteArrayOutputStream();
+            ByteArrayOutputStream tokens = new ByteArrayOutputStream();
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            long previous = 0;
+            for (int row = first; row < last; row++) {
+                long timestamp = timestamps[row];
+                min = Math.min(min, timestamp);
+                max = Math.max(max, timestamp);
+                SegmentFile.putSignedVarLong(timeColumn, timestamp - previous);
+                previous = timestamp;
+                SegmentFile.putVarLong(users, userColumn[row]);
+                SegmentFile.putVarLong(tokens, tokenStarts[row + 1] - tokenStarts[row]);
+                for (int t = tokenStarts[row]; t < tokenStarts[row + 1]; t++) {
+                    SegmentFile.putVarLong(tokens, tokenColumn[t]);
+                }
+            }
+            List<SegmentFile.Section> columns = new ArrayList<>();
+            for (ByteArrayOutputStream column : List.of(timeColumn, users, tokens)) {
+                offset = addSection(column, sections, columns, offset);
+            }
+            index.putLong(min).putLong(max).putInt(last - first);
+            columns.forEach(section -> section.write(index));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SegmentFile.HEADER_BYTES)
+                .putInt(SegmentFile.MAGIC)
+                .putLong(start)
+                .putLong(end)
+                .putInt(rows)
+                .putInt(blockCount);
+        userAndTokenDictionaries.forEach(section -> section.write(header));
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, offset));
+        file.writeBytes(header.array());
+        file.writeBytes(index.array());
+        sections.forEach(file::writeBytes);
+        return file.toByteArray();
+    }
+
+    private static long addSection(ByteArrayOutputStream raw, List<byte[]> sections,
+                                   List<SegmentFile.Section> locations, long offset) {
+        byte[] compressed = SegmentFile.deflate(raw.toByteArray());
+        sections.add(compressed);
+        locations.add(new SegmentFile.Section(offset, compressed.length, raw.size()));
+        return offset + compressed.length;
+    }
+
+    private static int id(String value, Map<String, Integer> ids, List<String> dictionary) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = dictionary.size();
+            ids.put(value, id);
+            dictionary.add(value);
+        }
+        return id;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
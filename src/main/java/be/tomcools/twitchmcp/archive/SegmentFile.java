@@ -0,0 +1,300 @@
+package be.tomcools.twitchmcp.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reader for one archived chat segment, and the format shared with {@link SegmentBuilder}.
+ * <p>
+ * A segment file is a header, a block index, then independently deflated sections: the user dictionary, the token
+ * dictionary and, per block of up to {@value SegmentBuilder#BLOCK_ROWS} messages, one section per column
+ * (delta-encoded timestamps, user ids, token ids). A scan reads the header and index, skips blocks outside the
+ * time range by their min/max timestamps and only reads and inflates the sections of the requested columns.
+ */
+final class SegmentFile implements Closeable {
+
+    static final int MAGIC = 0x54434131; // "TCA1"
+    static final String SUFFIX = ".tca";
+
+    // magic, start, end, rows, blocks, then offset/compressed/raw length of both dictionaries
+    static final int HEADER_BYTES = 4 + 8 + 8 + 4 + 4 + 2 * Section.BYTES;
+    // min and max timestamp, rows, then one section per column
+    static final int BLOCK_INDEX_BYTES = 8 + 8 + 4 + Column.values().length * Section.BYTES;
+
+    enum Column { TIMESTAMPS, USERS, TOKENS }
+
+    /**
+     * Location of a deflated section in the file.
+     */
+    record Section(long offset, int length, int rawLength) {
+        static final int BYTES = 8 + 4 + 4;
+
+        void write(ByteBuffer buffer) {
+            buffer.putLong(offset).putInt(length).putInt(rawLength);
+        }
+
+        static Section read(ByteBuffer buffer) {
+            return new Section(buffer.getLong(), buffer.getInt(), buffer.getInt());
+        }
+    }
+
+    record BlockIndex(long minTimestamp, long maxTimestamp, int rows, Section[] columns) {
+    }
+
+    /**
+     * Decoded columns of one block. Columns that were not requested are null; {@code timestamps} is also null when
+     * every row of the block lies inside the scanned range and the timestamps were not requested.
+     * {@code tokenStarts[i]} to {@code tokenStarts[i + 1]} are the token ids of row {@code i}.
+     */
+    record Block(int rows, long[] timestamps, int[] users, int[] tokenStarts, int[] tokens) {
+    }
+
+    /**
+     * Receives the blocks of a scan; arrays are only valid during the call.
+     */
+    interface Visitor {
+        // Dictionaries of the segment; null unless the matching column was requested
+        void segment(String[] users, String[] tokens);
+
+        void block(Block block);
+
+        void endSegment();
+    }
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final int rows;
+    private final Section userDictionary;
+    private final Section tokenDictionary;
+    private final BlockIndex[] blocks;
+
+    private SegmentFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = read(0, HEADER_BYTES);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a chat archive segment");
+        }
+        start = header.getLong();
+        end = header.getLong();
+        rows = header.getInt();
+        int blockCount = header.getInt();
+        userDictionary = Section.read(header);
+        tokenDictionary = Section.read(header);
+
+        ByteBuffer index = read(HEADER_BYTES, blockCount * BLOCK_INDEX_BYTES);
+        blocks = new BlockIndex[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            long min = index.getLong();
+            long max = index.getLong();
+            int blockRows = index.getInt();
+            Section[] columns = new Section[Column.values().length];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = Section.read(index);
+            }
+            blocks[i] = new BlockIndex(min, max, blockRows, columns);
+        }
+    }
+
+    static SegmentFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SegmentFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long start() {
+        return start;
+    }
+
+    long end() {
+        return end;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    /**
+     * Visits the blocks holding messages in {@code [from, to)}, decoding only {@code columns}.
+     */
+    void scan(long from, long to, Set<Column> columns, Visitor visitor) throws IOException {
+        visitor.segment(
+                columns.contains(Column.USERS) ? readDictionary(userDictionary) : null,
+                columns.contains(Column.TOKENS) ? readDictionary(tokenDictionary) : null);
+        for (BlockIndex block : blocks) {
+            if (block.maxTimestamp() < from || block.minTimestamp() >= to) {
+                continue;
+            }
+            boolean inside = block.minTimestamp() >= from && block.maxTimestamp() < to;
+            long[] timestamps = null;
+            if (!inside || columns.contains(Column.TIMESTAMPS)) {
+                timestamps = decodeTimestamps(inflate(block.columns()[Column.TIMESTAMPS.ordinal()]), block.rows());
+            }
+            int[] users = null;
+            if (columns.contains(Column.USERS)) {
+                users = decodeInts(inflate(block.columns()[Column.USERS.ordinal()]), block.rows());
+            }
+            int[] tokenStarts = null;
+            int[] tokens = null;
+            if (columns.contains(Column.TOKENS)) {
+                Reader reader = new Reader(inflate(block.columns()[Column.TOKENS.ordinal()]));
+                tokenStarts = new int[block.rows() + 1];
+                int[] ids = new int[Math.max(16, block.rows() * 4)];
+                int count = 0;
+                for (int row = 0; row < block.rows(); row++) {
+                    int n = reader.varInt();
+                    if (count + n > ids.length) {
+                        ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + n));
+                    }
+                    for (int i = 0; i < n; i++) {
+                        ids[count++] = reader.varInt();
+                    }
+                    tokenStarts[row + 1] = count;
+                }
+                tokens = ids;
+            }
+            visitor.block(new Block(block.rows(), timestamps, users, tokenStarts, tokens));
+        }
+        visitor.endSegment();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String[] readDictionary(Section section) throws IOException {
+        Reader reader = new Reader(inflate(section));
+        String[] values = new String[reader.varInt()];
+        for (int i = 0; i < values.length; i++) {
+            int length = reader.varInt();
+            values[i] = new String(reader.bytes, reader.pos, length, StandardCharsets.UTF_8);
+            reader.pos += length;
+        }
+        return values;
+    }
+
+    private byte[] inflate(Section section) throws IOException {
+        ByteBuffer compressed = read(section.offset(), section.length());
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[section.rawLength()];
+            int filled = 0;
+            while (filled < raw.length) {
+                int n = inflater.inflate(raw, filled, raw.length - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated archive section");
+                }
+                filled += n;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive section: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated archive segment");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static long[] decodeTimestamps(byte[] raw, int rows) {
+        Reader reader = new Reader(raw);
+        long[] timestamps = new long[rows];
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            long delta = reader.varLong();
+            previous += (delta >>> 1) ^ -(delta & 1);
+            timestamps[i] = previous;
+        }
+        return timestamps;
+    }
+
+    private static int[] decodeInts(byte[] raw, int rows) {
+        Reader reader = new Reader(raw);
+        int[] values = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = reader.varInt();
+        }
+        return values;
+    }
+
+    // Encoding helpers used by SegmentBuilder
+
+    static void putVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // Zigzag, so small negative deltas (clock adjustments) stay small
+    static void putSignedVarLong(ByteArrayOutputStream out, long value) {
+        putVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static final class Reader {
+        final byte[] bytes;
+        int pos;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long varLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        int varInt() {
+            return (int) varLong();
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package be.tomcools.twitchmcp.client;
 
+import be.tomcools.twitchmcp.archive.ChatArchive;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.apache.camel.builder.RouteBuilder;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Apache Camel route, using camel-irc to connect to Twitch Chat (which is IRC Based).
@@ -13,58 +22,122 @@ import java.util.concurrent.CopyOnWriteArrayList;
 @ApplicationScoped
 public class CamelRoute extends RouteBuilder {
 
+    // Chatters whose name and user-id are remembered, about the last hours of a busy channel
+    private static final int MAX_CHATTERS = 10_000;
+
     @ConfigProperty(name = "twitch.channel")
     String channel;
     @ConfigProperty(name = "twitch.auth")
     String authToken;
+    @ConfigProperty(name = "twitch.irc.host", defaultValue = "irc.chat.twitch.tv")
+    String ircHost;
+    @ConfigProperty(name = "twitch.irc.port", defaultValue = "6667")
+    int ircPort;
+
+    // Number of recent chat messages that analysis and moderation look at
+    @ConfigProperty(name = "twitch.chat.max_messages", defaultValue = "100")
+    int maxMessages;
+
+    // Chat history is kept for this long, within the byte budget; see ChatHistory
+    @ConfigProperty(name = "twitch.chat.retention", defaultValue = "PT1H")
+    Duration retention = Duration.ofHours(1);
+
+    @ConfigProperty(name = "twitch.chat.history_budget_mb", defaultValue = "32")
+    int historyBudgetMb = 32;
+
+    // Part of the budget kept uncompressed, for the most recent messages
+    @ConfigProperty(name = "twitch.chat.hot_tier_mb", defaultValue = "4")
+    int hotTierMb = 4;
+
+    // Events a chat event subscriber may have queued before the oldest are dropped
+    @ConfigProperty(name = "twitch.events.buffer_size", defaultValue = "256")
+    int eventBufferSize;
+
+    @Inject
+    MeterRegistry registry;
 
-    // Store last 100 messages for analysis
-    private final List<String> recentMessages = new CopyOnWriteArrayList<>();
-    private static final int MAX_MESSAGES = 100;
+    // Not set on tenant contexts; only the configured channel is archived
+    @Inject
+    ChatArchive archive;
+
+    @Inject
+    ChatClassifier classifier;
+
+    @Inject
+    HypeDetector hype;
+
+    // Appended to route ids and the send endpoint, so per-tenant copies of this route can share one CamelContext
+    String routeSuffix = "";
+
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private volatile long lastMessageAt;
+    private volatile ChatHistory history;
+    private volatile ChatEventBus events;
+    private volatile boolean connected;
+
+    // Login to user-id as answered by Helix, so moderating a user again needs no lookup. Never filled from message
+    // text, which the sender controls. Access-ordered, so the least recently used login is dropped first; guarded by
+    // itself
+    private final Map<String, String> userIds = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CHATTERS;
+        }
+    };
+    private final ChatterIndex chatters = new ChatterIndex(MAX_CHATTERS);
+
+    // Function-based meters read the existing counters on scrape, so the ingest path pays nothing extra
+    @PostConstruct
+    void registerMetrics() {
+        FunctionCounter.builder("twitch.chat.messages.received", messagesReceived, AtomicLong::get)
+                .description("Chat messages ingested from Twitch")
+                .register(registry);
+        FunctionCounter.builder("twitch.chat.messages.sent", messagesSent, AtomicLong::get)
+                .description("Messages sent to Twitch chat")
+                .register(registry);
+        Gauge.builder("twitch.chat.history.size", this, CamelRoute::getHistorySize)
+                .description("Messages currently retained in the chat history")
+                .register(registry);
+        Gauge.builder("twitch.chat.history.bytes", this, route -> route.history().hotBytes())
+                .description("Direct memory held by the retained chat history")
+                .tag("tier", "hot")
+                .register(registry);
+        Gauge.builder("twitch.chat.history.bytes", this, route -> route.history().warmBytes())
+                .description("Direct memory held by the retained chat history")
+                .tag("tier", "warm")
+                .register(registry);
+        Gauge.builder("twitch.chat.history.budget", this, route -> route.history().budgetBytes())
+                .description("Byte budget of the retained chat history")
+                .baseUnit("bytes")
+                .register(registry);
+    }
 
     @Override
     public void configure() throws Exception {
-        String twitchIrcUrl = "irc:%s@irc.chat.twitch.tv:6667?nickname=%s&password=oauth:%s&channels=#%s"
-                .formatted(channel, channel, authToken, channel);
+        String twitchIrcUrl = ircUrl();
 
         // Receives messages from Twitch Chat and logs them.
+        // Neither route starts with the context: joining the channel waits for connect()
         from(twitchIrcUrl)
-                .routeId("receiveMessageFromTwitch")
+                .routeId(receiveRouteId())
+                .autoStartup(false)
                 .process(exchange -> {
-                    String message = exchange.getMessage().getBody(String.class);
                     String messageType = exchange.getMessage().getHeader("irc.messageType", String.class);
-                    
+
                     // Only store chat messages (PRIVMSG), not system messages
                     if ("PRIVMSG".equals(messageType)) {
                         String username = exchange.getMessage().getHeader("irc.user.nick", String.class);
-                        
-                        if (username != null) {
-                            String content = message;
-                            
-                            // Extract the actual message content if it's in the format ":username!username@username.tmi.twitch.tv PRIVMSG #channel :message"
-                            if (content.contains("PRIVMSG")) {
-                                int lastColon = content.lastIndexOf(':');
-                                if (lastColon != -1) {
-                                    content = content.substring(lastColon + 1);
-                                }
-                            }
-                            
-                            synchronized (recentMessages) {
-                                recentMessages.add(username + ": " + content);
-                                if (recentMessages.size() > MAX_MESSAGES) {
-                                    recentMessages.remove(0);
-                                }
-                            }
-                        }
+                        recordChatMessage(username, exchange.getMessage().getBody(String.class));
                     }
                 })
                 .to("log:info");
 
         // Allows us to send messages to Twitch
-        from("direct:sendToIrc")
-                .routeId("sendMessageToTwitch")
-                .process(exchange -> {
-                })
+        from(sendEndpoint())
+                .routeId(sendRouteId())
+                .autoStartup(false)
+                .process(exchange -> messagesSent.incrementAndGet())
                 .setHeader("irc.sendTo", constant("#" + channel))
                 .setBody(simple("${body}"))
                 .to(twitchIrcUrl)
@@ -72,11 +145,190 @@ public class CamelRoute extends RouteBuilder {
                 });
     }
 
+    /**
+     * Starts both routes, connecting to Twitch chat. Idempotent; called on the first use of the chat rather than
+     * at startup, so a session that never touches chat doesn't pay for the IRC connection. Does nothing until
+     * the routes were added to a context.
+     */
+    void connect() throws Exception {
+        if (connected || getContext() == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!connected) {
+                getContext().getRouteController().startRoute(receiveRouteId());
+                getContext().getRouteController().startRoute(sendRouteId());
+                connected = true;
+            }
+        }
+    }
+
+    String ircUrl() {
+        return "irc:%s@%s:%d?nickname=%s&password=oauth:%s&channels=#%s"
+                .formatted(channel, ircHost, ircPort, channel, authToken, channel);
+    }
+
+    String receiveRouteId() {
+        return "receiveMessageFromTwitch" + routeSuffix;
+    }
+
+    String sendRouteId() {
+        return "sendMessageToTwitch" + routeSuffix;
+    }
+
+    // Endpoint that TwitchClient sends chat messages to
+    String sendEndpoint() {
+        return "direct:sendToIrc" + routeSuffix;
+    }
+
+    // Stores a PRIVMSG received from Twitch; the body of the ingest route, kept separate so it can be benchmarked
+    void recordChatMessage(String username, String message) {
+        if (username == null || message == null) {
+            return;
+        }
+        ChatIngestEvent event = new ChatIngestEvent();
+        event.begin();
+        // Sub-phase timings are only taken when the event is enabled, keeping ingest free of clock reads otherwise
+        boolean profiling = event.isEnabled();
+        long parseStart = profiling ? System.nanoTime() : 0;
+        String content = message;
+
+        // Extract the actual message content if it's in the format ":username!username@username.tmi.twitch.tv PRIVMSG #channel :message"
+        if (content.contains("PRIVMSG")) {
+            int lastColon = content.lastIndexOf(':');
+            if (lastColon != -1) {
+                content = content.substring(lastColon + 1);
+            }
+        }
+
+        long insertStart = profiling ? System.nanoTime() : 0;
+        messagesReceived.incrementAndGet();
+        lastMessageAt = System.currentTimeMillis();
+        ChatHistory history = history();
+        history.add(lastMessageAt, username + ": " + content);
+        chatters.observe(username, lastMessageAt);
+        if (classifier != null) {
+            classifier.observe(username, content);
+        }
+        if (archive != null) {
+            archive.append(lastMessageAt, username, content);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.username = username;
+            event.messageLength = content.length();
+            event.parseTime = insertStart - parseStart;
+            event.insertTime = System.nanoTime() - insertStart;
+            event.historySize = history.size();
+            event.commit();
+        }
+        events().publishMessage(username, content);
+        if (hype != null) {
+            HypeDetector.Highlight highlight = hype.observe(lastMessageAt, username, content);
+            if (highlight != null) {
+                events().publishHighlight(highlight);
+            }
+        }
+    }
+
+    /**
+     * The user-id Helix returned for a login before, or null.
+     */
+    public String userId(String login) {
+        synchronized (userIds) {
+            return userIds.get(login.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    // Recent chatters by name, for resolving moderation targets
+    public ChatterIndex chatters() {
+        return chatters;
+    }
+
+    public void rememberUserId(String login, String userId) {
+        if (login == null || userId == null || userId.isEmpty()) {
+            return;
+        }
+        String key = login.toLowerCase(Locale.ROOT);
+        synchronized (userIds) {
+            userIds.put(key, userId);
+        }
+    }
+
+    // Replaces the retained history in one go, e.g. to preload benchmarks or replayed chat logs
+    void loadHistory(List<String> messages) {
+        ChatHistory history = history();
+        synchronized (history) {
+            history.clear();
+            chatters.clear();
+            long now = System.currentTimeMillis();
+            for (String message : messages) {
+                history.add(message);
+                int colon = message.indexOf(':');
+                if (colon > 0) {
+                    chatters.observe(message.substring(0, colon), now);
+                }
+            }
+        }
+    }
+
+    // Created on first use, as the retention settings are only known once injected or set by TwitchTenants
+    public ChatHistory history() {
+        ChatHistory current = history;
+        if (current == null) {
+            synchronized (this) {
+                if (history == null) {
+                    history = new ChatHistory(retention, historyBudgetMb * 1024L * 1024, hotTierMb * 1024L * 1024);
+                }
+                current = history;
+            }
+        }
+        return current;
+    }
+
+    public ChatEventBus events() {
+        ChatEventBus bus = events;
+        if (bus == null) {
+            synchronized (this) {
+                if (events == null) {
+                    events = new ChatEventBus(eventBufferSize > 0 ? eventBufferSize : 256);
+                }
+                bus = events;
+            }
+        }
+        return bus;
+    }
+
+    // The newest twitch.chat.max_messages messages, however much more is retained
     public List<String> getRecentMessages() {
-        return new ArrayList<>(recentMessages);
+        return history().last(maxMessages > 0 ? maxMessages : 100);
+    }
+
+    // Only copies the newest n messages out of the history
+    public List<String> getRecentMessages(int n) {
+        return history().last(n);
+    }
+
+    // Total PRIVMSGs ingested since startup, including ones that already rolled out of the history
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    public long getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public int getHistorySize() {
+        return history().size();
+    }
+
+    // Direct memory held by the retained history, used to keep tenant contexts within their memory budget
+    public long getHistoryBytes() {
+        return history().bytes();
     }
 
     public void clearMessages() {
-        recentMessages.clear();
+        history().clear();
     }
 }
@@ -0,0 +1,255 @@
+package be.tomcools.twitchmcp.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Local state of a channel built from its EventSub notifications: the latest poll and prediction with their running
+ * totals, the current title and category, and the most recent follows, raids and channel updates. Reading it never
+ * touches the network.
+ * <p>
+ * Polls and predictions accept both the EventSub event objects and the Helix objects returned when one is created,
+ * so the status is known before the first notification arrives; the channel information is seeded the same way.
+ */
+public final class ChannelEvents {
+
+    private static final int MAX_ACTIVITY = 50;
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    record Option(String id, String title, long votes, long points) {
+    }
+
+    record Contest(String id, String title, String status, List<Option> options, Instant startedAt,
+                   Instant endsAt, Instant endedAt, String winnerId, Instant updatedAt) {
+    }
+
+    record Activity(Instant at, String text) {
+    }
+
+    /**
+     * Title and category as last loaded, notified or set by this server; {@code updatedAt} is when that was.
+     */
+    public record Channel(String title, String categoryId, String categoryName, String language, List<String> tags,
+                          Instant updatedAt) {
+
+        String format(ZoneId zone) {
+            return "Title: " + title
+                    + "\nCategory: " + (categoryName == null || categoryName.isEmpty() ? "none" : categoryName)
+                    + "\nLanguage: " + (language == null || language.isEmpty() ? "unknown" : language)
+                    + (tags.isEmpty() ? "" : "\nTags: " + String.join(", ", tags))
+                    + "\nAs of " + CLOCK.format(updatedAt.atZone(zone));
+        }
+    }
+
+    // Guarded by this
+    private Contest poll;
+    private Contest prediction;
+    private Channel channel;
+    private final Deque<Activity> activity = new ArrayDeque<>();
+
+    /**
+     * Applies one notification, e.g. {@code channel.poll.progress} with its {@code event} object.
+     */
+    synchronized void apply(String type, JsonNode event) {
+        Instant now = Instant.now();
+        switch (type) {
+            case "channel.poll.begin", "channel.poll.progress" -> poll = contest(event, "choices", "ACTIVE", now);
+            case "channel.poll.end" -> poll = contest(event, "choices", null, now);
+            case "channel.prediction.begin", "channel.prediction.progress" ->
+                    prediction = contest(event, "outcomes", "ACTIVE", now);
+            case "channel.prediction.lock" -> prediction = contest(event, "outcomes", "LOCKED", now);
+            case "channel.prediction.end" -> prediction = contest(event, "outcomes", null, now);
+            case "channel.follow" -> record(now, event.path("user_name").asText(event.path("user_login").asText("someone"))
+                    + " followed");
+            case "channel.raid" -> record(now, event.path("from_broadcaster_user_name").asText("someone")
+                    + " raided with " + event.path("viewers").asLong() + " viewers");
+            case "channel.update" -> {
+                record(now, "Channel updated: title \"" + event.path("title").asText()
+                        + "\", category " + event.path("category_name").asText("none"));
+                // The notification carries no tags, so the known ones are kept
+                channel = new Channel(event.path("title").asText(), event.path("category_id").asText(),
+                        event.path("category_name").asText(), event.path("language").asText(),
+                        channel != null ? channel.tags() : List.of(), now);
+            }
+            default -> {
+            }
+        }
+    }
+
+    // From the Helix response of createPoll/createPrediction; a poll already known from notifications is kept
+    synchronized void seedPoll(JsonNode helixPoll) {
+        if (poll == null || !poll.id().equals(helixPoll.path("id").asText())) {
+            poll = contest(helixPoll, "choices", null, Instant.now());
+        }
+    }
+
+    // From the Helix channel information (GET /channels)
+    synchronized void seedChannel(JsonNode helixChannel) {
+        List<String> tags = new ArrayList<>();
+        for (JsonNode tag : helixChannel.path("tags")) {
+            tags.add(tag.asText());
+        }
+        channel = new Channel(helixChannel.path("title").asText(), helixChannel.path("game_id").asText(),
+                helixChannel.path("game_name").asText(), helixChannel.path("broadcaster_language").asText(),
+                List.copyOf(tags), Instant.now());
+    }
+
+    // After a successful update by this server, so the next read or no-op check needs no Helix request; the
+    // channel.update notification that follows replaces it with what Twitch stored. Nothing to update while not loaded
+    synchronized void updateTitle(String title) {
+        if (channel != null) {
+            channel = new Channel(title, channel.categoryId(), channel.categoryName(), channel.language(),
+                    channel.tags(), Instant.now());
+        }
+    }
+
+    synchronized void updateCategory(String categoryId, String categoryName) {
+        if (channel != null) {
+            channel = new Channel(channel.title(), categoryId, categoryName, channel.language(), channel.tags(),
+                    Instant.now());
+        }
+    }
+
+    synchronized Channel channel() {
+        return channel;
+    }
+
+    synchronized void seedPrediction(JsonNode helixPrediction) {
+        if (prediction == null || !prediction.id().equals(helixPrediction.path("id").asText())) {
+            prediction = contest(helixPrediction, "outcomes", null, Instant.now());
+        }
+    }
+
+    synchronized String formatPoll(ZoneId zone) {
+        if (poll == null) {
+            return null;
+        }
+        StringBuilder text = header("Poll", poll, zone);
+        long total = poll.options().stream().mapToLong(Option::votes).sum();
+        for (Option option : poll.options()) {
+            text.append("- ").append(option.title()).append(": ").append(option.votes()).append(" votes")
+                    .append(percent(option.votes(), total));
+            if (option.points() > 0) {
+                text.append(", ").append(option.points()).append(" with channel points");
+            }
+            text.append('\n');
+        }
+        if (isEnded(poll) && total > 0) {
+            long most = poll.options().stream().mapToLong(Option::votes).max().orElse(0);
+            List<String> leaders = poll.options().stream().filter(o -> o.votes() == most).map(Option::title).toList();
+            text.append(leaders.size() == 1 ? "Winner: " + leaders.get(0) : "Tie: " + String.join(", ", leaders));
+        } else {
+            text.append("Total votes: ").append(total);
+        }
+        return text.toString();
+    }
+
+    synchronized String formatPrediction(ZoneId zone) {
+        if (prediction == null) {
+            return null;
+        }
+        StringBuilder text = header("Prediction", prediction, zone);
+        long totalPoints = prediction.options().stream().mapToLong(Option::points).sum();
+        for (Option option : prediction.options()) {
+            text.append("- ").append(option.title()).append(": ").append(option.votes()).append(" users, ")
+                    .append(option.points()).append(" points").append(percent(option.points(), totalPoints));
+            if (option.id().equals(prediction.winnerId())) {
+                text.append(" (winner)");
+            }
+            text.append('\n');
+        }
+        return text.append("Total points: ").append(totalPoints).toString();
+    }
+
+    /**
+     * The most recent follows, raids and channel updates, newest first.
+     */
+    synchronized List<String> recentActivity(int limit, ZoneId zone) {
+        List<String> lines = new ArrayList<>();
+        Iterator<Activity> newestFirst = activity.descendingIterator();
+        while (newestFirst.hasNext() && lines.size() < limit) {
+            Activity entry = newestFirst.next();
+            lines.add("[" + CLOCK.format(entry.at().atZone(zone)) + "] " + entry.text());
+        }
+        return lines;
+    }
+
+    synchronized void clear() {
+        poll = null;
+        prediction = null;
+        channel = null;
+        activity.clear();
+    }
+
+    private void record(Instant at, String text) {
+        activity.addLast(new Activity(at, text));
+        if (activity.size() > MAX_ACTIVITY) {
+            activity.removeFirst();
+        }
+    }
+
+    // EventSub leaves the status out until the end and uses lowercase; Helix always sends it in capitals
+    private static Contest contest(JsonNode node, String optionsField, String status, Instant now) {
+        List<Option> options = new ArrayList<>();
+        for (JsonNode option : node.path(optionsField)) {
+            boolean isPoll = optionsField.equals("choices");
+            options.add(new Option(option.path("id").asText(), option.path("title").asText(),
+                    option.path(isPoll ? "votes" : "users").asLong(),
+                    option.path(isPoll ? "channel_points_votes" : "channel_points").asLong()));
+        }
+        String resolvedStatus = status != null ? status : node.path("status").asText("ACTIVE").toUpperCase(Locale.ROOT);
+        Instant startedAt = instant(node.path(node.has("started_at") ? "started_at" : "created_at").asText(null));
+        Instant endsAt = instant(node.path(node.has("ends_at") ? "ends_at" : "locks_at").asText(null));
+        long window = node.path(node.has("duration") ? "duration" : "prediction_window").asLong(0);
+        if (endsAt == null && startedAt != null && window > 0) {
+            endsAt = startedAt.plusSeconds(window);
+        }
+        return new Contest(node.path("id").asText(), node.path("title").asText(), resolvedStatus, List.copyOf(options),
+                startedAt, endsAt, instant(node.path("ended_at").asText(null)),
+                node.path("winning_outcome_id").asText(null), now);
+    }
+
+    private static StringBuilder header(String kind, Contest contest, ZoneId zone) {
+        StringBuilder text = new StringBuilder(kind).append(": ").append(contest.title())
+                .append(" [").append(contest.status()).append("]\n");
+        Instant now = Instant.now();
+        if (contest.endedAt() != null) {
+            text.append("Ended at ").append(CLOCK.format(contest.endedAt().atZone(zone))).append('\n');
+        } else if (contest.endsAt() != null && contest.endsAt().isAfter(now) && !isEnded(contest)) {
+            Duration left = Duration.between(now, contest.endsAt());
+            text.append(kind.equals("Poll") ? "Ends" : "Locks").append(" in ")
+                    .append(left.toMinutes()).append("m ").append(left.toSecondsPart()).append("s\n");
+        }
+        return text.append("Last update ").append(CLOCK.format(contest.updatedAt().atZone(zone))).append('\n');
+    }
+
+    private static boolean isEnded(Contest contest) {
+        return !contest.status().equals("ACTIVE") && !contest.status().equals("LOCKED");
+    }
+
+    private static String percent(long part, long total) {
+        return total > 0 ? String.format(" (%.0f%%)", part * 100.0 / total) : "";
+    }
+
+    private static Instant instant(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package be.tomcools.twitchmcp.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Online logistic regression over hashed message features (words, word pairs and a few shape signals such as links
+ * and all caps), one model per {@link Label}. Every chat message is scored at ingest, which costs a pass over its
+ * characters and a few array reads; each user keeps a decaying peak score. Timeouts and bans taken through the tools
+ * train the model: the moderated user's recent messages as positives, other users' as negatives.
+ * <p>
+ * The model starts from a small seed vocabulary and is saved to {@code twitch.classifier.model_file} in the
+ * background a few seconds after an update, once for a burst of updates, and on shutdown. Scoring reads the weights without locking; a score racing with an update sees a mix of old and new
+ * weights, which is harmless for a heuristic.
+ */
+@ApplicationScoped
+public class ChatClassifier {
+
+    private static final Logger LOG = Logger.getLogger(ChatClassifier.class);
+
+    private static final int MAGIC = 0x54434C31; // "TCL1"
+    private static final float LEARNING_RATE = 0.2f;
+    private static final int EPOCHS = 3;
+    private static final int MAX_TRACKED_USERS = 10_000;
+    // A user's score falls to this fraction of its peak with each new message
+    private static final float PEAK_DECAY = 0.7f;
+    private static final long RECENT_MILLIS = 15 * 60_000;
+    // A message scoring at least this counts against its author; well above a single seed word (sigmoid(0.5) = 0.62)
+    private static final float FLAGGED_SCORE = 0.8f;
+
+    // Updates within this long of the first unsaved one are written together
+    private static final long SAVE_DELAY_MILLIS = 5_000;
+    // The model is a few megabytes, so saving runs off the tool call that trained it
+    private static final Executor SAVER = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("classifier-save-", 0).factory());
+
+    private static final int WORD_SEED = 0x2F1A3B7;
+    private static final int PAIR_SEED = 0x6C8E9CF5;
+
+    public enum Label { TOXIC, SPAM }
+
+    /**
+     * A recently active user with messages flagged for a label: their peak score and how many messages scored at
+     * least {@link #FLAGGED_SCORE} since they became active.
+     */
+    public record Suspect(String username, float score, int flaggedMessages, long lastSeen) {
+    }
+
+    // Words in a descriptor ("the toxic one") or moderation reason that point at a label
+    private static final Map<String, Label> LABEL_WORDS = Map.ofEntries(
+            Map.entry("toxic", Label.TOXIC), Map.entry("rude", Label.TOXIC), Map.entry("mean", Label.TOXIC),
+            Map.entry("troll", Label.TOXIC), Map.entry("insulting", Label.TOXIC), Map.entry("hateful", Label.TOXIC),
+            Map.entry("abusive", Label.TOXIC), Map.entry("harassment", Label.TOXIC), Map.entry("insults", Label.TOXIC),
+            Map.entry("spam", Label.SPAM), Map.entry("spammer", Label.SPAM), Map.entry("spamming", Label.SPAM),
+            Map.entry("bot", Label.SPAM), Map.entry("advertising", Label.SPAM), Map.entry("advertiser", Label.SPAM),
+            Map.entry("promo", Label.SPAM), Map.entry("links", Label.SPAM), Map.entry("caps", Label.SPAM),
+            Map.entry("emotes", Label.SPAM), Map.entry("flooding", Label.SPAM));
+
+    // Starting point until moderators have trained the model: whole words and pairs only, never substrings
+    private static final Map<Label, List<String>> SEED = Map.of(
+            Label.TOXIC, List.of("idiot", "stupid", "dumb", "moron", "loser", "trash", "pathetic", "shut up",
+                    "kys", "kill yourself", "hate you", "ugly"),
+            Label.SPAM, List.of("buy followers", "free followers", "cheap viewers", "promo", "best viewers",
+                    "follow me", "check my"));
+    private static final float SEED_WEIGHT = 3.0f;
+    private static final float SEED_BIAS = -2.5f;
+
+    private static final String LINK_FEATURE = "shape:link";
+    private static final String CAPS_FEATURE = "shape:caps";
+    private static final String REPEAT_FEATURE = "shape:repeat";
+
+    @ConfigProperty(name = "twitch.classifier.model_file")
+    Optional<String> modelFile = Optional.empty();
+
+    @ConfigProperty(name = "twitch.classifier.hash_bits", defaultValue = "18")
+    int hashBits;
+
+    private float[][] weights;
+    private float[] bias;
+    private int mask;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    // Access-ordered, so the least recently active user is dropped first; guarded by itself
+    private final Map<String, UserScore> users = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UserScore> eldest) {
+            return size() > MAX_TRACKED_USERS;
+        }
+    };
+
+    private static final class UserScore {
+        final float[] peak = new float[Label.values().length];
+        // Flagged messages per label, counted from the first message after a quiet spell of RECENT_MILLIS
+        final int[] flagged = new int[Label.values().length];
+        long lastSeen;
+    }
+
+    /**
+     * A model that is neither loaded nor saved, e.g. for tenant contexts.
+     */
+    static ChatClassifier inMemory(int hashBits) {
+        ChatClassifier classifier = new ChatClassifier();
+        classifier.hashBits = hashBits;
+        classifier.init();
+        return classifier;
+    }
+
+    @PostConstruct
+    void init() {
+        int size = 1 << hashBits;
+        mask = size - 1;
+        weights = new float[Label.values().length][size];
+        bias = new float[Label.values().length];
+        if (modelFile.isPresent() && Files.exists(Path.of(modelFile.get())) && load(Path.of(modelFile.get()))) {
+            return;
+        }
+        seed();
+    }
+
+    @PreDestroy
+    void close() {
+        save();
+    }
+
+    /**
+     * The label a descriptor or moderation reason refers to, or null when none of its words name one.
+     */
+    public static Label labelFor(String text) {
+        if (text == null) {
+            return null;
+        }
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}_]+")) {
+            Label label = LABEL_WORDS.get(word);
+            if (label != null) {
+                return label;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Probability that {@code text} belongs to {@code label}.
+     */
+    public float score(Label label, String text) {
+        float[] z = scores(text);
+        return sigmoid(z[label.ordinal()]);
+    }
+
+    /**
+     * Scores a chat message and folds it into its author's peak scores; called for every ingested message.
+     */
+    void observe(String username, String text) {
+        float[] z = scores(text);
+        long now = System.currentTimeMillis();
+        synchronized (users) {
+            UserScore user = users.computeIfAbsent(username.toLowerCase(Locale.ROOT), key -> new UserScore());
+            boolean returning = user.lastSeen < now - RECENT_MILLIS;
+            for (int label = 0; label < z.length; label++) {
+                float score = sigmoid(z[label]);
+                user.peak[label] = Math.max(user.peak[label] * PEAK_DECAY, score);
+                user.flagged[label] = (returning ? 0 : user.flagged[label]) + (score >= FLAGGED_SCORE ? 1 : 0);
+            }
+            user.lastSeen = now;
+        }
+    }
+
+    /**
+     * Recent peak score of a user, 0 for users not seen.
+     */
+    public float userScore(String username, Label label) {
+        synchronized (users) {
+            UserScore user = users.get(username.toLowerCase(Locale.ROOT));
+            return user != null ? user.peak[label.ordinal()] : 0;
+        }
+    }
+
+    /**
+     * Users active in the last 15 minutes with at least {@code minFlagged} flagged messages for {@code label}, highest
+     * peak score first, at most {@code limit} of them.
+     */
+    public List<Suspect> suspects(Label label, int minFlagged, int limit) {
+        long since = System.currentTimeMillis() - RECENT_MILLIS;
+        List<Suspect> suspects = new ArrayList<>();
+        synchronized (users) {
+            for (Map.Entry<String, UserScore> entry : users.entrySet()) {
+                UserScore user = entry.getValue();
+                if (user.lastSeen >= since && user.flagged[label.ordinal()] >= minFlagged) {
+                    suspects.add(new Suspect(entry.getKey(), user.peak[label.ordinal()], user.flagged[label.ordinal()],
+                            user.lastSeen));
+                }
+            }
+        }
+        suspects.sort(Comparator.comparingDouble(Suspect::score).reversed());
+        return suspects.size() > limit ? List.copyOf(suspects.subList(0, limit)) : suspects;
+    }
+
+    /**
+     * Trains on a moderator action: the user's messages in {@code history} ("user: message" lines) become
+     * positives for the label named by {@code reason} (toxic unless it names spam), other users' messages
+     * negatives for both labels.
+     */
+    public void learn(String username, String reason, List<String> history) {
+        Label label = labelFor(reason);
+        if (label == null) {
+            label = Label.TOXIC;
+        }
+        String prefix = username.toLowerCase(Locale.ROOT) + ":";
+        List<String> positives = new ArrayList<>();
+        List<String> negatives = new ArrayList<>();
+        Set<String> negativeUsers = new HashSet<>();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            String line = history.get(i);
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String text = line.substring(colon + 1);
+            if (line.toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                if (positives.size() < 10) {
+                    positives.add(text);
+                }
+            } else if (negatives.size() < 20 && negativeUsers.add(line.substring(0, colon))) {
+                // One message per other user, so a single chatty viewer doesn't dominate the negatives
+                negatives.add(text);
+            }
+        }
+        if (positives.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (int epoch = 0; epoch < EPOCHS; epoch++) {
+                for (String text : positives) {
+                    update(label.ordinal(), text, 1);
+                }
+                for (String text : negatives) {
+                    for (Label other : Label.values()) {
+                        update(other.ordinal(), text, 0);
+                    }
+                }
+            }
+        }
+        LOG.debugf("Trained %s on %d messages of %s and %d others", label, positives.size(), username, negatives.size());
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        if (modelFile.isEmpty() || !saveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS, SAVER).execute(() -> {
+            // Cleared first, so an update during the save schedules the next one
+            saveScheduled.set(false);
+            save();
+        });
+    }
+
+    private void update(int label, String text, int target) {
+        List<Integer> features = new ArrayList<>();
+        forEachFeature(text, features::add);
+        float z = bias[label];
+        for (int feature : features) {
+            z += sign(feature) * weights[label][feature & mask];
+        }
+        float gradient = sigmoid(z) - target;
+        for (int feature : features) {
+            weights[label][feature & mask] -= LEARNING_RATE * gradient * sign(feature);
+        }
+        bias[label] -= LEARNING_RATE * gradient * 0.1f;
+    }
+
+    private float[] scores(String text) {
+        float[] z = bias.clone();
+        forEachFeature(text, feature -> {
+            int index = feature & mask;
+            float sign = sign(feature);
+            for (int label = 0; label < z.length; label++) {
+                z[label] += sign * weights[label][index];
+            }
+        });
+        return z;
+    }
+
+    private interface FeatureSink {
+        void accept(int feature);
+    }
+
+    // Hashes of the words (lowercased, runs of 3+ equal letters shortened to 2), adjacent word pairs and shape signals:
+    // links, mostly capitals, the same word repeated
+    private static void forEachFeature(String text, FeatureSink sink) {
+        int length = text.length();
+        int previous = 0;
+        int words = 0;
+        int upper = 0;
+        int letters = 0;
+        int repeats = 0;
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (!isWordChar(c)) {
+                i++;
+                continue;
+            }
+            int hash = WORD_SEED;
+            char last = 0;
+            int run = 0;
+            int start = i;
+            while (i < length && isWordChar(text.charAt(i))) {
+                char raw = text.charAt(i++);
+                if (Character.isLetter(raw)) {
+                    letters++;
+                    if (Character.isUpperCase(raw)) {
+                        upper++;
+                    }
+                }
+                char lower = Character.toLowerCase(raw);
+                run = lower == last ? run + 1 : 1;
+                last = lower;
+                if (run <= 2) {
+                    hash = (hash ^ lower) * 0x01000193;
+                }
+            }
+            if (text.regionMatches(true, start, "http", 0, 4) || text.regionMatches(true, start, "www", 0, 3)) {
+                sink.accept(hash(LINK_FEATURE));
+            }
+            hash = mix(hash);
+            sink.accept(hash);
+            if (words > 0) {
+                sink.accept(mix((previous * 31 + hash) ^ PAIR_SEED));
+                if (hash == previous) {
+                    repeats++;
+                }
+            }
+            previous = hash;
+            words++;
+        }
+        if (letters >= 10 && upper * 10 >= letters * 7) {
+            sink.accept(hash(CAPS_FEATURE));
+        }
+        if (repeats >= 3) {
+            sink.accept(hash(REPEAT_FEATURE));
+        }
+    }
+
+    private void seed() {
+        for (Label label : Label.values()) {
+            bias[label.ordinal()] = SEED_BIAS;
+            for (String phrase : SEED.get(label)) {
+                // The feature of a phrase is its last one: the word itself, or the pair for two words
+                int[] last = new int[1];
+                forEachFeature(phrase, feature -> last[0] = feature);
+                weights[label.ordinal()][last[0] & mask] += SEED_WEIGHT * sign(last[0]);
+            }
+        }
+        for (String shape : List.of(LINK_FEATURE, CAPS_FEATURE, REPEAT_FEATURE)) {
+            int feature = hash(shape);
+            weights[Label.SPAM.ordinal()][feature & mask] += SEED_WEIGHT * sign(feature);
+        }
+    }
+
+    private synchronized void save() {
+        if (modelFile.isEmpty()) {
+            return;
+        }
+        Path target = Path.of(modelFile.get());
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            ByteBuffer buffer = ByteBuffer.allocate(12 + weights.length * (4 + 4 * weights[0].length));
+            buffer.putInt(MAGIC).putInt(hashBits).putInt(weights.length);
+            for (int label = 0; label < weights.length; label++) {
+                buffer.putFloat(bias[label]);
+                buffer.asFloatBuffer().put(weights[label]);
+                buffer.position(buffer.position() + 4 * weights[label].length);
+            }
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warnf("Could not save chat classifier to %s: %s", target, e.getMessage());
+        }
+    }
+
+    private boolean load(Path path) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != hashBits || buffer.getInt() != weights.length) {
+                LOG.warnf("Ignoring chat classifier %s: written with other settings", path);
+                return false;
+            }
+            for (int label = 0; label < weights.length; label++) {
+                bias[label] = buffer.getFloat();
+                buffer.asFloatBuffer().get(weights[label]);
+                buffer.position(buffer.position() + 4 * weights[label].length);
+            }
+            LOG.infof("Loaded chat classifier from %s", path);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf("Could not load chat classifier from %s: %s", path, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '\'';
+    }
+
+    private static int hash(String feature) {
+        return mix(feature.hashCode());
+    }
+
+    // Murmur3 finalizer, so similar words land far apart
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // The top bit picks the sign, so colliding features tend to cancel out instead of adding up
+    private static float sign(int feature) {
+        return feature < 0 ? -1f : 1f;
+    }
+
+    private static float sigmoid(float z) {
+        return (float) (1 / (1 + Math.exp(-z)));
+    }
+}
@@ -0,0 +1,226 @@
+package be.tomcools.twitchmcp.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Condenses recent chat into the most informative lines that fit a character budget, for tools whose output goes
+ * straight into a model's context. Messages that read the same once case, punctuation, digits, repeated letters and
+ * repeated words are ignored are collapsed into one line with a {@code ×N} count, a user's remaining lines are joined
+ * into one, and lone low-signal lines (emote-only, "?", "gg") are dropped. Lines are taken newest first until the
+ * budget is spent and returned in chat order, under a header saying what was left out.
+ * <p>
+ * One pass over the messages builds the runs of near-duplicates, one pass from the newest run back picks the lines.
+ */
+public final class ChatContext {
+
+    // Rough size of a model token in chat text, to turn a token budget into characters
+    public static final int CHARS_PER_TOKEN = 4;
+    // A single copypasta should not eat the budget
+    private static final int MAX_TEXT_CHARS = 200;
+    // Left for the header line
+    private static final int HEADER_CHARS = 100;
+    private static final String SEPARATOR = " | ";
+
+    // Messages that normalize to the same text
+    private static final class Run {
+        final String user;
+        final String text;
+        final boolean lowSignal;
+        int count;
+        int last;
+        // Only allocated once a second user posts the same thing
+        Set<String> users;
+
+        Run(String user, String text, boolean lowSignal) {
+            this.user = user;
+            this.text = text;
+            this.lowSignal = lowSignal;
+        }
+
+        int chatters() {
+            return users != null ? users.size() : 1;
+        }
+
+        String render() {
+            String shown = text.length() > MAX_TEXT_CHARS ? text.substring(0, MAX_TEXT_CHARS - 1) + "…" : text;
+            return count > 1 ? shown + " ×" + count : shown;
+        }
+    }
+
+    private ChatContext() {
+    }
+
+    /**
+     * Builds the context from {@code messages} ("username: text", oldest first) in about {@code maxChars} characters.
+     */
+    public static String build(List<String> messages, int maxChars) {
+        int n = messages.size();
+        Map<String, Run> runs = new HashMap<>();
+        Run[] lastOf = new Run[n];
+        Set<String> chatters = new HashSet<>();
+        StringBuilder key = new StringBuilder();
+        int empty = 0;
+        for (int i = 0; i < n; i++) {
+            String message = messages.get(i);
+            int colon = message.indexOf(':');
+            String user = colon > 0 ? message.substring(0, colon).trim() : "";
+            String text = colon > 0 ? message.substring(colon + 1).trim() : message.trim();
+            chatters.add(user);
+            int words = normalize(text, key);
+            if (key.isEmpty()) {
+                empty++;
+                continue;
+            }
+            String normalized = key.toString();
+            Run run = runs.get(normalized);
+            if (run == null) {
+                boolean lowSignal = normalized.length() < 3 || HypeDetector.countEmotes(text) >= words;
+                run = new Run(user, text, lowSignal);
+                runs.put(normalized, run);
+            } else {
+                lastOf[run.last] = null;
+                if (run.users == null && !run.user.equals(user)) {
+                    run.users = new HashSet<>();
+                    run.users.add(run.user);
+                }
+                if (run.users != null) {
+                    run.users.add(user);
+                }
+            }
+            run.count++;
+            run.last = i;
+            lastOf[i] = run;
+        }
+
+        // Newest first: lines of one user share an entry, repeats by several users get one of their own
+        Map<Object, List<String>> entries = new LinkedHashMap<>();
+        int budget = Math.max(0, maxChars - HEADER_CHARS);
+        int used = 0;
+        int collapsed = 0;
+        int dropped = empty;
+        int omitted = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            Run run = lastOf[i];
+            if (run == null) {
+                continue;
+            }
+            if (run.count == 1 && run.lowSignal) {
+                dropped++;
+                continue;
+            }
+            if (omitted > 0) {
+                omitted += run.count;
+                continue;
+            }
+            boolean shared = run.chatters() > 1;
+            Object owner = shared ? run : run.user;
+            List<String> lines = entries.get(owner);
+            String line = run.render();
+            int cost = line.length() + (lines == null
+                    ? run.user.length() + (shared ? 16 : 2) + 1
+                    : SEPARATOR.length());
+            if (used + cost > budget) {
+                omitted += run.count;
+                continue;
+            }
+            used += cost;
+            if (lines == null) {
+                lines = new ArrayList<>(1);
+                entries.put(owner, lines);
+            }
+            lines.add(line);
+            collapsed += run.count - 1;
+        }
+
+        StringBuilder context = new StringBuilder();
+        context.append('[').append(n).append(" messages from ").append(chatters.size()).append(" chatters");
+        if (collapsed > 0 || dropped > 0 || omitted > 0) {
+            context.append(": ");
+            List<String> notes = new ArrayList<>();
+            if (collapsed > 0) {
+                notes.add(collapsed + " repeats collapsed");
+            }
+            if (dropped > 0) {
+                notes.add(dropped + " low-signal dropped");
+            }
+            if (omitted > 0) {
+                notes.add(omitted + " older left out");
+            }
+            context.append(String.join(", ", notes));
+        }
+        context.append(']');
+
+        List<Map.Entry<Object, List<String>>> newestFirst = new ArrayList<>(entries.entrySet());
+        for (int e = newestFirst.size() - 1; e >= 0; e--) {
+            Object owner = newestFirst.get(e).getKey();
+            List<String> lines = newestFirst.get(e).getValue();
+            context.append('\n');
+            if (owner instanceof Run run) {
+                context.append(run.user).append(" and ").append(run.chatters() - 1).append(" others: ");
+            } else {
+                context.append(owner).append(": ");
+            }
+            for (int l = lines.size() - 1; l >= 0; l--) {
+                context.append(lines.get(l));
+                if (l > 0) {
+                    context.append(SEPARATOR);
+                }
+            }
+        }
+        return context.toString();
+    }
+
+    // Writes the comparison form of text into key: lower case letters and digits (all digits alike), repeated
+    // letters collapsed, words separated by one space and a word repeating the one before it left out.
+    // Returns the number of words kept
+    static int normalize(String text, StringBuilder key) {
+        key.setLength(0);
+        int words = 0;
+        int previousStart = -1;
+        int wordStart = -1;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                c = Character.isDigit(c) ? '#' : Character.toLowerCase(c);
+                if (wordStart < 0) {
+                    if (!key.isEmpty()) {
+                        key.append(' ');
+                    }
+                    wordStart = key.length();
+                }
+                if (key.length() == wordStart || key.charAt(key.length() - 1) != c) {
+                    key.append(c);
+                }
+            } else if (wordStart >= 0) {
+                if (previousStart >= 0 && sameWord(key, previousStart, wordStart)) {
+                    key.setLength(wordStart - 1);
+                } else {
+                    previousStart = wordStart;
+                    words++;
+                }
+                wordStart = -1;
+            }
+        }
+        return words;
+    }
+
+    // Whether the word at previous (ending in the space before current) equals the word at current, the last one
+    private static boolean sameWord(StringBuilder key, int previous, int current) {
+        int length = key.length() - current;
+        if (current - 1 - previous != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(previous + i) != key.charAt(current + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package be.tomcools.twitchmcp.client;
+
+import java.util.Map;
+
+/**
+ * Something that happened in a channel, pushed to chat event subscribers.
+ *
+ * @param sequence  increasing per channel; 0 for {@link Type#LAG} notices, which are per subscriber
+ * @param username  sender of a message or target of a moderation action, null otherwise
+ * @param text      message content or moderation reason
+ * @param details   counters for {@link Type#STATS}, {@link Type#HIGHLIGHT} and {@link Type#LAG}, empty otherwise
+ */
+public record ChatEvent(long sequence, Type type, String username, String text, long timestamp,
+                        Map<String, Number> details) {
+
+    public enum Type {
+        MESSAGE, MODERATION, STATS, HIGHLIGHT, LAG;
+
+        public String id() {
+            return name().toLowerCase();
+        }
+    }
+
+    static ChatEvent lag(long dropped) {
+        return new ChatEvent(0, Type.LAG, null, null, System.currentTimeMillis(), Map.of("dropped", dropped));
+    }
+}
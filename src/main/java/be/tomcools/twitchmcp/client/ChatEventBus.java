@@ -0,0 +1,235 @@
+package be.tomcools.twitchmcp.client;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans the events of one channel out to its subscribers.
+ * Subscriptions hold no thread: an event is handed to the subscriber's async sink and the next one follows when
+ * that send completes. Each subscription buffers at most {@code bufferSize} events while its client is slow;
+ * beyond that the oldest are dropped and the subscriber gets a {@link ChatEvent.Type#LAG} notice with the count.
+ * Buffers are only allocated while events are queued, so an idle subscription is a filter and a few fields.
+ */
+public class ChatEventBus {
+
+    // Stats deltas are emitted with the first event after this interval, so a quiet channel emits none
+    private static final long STATS_INTERVAL_MILLIS = 10_000;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int bufferSize;
+
+    private final Object statsLock = new Object();
+    private long statsSince = System.currentTimeMillis();
+    private long messagesSinceStats;
+    private final Set<String> chattersSinceStats = new HashSet<>();
+
+    /**
+     * Receives the events of one subscription, typically an SSE connection.
+     */
+    public interface Subscriber {
+        /**
+         * Sends one event; the next one is not sent before the returned stage completes.
+         * A stage that completes exceptionally ends the subscription.
+         */
+        CompletionStage<?> send(ChatEvent event);
+
+        // Called once when the subscription ends, whichever side ended it
+        void closed();
+    }
+
+    public ChatEventBus(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public Subscription subscribe(ChatEventFilter filter, Subscriber subscriber) {
+        Subscription subscription = new Subscription(filter, subscriber);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    void publishMessage(String username, String text) {
+        // Checked first so ingest pays a single volatile read when nobody listens
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        ChatEvent stats = countMessage(username, now);
+        publish(new ChatEvent(sequence.incrementAndGet(), ChatEvent.Type.MESSAGE, username, text, now, Map.of()));
+        if (stats != null) {
+            publish(stats);
+        }
+    }
+
+    void publishModeration(String username, String action) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        publish(new ChatEvent(sequence.incrementAndGet(), ChatEvent.Type.MODERATION, username, action,
+                System.currentTimeMillis(), Map.of()));
+    }
+
+    void publishHighlight(HypeDetector.Highlight highlight) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        publish(new ChatEvent(sequence.incrementAndGet(), ChatEvent.Type.HIGHLIGHT, null, null, highlight.timestamp(), Map.of(
+                "messagesPerSecond", highlight.messages(),
+                "baselinePerSecond", highlight.baselineMessages(),
+                "zScore", highlight.zScore(),
+                "chatters", highlight.chatters(),
+                "emotesPerMessage", highlight.emotesPerMessage())));
+    }
+
+    /**
+     * Ends every subscription, e.g. when the channel's connection is closed.
+     */
+    void closeAll() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    private void publish(ChatEvent event) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.filter.matches(event)) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    // Counts the message and returns a stats delta when the interval has passed
+    private ChatEvent countMessage(String username, long now) {
+        synchronized (statsLock) {
+            messagesSinceStats++;
+            chattersSinceStats.add(username);
+            long elapsed = now - statsSince;
+            if (elapsed < STATS_INTERVAL_MILLIS) {
+                return null;
+            }
+            ChatEvent stats = new ChatEvent(sequence.incrementAndGet(), ChatEvent.Type.STATS, null, null, now, Map.of(
+                    "messages", messagesSinceStats,
+                    "chatters", chattersSinceStats.size(),
+                    "intervalSeconds", elapsed / 1000,
+                    "messagesPerMinute", messagesSinceStats * 60_000.0 / elapsed));
+            statsSince = now;
+            messagesSinceStats = 0;
+            chattersSinceStats.clear();
+            return stats;
+        }
+    }
+
+    /**
+     * One subscriber with its filter and send buffer.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final ChatEventFilter filter;
+        private final Subscriber subscriber;
+
+        // Guarded by this
+        private ArrayDeque<ChatEvent> buffer;
+        private long dropped;
+        private boolean sending;
+        private boolean closed;
+
+        private Subscription(ChatEventFilter filter, Subscriber subscriber) {
+            this.filter = filter;
+            this.subscriber = subscriber;
+        }
+
+        private void offer(ChatEvent event) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (buffer == null) {
+                    buffer = new ArrayDeque<>(Math.min(bufferSize, 16));
+                }
+                if (buffer.size() >= bufferSize) {
+                    buffer.pollFirst();
+                    dropped++;
+                }
+                buffer.addLast(event);
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            pump();
+        }
+
+        // Sends queued events until the buffer is empty or a send has to wait; a pending send resumes the pump
+        private void pump() {
+            while (true) {
+                ChatEvent next;
+                synchronized (this) {
+                    if (closed) {
+                        sending = false;
+                        return;
+                    }
+                    if (dropped > 0) {
+                        next = ChatEvent.lag(dropped);
+                        dropped = 0;
+                    } else {
+                        next = buffer.pollFirst();
+                        if (next == null) {
+                            sending = false;
+                            buffer = null;
+                            return;
+                        }
+                    }
+                }
+
+                CompletableFuture<?> sent;
+                try {
+                    sent = subscriber.send(next).toCompletableFuture();
+                } catch (RuntimeException e) {
+                    close();
+                    return;
+                }
+                if (!sent.isDone()) {
+                    sent.whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            close();
+                        } else {
+                            pump();
+                        }
+                    });
+                    return;
+                }
+                if (sent.isCompletedExceptionally()) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                buffer = null;
+            }
+            subscriptions.remove(this);
+            subscriber.closed();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package be.tomcools.twitchmcp.client;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Server-side filter of one subscription. Empty sets match everything; user and keyword filters only apply to
+ * events that have a user or text, so stats and highlights still reach a subscriber
+ * that filters on users.
+ */
+public record ChatEventFilter(Set<String> users, List<String> keywords, Set<ChatEvent.Type> types) {
+
+    public static final ChatEventFilter ALL = new ChatEventFilter(Set.of(), List.of(), Set.of());
+
+    /**
+     * Parses comma-separated query parameters; any of them may be null.
+     *
+     * @throws IllegalArgumentException for an unknown event type
+     */
+    public static ChatEventFilter parse(String users, String keywords, String types) {
+        Set<ChatEvent.Type> parsedTypes = EnumSet.noneOf(ChatEvent.Type.class);
+        for (String type : split(types)) {
+            try {
+                parsedTypes.add(ChatEvent.Type.valueOf(type.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown event type: " + type + " (expected message, moderation, stats or highlight)");
+            }
+        }
+        return new ChatEventFilter(Set.copyOf(split(users)), split(keywords), Set.copyOf(parsedTypes));
+    }
+
+    boolean matches(ChatEvent event) {
+        // Lag notices are about the subscription itself and always delivered
+        if (event.type() == ChatEvent.Type.LAG) {
+            return true;
+        }
+        if (!types.isEmpty() && !types.contains(event.type())) {
+            return false;
+        }
+        if (!users.isEmpty() && event.username() != null && !users.contains(event.username().toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        if (!keywords.isEmpty() && event.text() != null) {
+            String text = event.text().toLowerCase(Locale.ROOT);
+            return keywords.stream().anyMatch(text::contains);
+        }
+        return true;
+    }
+
+    private static List<String> split(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(part -> part.trim().toLowerCase(Locale.ROOT))
+                .filter(part -> !part.isEmpty())
+                .collect(Collectors.toUnmodifiableList());
+    }
+}
@@ -0,0 +1,29 @@
+package be.tomcools.twitchmcp.client;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Liveness;
+
+/**
+ * Reports chat ingest counters on /q/health, e.g. for the ingest replay harness in scripts/.
+ * Quiet chat is not a failure, so the check itself is always up.
+ */
+@Liveness
+@ApplicationScoped
+public class ChatHealthCheck implements HealthCheck {
+
+    @Inject
+    CamelRoute camelRoute;
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("twitch-chat")
+                .up()
+                .withData("messagesReceived", camelRoute.getMessagesReceived())
+                .withData("lastMessageAt", camelRoute.getLastMessageAt())
+                .withData("historySize", camelRoute.getHistorySize())
+                .build();
+    }
+}
@@ -0,0 +1,426 @@
+package be.tomcools.twitchmcp.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Chat history retained by time window and byte budget, kept off the heap. Every message gets a sequence number one
+ * higher than the previous, which is never reused, so readers can resume from a cursor and a cursor that fell out
+ * of the history is detected from the sequence numbers alone.
+ * <p>
+ * Messages are appended UTF-8 encoded to 64 KB blocks of direct memory (the hot tier). Once the hot tier is over
+ * its budget, its oldest block is deflated into a direct buffer of its own (the warm tier) off the ingest thread; a
+ * warm block is inflated again when a reader reaches it, and the last one inflated is cached for paging through it. The oldest blocks are
+ * dropped once all their messages are older than the retention window or the history is over its byte budget, so
+ * retention is exact to a block. The heap only holds the block list and the record offsets of hot blocks.
+ */
+public final class ChatHistory {
+
+    static final int BLOCK_BYTES = 64 * 1024;
+    // Records are prefixed with their length as an unsigned short
+    private static final int LENGTH_BYTES = 2;
+    // Emptied hot blocks kept for reuse, so steady ingest does not keep allocating direct memory
+    private static final int SPARE_BLOCKS = 2;
+
+    // Deflating a block takes a fraction of a millisecond, too long to hold up ingest; shared by every history
+    private static final Executor COMPRESSORS =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-history-", 0).factory());
+
+    private final long retentionMillis;
+    private final long budgetBytes;
+    private final long hotBudgetBytes;
+
+    /**
+     * One retained message with its sequence number.
+     */
+    public record Entry(long sequence, String message) {
+    }
+
+    /**
+     * Messages after a cursor. {@code nextCursor} is the value to pass next time; {@code missed} counts messages
+     * after the cursor that were no longer retained.
+     */
+    public record Page(List<Entry> messages, long nextCursor, long missed) {
+
+        public String format() {
+            StringBuilder text = new StringBuilder();
+            if (missed > 0) {
+                text.append("(").append(missed).append(" older messages were no longer retained)\n");
+            }
+            if (messages.isEmpty()) {
+                text.append("No new chat messages.\n");
+            }
+            for (Entry entry : messages) {
+                text.append('[').append(entry.sequence()).append("] ").append(entry.message()).append('\n');
+            }
+            return text.append("Next cursor: ").append(nextCursor).toString();
+        }
+    }
+
+    /**
+     * Consecutive messages; hot while {@code hot} is set, warm once its records were deflated into {@code warm}.
+     */
+    private static final class Block {
+        final long firstSequence;
+        int count;
+        long newestAt;
+        ByteBuffer hot;
+        int[] offsets = new int[256];
+        ByteBuffer warm;
+        int rawLength;
+
+        Block(long firstSequence, ByteBuffer hot) {
+            this.firstSequence = firstSequence;
+            this.hot = hot;
+        }
+    }
+
+    // Guarded by this; oldest block first, the last one is the hot block being appended to
+    private final List<Block> blocks = new ArrayList<>();
+    private final ArrayDeque<ByteBuffer> spare = new ArrayDeque<>();
+    // Sequence of the newest message, 0 while nothing was ever added
+    private long lastSequence;
+    private int size;
+    private int hotBlocks;
+    private long warmBytes;
+    // Whether a compression task runs, and the block it is deflating
+    private boolean compressing;
+    private Block compressed;
+    private final Inflater inflater = new Inflater();
+    // Only used by the compression task, one at a time
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private ByteBuffer deflated;
+    // The warm block inflated last and its records
+    private Block inflatedBlock;
+    private final byte[] inflated = new byte[BLOCK_BYTES];
+    private final byte[] scratch = new byte[BLOCK_BYTES];
+
+    /**
+     * @param retention   how long messages are kept at least, budget permitting
+     * @param budgetBytes direct memory of both tiers together, at least two blocks
+     * @param hotBytes    direct memory of the uncompressed tier, at least one block
+     */
+    ChatHistory(Duration retention, long budgetBytes, long hotBytes) {
+        this.retentionMillis = retention.toMillis();
+        this.budgetBytes = Math.max(2L * BLOCK_BYTES, budgetBytes);
+        this.hotBudgetBytes = Math.max(BLOCK_BYTES, Math.min(hotBytes, this.budgetBytes));
+    }
+
+    synchronized long add(String message) {
+        return add(System.currentTimeMillis(), message);
+    }
+
+    /**
+     * Appends a message received at {@code timestamp}, moving and dropping old blocks as needed, and returns its
+     * sequence number.
+     */
+    synchronized long add(long timestamp, String message) {
+        long sequence = lastSequence + 1;
+        Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        // A block is never kept alive by messages beyond the retention window
+        if (block == null || block.hot == null || block.newestAt < timestamp - retentionMillis || !append(block, message)) {
+            block = newBlock(sequence);
+            append(block, message);
+        }
+        block.newestAt = timestamp;
+        lastSequence = sequence;
+        size++;
+        evict(timestamp);
+        return sequence;
+    }
+
+    /**
+     * Messages with a sequence number above {@code cursor}, oldest first, at most {@code limit} of them.
+     * A cursor of 0 starts at the oldest retained message.
+     */
+    public synchronized Page since(long cursor, int limit) {
+        long oldest = lastSequence - size + 1;
+        long from = Math.max(Math.max(cursor, 0) + 1, oldest);
+        long to = Math.min(lastSequence, from + Math.max(limit, 0) - 1);
+        long missed = cursor > 0 ? Math.max(0, oldest - cursor - 1) : 0;
+        List<Entry> entries = new ArrayList<>((int) Math.max(0, to - from + 1));
+        read(from, to, (sequence, message) -> entries.add(new Entry(sequence, message)));
+        // A cursor beyond the newest message (e.g. from before a restart) resumes from the newest one
+        long next = entries.isEmpty() ? Math.min(Math.max(cursor, 0), lastSequence) : to;
+        return new Page(entries, next, missed);
+    }
+
+    /**
+     * The newest {@code n} messages, oldest first.
+     */
+    public synchronized List<String> last(int n) {
+        int count = Math.min(Math.max(n, 0), size);
+        List<String> messages = new ArrayList<>(count);
+        read(lastSequence - count + 1, lastSequence, (sequence, message) -> messages.add(message));
+        return messages;
+    }
+
+    public synchronized List<String> all() {
+        return last(size);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    // Direct memory held by both tiers
+    public synchronized long bytes() {
+        return (long) hotBlocks * BLOCK_BYTES + warmBytes;
+    }
+
+    public synchronized long hotBytes() {
+        return (long) hotBlocks * BLOCK_BYTES;
+    }
+
+    public synchronized long warmBytes() {
+        return warmBytes;
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Fills an empty history with messages handed over from another server, numbered from {@code firstSequence} as
+     * they were there, so cursors of that server's clients stay valid. Returns false, changing nothing, when
+     * messages were added already.
+     */
+    synchronized boolean restore(long firstSequence, List<String> messages) {
+        if (lastSequence > 0 || firstSequence < 1) {
+            return false;
+        }
+        lastSequence = firstSequence - 1;
+        for (String message : messages) {
+            add(message);
+        }
+        return true;
+    }
+
+    /**
+     * Drops all messages. Sequence numbers continue where they were, so existing cursors stay valid.
+     */
+    synchronized void clear() {
+        while (!blocks.isEmpty()) {
+            release(blocks.remove(0));
+        }
+        size = 0;
+    }
+
+    private interface Reader {
+        void accept(long sequence, String message);
+    }
+
+    private void read(long from, long to, Reader reader) {
+        if (from > to || blocks.isEmpty()) {
+            return;
+        }
+        int index = blockOf(from);
+        long sequence = from;
+        while (sequence <= to && index < blocks.size()) {
+            Block block = blocks.get(index++);
+            long end = Math.min(to, block.firstSequence + block.count - 1);
+            if (block.hot != null) {
+                for (; sequence <= end; sequence++) {
+                    int offset = block.offsets[(int) (sequence - block.firstSequence)];
+                    int length = block.hot.getShort(offset) & 0xFFFF;
+                    block.hot.get(offset + LENGTH_BYTES, scratch, 0, length);
+                    reader.accept(sequence, new String(scratch, 0, length, StandardCharsets.UTF_8));
+                }
+            } else {
+                inflate(block);
+                int offset = 0;
+                for (long skip = block.firstSequence; skip < sequence; skip++) {
+                    offset += LENGTH_BYTES + (((inflated[offset] & 0xFF) << 8) | (inflated[offset + 1] & 0xFF));
+                }
+                for (; sequence <= end; sequence++) {
+                    int length = ((inflated[offset] & 0xFF) << 8) | (inflated[offset + 1] & 0xFF);
+                    reader.accept(sequence, new String(inflated, offset + LENGTH_BYTES, length, StandardCharsets.UTF_8));
+                    offset += LENGTH_BYTES + length;
+                }
+            }
+        }
+    }
+
+    // Index of the block holding a retained sequence number
+    private int blockOf(long sequence) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blocks.get(middle).firstSequence <= sequence) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Writes a record at the end of a hot block; false, leaving the block as it was, when it does not fit. A record
+    // longer than a whole block, which Twitch's 500 character limit rules out, is kept truncated in a block of its own
+    private boolean append(Block block, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer hot = block.hot;
+        int start = hot.position();
+        int length = Math.min(bytes.length, BLOCK_BYTES - LENGTH_BYTES);
+        if (hot.remaining() < LENGTH_BYTES + length) {
+            return false;
+        }
+        if (block.count == block.offsets.length) {
+            block.offsets = Arrays.copyOf(block.offsets, block.count * 2);
+        }
+        block.offsets[block.count++] = start;
+        hot.putShort((short) length).put(bytes, 0, length);
+        return true;
+    }
+
+    private Block newBlock(long firstSequence) {
+        ByteBuffer buffer = spare.pollFirst();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BLOCK_BYTES);
+        }
+        buffer.clear();
+        Block block = new Block(firstSequence, buffer);
+        blocks.add(block);
+        hotBlocks++;
+        if (!compressing && sealedOverBudget() != null) {
+            compressing = true;
+            COMPRESSORS.execute(this::compress);
+        }
+        return block;
+    }
+
+    // The oldest hot block other than the one being filled, while the hot tier is over its budget
+    private Block sealedOverBudget() {
+        if ((long) hotBlocks * BLOCK_BYTES <= hotBudgetBytes) {
+            return null;
+        }
+        for (int i = 0; i < blocks.size() - 1; i++) {
+            if (blocks.get(i).hot != null) {
+                return blocks.get(i);
+            }
+        }
+        return null;
+    }
+
+    // Moves sealed hot blocks to the warm tier until the hot tier fits its budget. A sealed block is no longer
+    // written, so it is deflated without the lock; readers use its hot records until the warm copy replaces them
+    private void compress() {
+        while (true) {
+            Block block;
+            ByteBuffer records;
+            synchronized (this) {
+                block = sealedOverBudget();
+                if (block == null) {
+                    compressing = false;
+                    return;
+                }
+                compressed = block;
+                records = block.hot.duplicate().flip();
+            }
+            int rawLength = records.remaining();
+            ByteBuffer warm = deflate(records);
+            synchronized (this) {
+                compressed = null;
+                // Dropped while it was being deflated
+                if (block.hot == null) {
+                    continue;
+                }
+                ByteBuffer hot = block.hot;
+                block.hot = null;
+                block.offsets = null;
+                block.warm = warm;
+                block.rawLength = rawLength;
+                hotBlocks--;
+                warmBytes += warm.capacity();
+                recycle(hot);
+            }
+        }
+    }
+
+    private ByteBuffer deflate(ByteBuffer records) {
+        if (deflated == null) {
+            // Room for a block that does not compress
+            deflated = ByteBuffer.allocateDirect(BLOCK_BYTES + BLOCK_BYTES / 16 + 64);
+        }
+        deflater.reset();
+        deflater.setInput(records);
+        deflater.finish();
+        deflated.clear();
+        while (!deflater.finished()) {
+            deflater.deflate(deflated);
+        }
+        ByteBuffer warm = ByteBuffer.allocateDirect(deflated.flip().remaining());
+        return warm.put(deflated).flip();
+    }
+
+    private void inflate(Block block) {
+        if (inflatedBlock == block) {
+            return;
+        }
+        inflater.reset();
+        inflater.setInput(block.warm.duplicate());
+        try {
+            int filled = 0;
+            while (filled < block.rawLength) {
+                int n = inflater.inflate(inflated, filled, block.rawLength - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated chat history block");
+                }
+                filled += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt chat history block: " + e.getMessage(), e);
+        }
+        inflatedBlock = block;
+    }
+
+    // Drops the oldest blocks that are past the retention window or over the budget; never the block being filled
+    private void evict(long now) {
+        while (blocks.size() > 1) {
+            Block oldest = blocks.get(0);
+            if (oldest.newestAt >= now - retentionMillis && bytes() <= budgetBytes) {
+                return;
+            }
+            blocks.remove(0);
+            size -= oldest.count;
+            release(oldest);
+        }
+    }
+
+    private void release(Block block) {
+        if (block.hot != null) {
+            hotBlocks--;
+            // The compression task may still be reading it
+            if (block != compressed) {
+                recycle(block.hot);
+            }
+            block.hot = null;
+        } else {
+            warmBytes -= block.warm.capacity();
+        }
+        if (inflatedBlock == block) {
+            inflatedBlock = null;
+        }
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        if (spare.size() < SPARE_BLOCKS) {
+            spare.addLast(buffer);
+        }
+    }
+}
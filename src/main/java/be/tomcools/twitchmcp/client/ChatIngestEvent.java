@@ -0,0 +1,39 @@
+package be.tomcools.twitchmcp.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for storing one chat message. Only ingests slower than the threshold are recorded.
+ */
+@Name("be.tomcools.twitchmcp.ChatIngest")
+@Label("Chat Message Ingest")
+@Category({"Twitch MCP", "Chat"})
+@Description("Parsing and storing one PRIVMSG received from Twitch")
+@Threshold("1 ms")
+@StackTrace(false)
+class ChatIngestEvent extends Event {
+
+    @Label("Username")
+    String username;
+
+    @Label("Message Length")
+    int messageLength;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseTime;
+
+    @Label("Buffer Insert Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long insertTime;
+
+    @Label("History Size")
+    int historySize;
+}
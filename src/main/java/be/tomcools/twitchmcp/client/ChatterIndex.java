@@ -0,0 +1,232 @@
+package be.tomcools.twitchmcp.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Recently active chatters, indexed by the trigrams of their normalized login (lower case, underscores dropped) so a
+ * misspelt or differently cased name finds them without scanning every chatter. Candidates sharing trigrams with the
+ * query are ranked by edit distance, weighted towards chatters active in the last minutes.
+ * <p>
+ * Updated on every ingested message: a known chatter costs a map lookup, a new one its trigram insertions. The least
+ * recently active chatter is dropped once {@code capacity} are tracked.
+ */
+public class ChatterIndex {
+
+    // Chatters compared by edit distance per search, those sharing the most trigrams with the query
+    private static final int MAX_COMPARED = 64;
+    // Twitch logins are at most 25 characters; longer names are compared by their start
+    private static final int MAX_LOGIN = 25;
+    // Age at which recency halves a candidate's weight
+    private static final long RECENCY_HALF_LIFE_MILLIS = 10 * 60_000;
+
+    /**
+     * A chatter matching a search: similarity of the normalized names (1 is equal), and the ranking score, which
+     * also weighs how recently they chatted.
+     */
+    public record Candidate(String login, double similarity, double score, long lastSeen, int messages) {
+    }
+
+    private static final class Chatter {
+        final String login;
+        final String normalized;
+        final int[] trigrams;
+        long lastSeen;
+        int messages;
+        // Per search scratch, valid while stamp matches the search
+        int stamp;
+        int hits;
+
+        Chatter(String login, String normalized, int[] trigrams) {
+            this.login = login;
+            this.normalized = normalized;
+            this.trigrams = trigrams;
+        }
+    }
+
+    private final int capacity;
+    // Posting list per trigram; guarded by this, like everything below
+    private final Map<Integer, List<Chatter>> postings = new HashMap<>();
+    private final Map<String, Chatter> chatters;
+    private int searches;
+
+    public ChatterIndex(int capacity) {
+        this.capacity = capacity;
+        this.chatters = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Chatter> eldest) {
+                if (size() <= ChatterIndex.this.capacity) {
+                    return false;
+                }
+                unindex(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public synchronized void observe(String login, long timestamp) {
+        String key = login.toLowerCase(Locale.ROOT);
+        Chatter chatter = chatters.get(key);
+        if (chatter == null) {
+            String normalized = normalize(key);
+            chatter = new Chatter(key, normalized, trigrams(normalized));
+            for (int trigram : chatter.trigrams) {
+                postings.computeIfAbsent(trigram, t -> new ArrayList<>(2)).add(chatter);
+            }
+            chatters.put(key, chatter);
+        }
+        chatter.lastSeen = Math.max(chatter.lastSeen, timestamp);
+        chatter.messages++;
+    }
+
+    public synchronized int size() {
+        return chatters.size();
+    }
+
+    public synchronized void clear() {
+        chatters.clear();
+        postings.clear();
+    }
+
+    /**
+     * Chatters whose name resembles {@code name}, best first, at most {@code limit} of them.
+     */
+    public synchronized List<Candidate> search(String name, int limit, long now) {
+        String query = normalize(name.toLowerCase(Locale.ROOT));
+        if (query.isEmpty()) {
+            return List.of();
+        }
+        int stamp = ++searches;
+        int[] queryTrigrams = trigrams(query);
+        List<Chatter> touched = new ArrayList<>();
+        for (int trigram : queryTrigrams) {
+            List<Chatter> posting = postings.get(trigram);
+            if (posting == null) {
+                continue;
+            }
+            for (Chatter chatter : posting) {
+                if (chatter.stamp != stamp) {
+                    chatter.stamp = stamp;
+                    chatter.hits = 0;
+                    touched.add(chatter);
+                }
+                chatter.hits++;
+            }
+        }
+
+        // Only the chatters sharing the most trigrams are compared: the lowest hit count that keeps at most
+        // MAX_COMPARED of them (or all with the highest count), found by counting rather than sorting
+        int minHits = 1;
+        if (touched.size() > MAX_COMPARED) {
+            int[] withHits = new int[queryTrigrams.length + 2];
+            for (Chatter chatter : touched) {
+                withHits[chatter.hits]++;
+            }
+            int kept = 0;
+            minHits = withHits.length - 1;
+            while (minHits > 1 && (kept == 0 || kept + withHits[minHits - 1] <= MAX_COMPARED)) {
+                kept += withHits[--minHits];
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        int[][] table = new int[query.length() + 1][MAX_LOGIN + 1];
+        for (Chatter chatter : touched) {
+            if (chatter.hits < minHits) {
+                continue;
+            }
+            double similarity = similarity(query, chatter.normalized, table);
+            long age = Math.max(0, now - chatter.lastSeen);
+            double recency = Math.pow(0.5, (double) age / RECENCY_HALF_LIFE_MILLIS);
+            candidates.add(new Candidate(chatter.login, similarity, similarity * (0.8 + 0.2 * recency),
+                    chatter.lastSeen, chatter.messages));
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::score).reversed());
+        return candidates.size() > limit ? List.copyOf(candidates.subList(0, limit)) : candidates;
+    }
+
+    private void unindex(Chatter chatter) {
+        for (int trigram : chatter.trigrams) {
+            List<Chatter> posting = postings.get(trigram);
+            if (posting == null) {
+                continue;
+            }
+            // Order within a posting list does not matter, so the last entry fills the gap
+            int index = posting.indexOf(chatter);
+            if (index >= 0) {
+                posting.set(index, posting.get(posting.size() - 1));
+                posting.remove(posting.size() - 1);
+            }
+            if (posting.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    // Case and underscores are how the same name gets typed differently: xXgamerXx, xx_gamer_xx
+    static String normalize(String login) {
+        StringBuilder normalized = new StringBuilder(login.length());
+        for (int i = 0; i < login.length() && normalized.length() < MAX_LOGIN; i++) {
+            char c = login.charAt(i);
+            if (c != '_' && c != '@') {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    // Distinct trigrams of the name padded with a start and end marker, so short names and name edges count too
+    static int[] trigrams(String normalized) {
+        String padded = "^" + normalized + "$";
+        int[] trigrams = new int[Math.max(0, padded.length() - 2)];
+        int count = 0;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            int trigram = (padded.charAt(i) << 16) ^ (padded.charAt(i + 1) << 8) ^ padded.charAt(i + 2);
+            boolean seen = false;
+            for (int j = 0; j < count && !seen; j++) {
+                seen = trigrams[j] == trigram;
+            }
+            if (!seen) {
+                trigrams[count++] = trigram;
+            }
+        }
+        return count == trigrams.length ? trigrams : Arrays.copyOf(trigrams, count);
+    }
+
+    // 1 minus the edit distance (with transpositions) relative to the longer name; a query contained in the name,
+    // such as "gamer" for "xxgamerxx", scores at least halfway up by how much of the name it covers
+    static double similarity(String query, String name, int[][] table) {
+        int longest = Math.max(query.length(), name.length());
+        double similarity = longest == 0 ? 1 : 1 - (double) distance(query, name, table) / longest;
+        if (query.length() >= 3 && name.contains(query)) {
+            similarity = Math.max(similarity, 0.5 + 0.5 * query.length() / name.length());
+        }
+        return similarity;
+    }
+
+    // Optimal string alignment distance, in a table of at least (a + 1) x (b + 1) reused across a search
+    static int distance(String a, String b, int[][] d) {
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
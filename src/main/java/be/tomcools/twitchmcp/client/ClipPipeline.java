@@ -0,0 +1,251 @@
+package be.tomcools.twitchmcp.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates clips off the calling thread and follows them until Twitch has processed them. A request within
+ * {@code twitch.clips.merge_window} of the previous one joins that clip instead of creating a near-identical one,
+ * which is what happens when several agents react to the same moment. Recent clips are kept in memory for
+ * {@code listRecentClips}.
+ * <p>
+ * After the create call, Twitch processes a clip for up to 15 seconds; it is looked up with increasing delays
+ * and marked failed if it never shows up.
+ */
+@ApplicationScoped
+public class ClipPipeline {
+
+    private static final Logger LOG = Logger.getLogger(ClipPipeline.class);
+
+    private static final int MAX_RECENT = 25;
+    // Delays before each lookup of a created clip; Twitch documents 15 seconds as the processing limit
+    private static final long[] LOOKUP_DELAYS_MILLIS = {1000, 2000, 4000, 8000};
+    // Delays before retrying a create call that was rate limited or hit a server error
+    private static final long[] CREATE_RETRY_DELAYS_MILLIS = {1000, 3000};
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    // Helix calls block, so they run on virtual threads; shared by every pipeline, including tenant contexts
+    private static final Executor WORKERS = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("clip-", 0).factory());
+
+    public enum Status { REQUESTED, PROCESSING, READY, FAILED }
+
+    @ConfigProperty(name = "twitch.clips.merge_window", defaultValue = "PT15S")
+    Duration mergeWindow = Duration.ofSeconds(15);
+
+    @ConfigProperty(name = "twitch.broadcaster_id")
+    String broadcasterId;
+
+    @Inject
+    HelixApi helix;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    /**
+     * One clip; fields change as it moves through the pipeline and are read under the pipeline's lock.
+     */
+    static final class Clip {
+        final int number;
+        final Instant requestedAt;
+        final String reason;
+        int requests = 1;
+        Status status = Status.REQUESTED;
+        String id;
+        String editUrl;
+        String url;
+        String error;
+
+        Clip(int number, Instant requestedAt, String reason) {
+            this.number = number;
+            this.requestedAt = requestedAt;
+            this.reason = reason;
+        }
+    }
+
+    // Guarded by this, newest last
+    private final Deque<Clip> recent = new ArrayDeque<>();
+    private int nextNumber = 1;
+    private boolean stopped;
+
+    /**
+     * Queues a clip of the current moment, or joins the last one when it was requested within the merge window and
+     * has not failed. Returns right away with a description of what happened.
+     */
+    public String request(String reason) {
+        Instant now = Instant.now();
+        Clip clip;
+        synchronized (this) {
+            if (stopped) {
+                return "Clips are unavailable: the channel's connection has been closed.";
+            }
+            Clip last = recent.peekLast();
+            if (last != null && last.status != Status.FAILED
+                    && Duration.between(last.requestedAt, now).compareTo(mergeWindow) < 0) {
+                last.requests++;
+                return String.format("A clip of this moment was requested %ds ago (clip #%d, %s); not creating another.%s",
+                        Duration.between(last.requestedAt, now).toSeconds(), last.number, describe(last),
+                        last.url != null ? " URL: " + last.url : "");
+            }
+            clip = new Clip(nextNumber++, now, reason);
+            recent.addLast(clip);
+            if (recent.size() > MAX_RECENT) {
+                recent.removeFirst();
+            }
+        }
+        WORKERS.execute(() -> ifRunning(() -> create(clip, 0)));
+        return String.format("Clip #%d requested. Twitch takes a few seconds to process it; "
+                + "listRecentClips shows its URL once it is ready.", clip.number);
+    }
+
+    /**
+     * The most recent clips, newest first.
+     */
+    public synchronized List<String> recentClips(int limit, ZoneId zone) {
+        List<String> lines = new ArrayList<>();
+        Iterator<Clip> newestFirst = recent.descendingIterator();
+        while (newestFirst.hasNext() && lines.size() < limit) {
+            Clip clip = newestFirst.next();
+            StringBuilder line = new StringBuilder("#").append(clip.number).append(' ')
+                    .append(CLOCK.format(clip.requestedAt.atZone(zone))).append(" [").append(clip.status).append("] ");
+            switch (clip.status) {
+                case READY -> line.append(clip.url);
+                case FAILED -> line.append(clip.error);
+                case PROCESSING -> line.append("edit: ").append(clip.editUrl);
+                case REQUESTED -> line.append("creating");
+            }
+            if (clip.reason != null) {
+                line.append(" (").append(clip.reason).append(')');
+            }
+            if (clip.requests > 1) {
+                line.append(" - requested ").append(clip.requests).append(" times");
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private void create(Clip clip, int attempt) {
+        try {
+            HelixApi.HelixResponse response = helix.post("/clips", "broadcaster_id=" + broadcasterId, null);
+            int status = response.status();
+            if ((status == 429 || status >= 500) && attempt < CREATE_RETRY_DELAYS_MILLIS.length) {
+                later(CREATE_RETRY_DELAYS_MILLIS[attempt], () -> create(clip, attempt + 1));
+                return;
+            }
+            if (!response.isSuccess()) {
+                fail(clip, "HTTP " + status + message(response.body()));
+                return;
+            }
+            JsonNode created = objectMapper.readTree(response.body()).path("data").path(0);
+            String id = created.path("id").asText(null);
+            if (id == null) {
+                fail(clip, "Twitch returned no clip id");
+                return;
+            }
+            synchronized (this) {
+                clip.id = id;
+                clip.editUrl = created.path("edit_url").asText(null);
+                clip.status = Status.PROCESSING;
+            }
+            later(LOOKUP_DELAYS_MILLIS[0], () -> lookup(clip, 0));
+        } catch (Exception e) {
+            fail(clip, e.getMessage());
+        }
+    }
+
+    private void lookup(Clip clip, int attempt) {
+        try {
+            HelixApi.HelixResponse response = helix.get("/clips", "id=" + clip.id);
+            if (response.isSuccess()) {
+                JsonNode found = objectMapper.readTree(response.body()).path("data").path(0);
+                if (found.isObject()) {
+                    synchronized (this) {
+                        clip.url = found.path("url").asText(null);
+                        clip.status = Status.READY;
+                    }
+                    LOG.debugf("Clip #%d is ready: %s", clip.number, clip.url);
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            LOG.debugf("Clip #%d lookup failed: %s", clip.number, e.getMessage());
+        }
+        if (attempt + 1 < LOOKUP_DELAYS_MILLIS.length) {
+            later(LOOKUP_DELAYS_MILLIS[attempt + 1], () -> lookup(clip, attempt + 1));
+        } else {
+            fail(clip, "Twitch did not finish processing the clip; the moment may not be clippable");
+        }
+    }
+
+    /**
+     * Drops the pending creates and lookups, which would otherwise still call Helix for up to 15 seconds, and marks
+     * the clips they were for as failed. Tenant contexts stop their pipeline before closing its Helix client.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        for (Clip clip : recent) {
+            if (clip.status == Status.REQUESTED || clip.status == Status.PROCESSING) {
+                clip.status = Status.FAILED;
+                clip.error = "stopped before Twitch finished processing it";
+            }
+        }
+    }
+
+    // Scheduled tasks cannot be taken back from the delayed executor, so each one checks on waking up
+    private void ifRunning(Runnable task) {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+        }
+        task.run();
+    }
+
+    private synchronized void fail(Clip clip, String error) {
+        clip.status = Status.FAILED;
+        clip.error = error;
+        LOG.warnf("Clip #%d failed: %s", clip.number, error);
+    }
+
+    private String message(String body) {
+        try {
+            String message = objectMapper.readTree(body).path("message").asText("");
+            return message.isEmpty() ? "" : ": " + message;
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    private static String describe(Clip clip) {
+        return switch (clip.status) {
+            case REQUESTED -> "being created";
+            case PROCESSING -> "processing";
+            case READY -> "ready";
+            case FAILED -> "failed";
+        };
+    }
+
+    private void later(long delayMillis, Runnable task) {
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, WORKERS).execute(() -> ifRunning(task));
+    }
+}
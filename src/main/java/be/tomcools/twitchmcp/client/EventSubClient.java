@@ -0,0 +1,390 @@
+package be.tomcools.twitchmcp.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumer of the channel's EventSub WebSocket: poll and prediction lifecycle, follows, raids and channel updates
+ * are pushed by Twitch and kept in {@link ChannelEvents}, so tools read them without a round trip.
+ * <p>
+ * The socket is opened on first use. After the welcome message the subscriptions are created through Helix for the
+ * new session; a {@code session_reconnect} moves to the given URL and keeps them, while a dropped connection or
+ * missed keepalives start a fresh session with new subscriptions after a backoff.
+ */
+@ApplicationScoped
+public class EventSubClient {
+
+    private static final Logger LOG = Logger.getLogger(EventSubClient.class);
+
+    private static final long MAX_BACKOFF_SECONDS = 60;
+    // Twitch may deliver a message twice; ids are remembered for this many messages
+    private static final int SEEN_MESSAGES = 256;
+
+    record Subscription(String type, String version, String condition) {
+    }
+
+    // Condition values are filled in with the broadcaster id; channel.follow also needs a moderator, the broadcaster
+    private static final List<Subscription> SUBSCRIPTIONS = List.of(
+            new Subscription("channel.poll.begin", "1", "broadcaster_user_id"),
+            new Subscription("channel.poll.progress", "1", "broadcaster_user_id"),
+            new Subscription("channel.poll.end", "1", "broadcaster_user_id"),
+            new Subscription("channel.prediction.begin", "1", "broadcaster_user_id"),
+            new Subscription("channel.prediction.progress", "1", "broadcaster_user_id"),
+            new Subscription("channel.prediction.lock", "1", "broadcaster_user_id"),
+            new Subscription("channel.prediction.end", "1", "broadcaster_user_id"),
+            new Subscription("channel.follow", "2", "broadcaster_user_id,moderator_user_id"),
+            new Subscription("channel.raid", "1", "to_broadcaster_user_id"),
+            new Subscription("channel.update", "2", "broadcaster_user_id"));
+
+    @ConfigProperty(name = "twitch.eventsub.url", defaultValue = "wss://eventsub.wss.twitch.tv/ws")
+    String url;
+
+    @ConfigProperty(name = "twitch.eventsub.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "twitch.eventsub.connect_on_startup", defaultValue = "false")
+    boolean connectOnStartup;
+
+    @ConfigProperty(name = "twitch.broadcaster_id")
+    String broadcasterId;
+
+    @Inject
+    HelixApi helix;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private final ChannelEvents events = new ChannelEvents();
+    // Subscription type to the reason it could not be created
+    private final Map<String, String> failedSubscriptions = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private HttpClient httpClient;
+    private Session session;
+    private boolean connecting;
+    private boolean closed;
+    private int failures;
+    private int subscribed;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (connectOnStartup) {
+            connect();
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        closed = true;
+        if (session != null) {
+            session.abort();
+            session = null;
+        }
+        if (httpClient != null) {
+            httpClient.shutdownNow();
+            httpClient = null;
+        }
+    }
+
+    public ChannelEvents events() {
+        return events;
+    }
+
+    /**
+     * Opens the socket unless it is open or opening; returns right away, notifications follow once subscribed.
+     */
+    public synchronized void connect() {
+        if (!enabled || closed || session != null || connecting) {
+            return;
+        }
+        open(url, false);
+    }
+
+    // Seeds the channel information from the helix/channels response; channel.update notifications keep it current
+    public void channelLoaded(String helixBody) {
+        try {
+            JsonNode channel = objectMapper.readTree(helixBody).path("data").path(0);
+            if (channel.isObject()) {
+                events.seedChannel(channel);
+            }
+        } catch (Exception e) {
+            LOG.debugf("Could not read the channel information: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Seeds the poll or prediction state from the Helix response that created it ({@code {"data": [...]}}), so its
+     * status is known before the first notification.
+     */
+    public void created(String helixBody, boolean poll) {
+        try {
+            JsonNode created = objectMapper.readTree(helixBody).path("data").path(0);
+            if (created.isObject()) {
+                if (poll) {
+                    events.seedPoll(created);
+                } else {
+                    events.seedPrediction(created);
+                }
+            }
+        } catch (Exception e) {
+            LOG.debugf("Could not read the created %s: %s", poll ? "poll" : "prediction", e.getMessage());
+        }
+    }
+
+    /**
+     * One line on the state of the consumer, for tool output when there is nothing to report yet.
+     */
+    public synchronized String describe() {
+        if (!enabled) {
+            return "Live channel events are disabled (twitch.eventsub.enabled=false).";
+        }
+        if (session == null) {
+            return failures > 0
+                    ? "Not connected to Twitch EventSub, retrying after " + failures + " failed attempts."
+                    : "Connecting to Twitch EventSub.";
+        }
+        String text = "Receiving live channel events (" + subscribed + " subscriptions).";
+        if (!failedSubscriptions.isEmpty()) {
+            text += " Not subscribed: " + String.join("; ", failedSubscriptions.values());
+        }
+        return text;
+    }
+
+    // Caller holds the lock
+    private void open(String target, boolean replacing) {
+        if (httpClient == null) {
+            httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        }
+        connecting = true;
+        Session next = new Session(replacing);
+        httpClient.newWebSocketBuilder()
+                .buildAsync(URI.create(target), next)
+                .whenComplete((socket, error) -> {
+                    if (error != null) {
+                        LOG.warnf("Could not connect to Twitch EventSub at %s: %s", target, error.getMessage());
+                        synchronized (this) {
+                            connecting = false;
+                        }
+                        retry();
+                    }
+                });
+    }
+
+    private void retry() {
+        long delay;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            delay = Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(failures, 6));
+            failures++;
+        }
+        CompletableFuture.delayedExecutor(delay, TimeUnit.SECONDS).execute(this::connect);
+    }
+
+    private void welcome(Session welcomed) {
+        Session previous;
+        synchronized (this) {
+            if (closed) {
+                welcomed.abort();
+                return;
+            }
+            previous = session;
+            session = welcomed;
+            connecting = false;
+            failures = 0;
+        }
+        welcomed.watch();
+        if (welcomed.replacing && previous != null) {
+            // Subscriptions moved to the new session; the old one may be closed now
+            previous.abort();
+            return;
+        }
+        // Helix calls block, so subscribe off the WebSocket thread; Twitch expects them within 10 seconds
+        Thread.ofVirtual().name("eventsub-subscribe").start(() -> subscribe(welcomed));
+    }
+
+    private void subscribe(Session target) {
+        int created = 0;
+        failedSubscriptions.clear();
+        for (Subscription subscription : SUBSCRIPTIONS) {
+            ObjectNode body = objectMapper.createObjectNode();
+            body.put("type", subscription.type()).put("version", subscription.version());
+            ObjectNode condition = body.putObject("condition");
+            for (String field : subscription.condition().split(",")) {
+                condition.put(field, broadcasterId);
+            }
+            body.putObject("transport").put("method", "websocket").put("session_id", target.id);
+            try {
+                HelixApi.HelixResponse response = helix.post("/eventsub/subscriptions", null, body.toString());
+                if (response.status() == 202 || response.status() == 409) {
+                    created++;
+                } else {
+                    String message = objectMapper.readTree(response.body().isEmpty() ? "{}" : response.body())
+                            .path("message").asText("HTTP " + response.status());
+                    failedSubscriptions.put(subscription.type(), subscription.type() + " (" + message + ")");
+                }
+            } catch (Exception e) {
+                failedSubscriptions.put(subscription.type(), subscription.type() + " (" + e.getMessage() + ")");
+            }
+        }
+        synchronized (this) {
+            subscribed = created;
+        }
+        if (!failedSubscriptions.isEmpty()) {
+            LOG.warnf("EventSub subscriptions failed: %s", String.join("; ", failedSubscriptions.values()));
+        }
+        LOG.infof("Subscribed to %d EventSub event types", created);
+    }
+
+    private void handle(Session source, String text) {
+        JsonNode message;
+        try {
+            message = objectMapper.readTree(text);
+        } catch (Exception e) {
+            LOG.debugf("Ignoring malformed EventSub message: %s", e.getMessage());
+            return;
+        }
+        JsonNode metadata = message.path("metadata");
+        if (!source.firstSeen(metadata.path("message_id").asText())) {
+            return;
+        }
+        JsonNode payload = message.path("payload");
+        switch (metadata.path("message_type").asText()) {
+            case "session_welcome" -> {
+                source.id = payload.path("session").path("id").asText();
+                source.keepaliveSeconds = payload.path("session").path("keepalive_timeout_seconds").asLong(10);
+                welcome(source);
+            }
+            case "notification" -> events.apply(metadata.path("subscription_type").asText(), payload.path("event"));
+            case "session_reconnect" -> {
+                synchronized (this) {
+                    if (!closed) {
+                        open(payload.path("session").path("reconnect_url").asText(url), true);
+                    }
+                }
+            }
+            case "revocation" -> {
+                String type = payload.path("subscription").path("type").asText();
+                failedSubscriptions.put(type, type + " (revoked: " + payload.path("subscription").path("status").asText() + ")");
+                LOG.warnf("EventSub subscription %s was revoked", type);
+            }
+            default -> {
+                // session_keepalive: only resets the watchdog
+            }
+        }
+    }
+
+    // A session that ended unexpectedly is replaced by a fresh one, with new subscriptions
+    private void lost(Session lost, String reason) {
+        synchronized (this) {
+            if (session != lost) {
+                return;
+            }
+            session = null;
+            subscribed = 0;
+        }
+        LOG.warnf("Twitch EventSub connection lost: %s", reason);
+        retry();
+    }
+
+    /**
+     * One WebSocket connection and the EventSub session on it.
+     */
+    private final class Session implements WebSocket.Listener {
+        final boolean replacing;
+        volatile WebSocket socket;
+        volatile String id;
+        volatile long keepaliveSeconds = 10;
+        volatile long lastMessageAt = System.currentTimeMillis();
+        private final StringBuilder partial = new StringBuilder();
+        private final Map<String, Boolean> seen = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > SEEN_MESSAGES;
+            }
+        };
+
+        Session(boolean replacing) {
+            this.replacing = replacing;
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            socket = webSocket;
+            webSocket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            lastMessageAt = System.currentTimeMillis();
+            partial.append(data);
+            if (last) {
+                String text = partial.toString();
+                partial.setLength(0);
+                handle(this, text);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            lost(this, "closed with " + statusCode + (reason.isEmpty() ? "" : " " + reason));
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            lost(this, String.valueOf(error.getMessage()));
+        }
+
+        boolean firstSeen(String messageId) {
+            return messageId.isEmpty() || seen.put(messageId, Boolean.TRUE) == null;
+        }
+
+        // Twitch sends a keepalive when there are no notifications; without either for too long the session is dead
+        void watch() {
+            long timeout = keepaliveSeconds * 1000 + 5000;
+            CompletableFuture.delayedExecutor(timeout, TimeUnit.MILLISECONDS).execute(() -> {
+                synchronized (EventSubClient.this) {
+                    if (session != this) {
+                        return;
+                    }
+                }
+                if (System.currentTimeMillis() - lastMessageAt > timeout) {
+                    abort();
+                    lost(this, "no keepalive for " + timeout / 1000 + " seconds");
+                } else {
+                    watch();
+                }
+            });
+        }
+
+        void abort() {
+            WebSocket current = socket;
+            if (current != null) {
+                current.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package be.tomcools.twitchmcp.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single entry point for Helix requests: one pooled HTTP client, the cached credential headers,
+ * per-endpoint latency/status metrics and a {@link HelixRequestEvent} for slow requests.
+ */
+@ApplicationScoped
+public class HelixApi {
+
+    @ConfigProperty(name = "twitch.helix.url", defaultValue = "https://api.twitch.tv/helix")
+    String helixUrl;
+
+    @ConfigProperty(name = "twitch.helix.max_connections", defaultValue = "50")
+    int maxConnections;
+
+    @Inject
+    TwitchCredentials credentials;
+
+    @Inject
+    MeterRegistry registry;
+
+    private volatile CloseableHttpClient httpClient;
+    // Set by close(); a closed API is not reopened, so late callbacks of a closed tenant fail instead of reconnecting
+    private volatile boolean closed;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public record HelixResponse(int status, String body) {
+        public boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    // Built on the first request, so a session that never calls Helix doesn't pay for the pool and TLS setup
+    private CloseableHttpClient client() throws IOException {
+        CloseableHttpClient client = httpClient;
+        if (client == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Helix client is closed");
+                }
+                if (httpClient == null) {
+                    httpClient = HttpClients.custom()
+                            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                                    .setMaxConnTotal(maxConnections)
+                                    .setMaxConnPerRoute(maxConnections)
+                                    .build())
+                            .build();
+                }
+                client = httpClient;
+            }
+        }
+        return client;
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        closed = true;
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+    }
+
+    public HelixResponse get(String endpoint, String query) throws IOException {
+        return send("GET", endpoint, query, null);
+    }
+
+    public HelixResponse post(String endpoint, String query, String json) throws IOException {
+        return send("POST", endpoint, query, json);
+    }
+
+    public HelixResponse patch(String endpoint, String query, String json) throws IOException {
+        return send("PATCH", endpoint, query, json);
+    }
+
+    /**
+     * @param endpoint path below the Helix base URL, e.g. "/moderation/bans"; also used as the metrics tag
+     * @param query    raw query string without '?', or null
+     */
+    HelixResponse send(String method, String endpoint, String query, String json) throws IOException {
+        TwitchCredentials.Snapshot creds = credentials.current();
+        String url = helixUrl + endpoint + (query != null ? "?" + query : "");
+        HttpUriRequestBase request = new HttpUriRequestBase(method, URI.create(url));
+        request.setHeader("Authorization", creds.authorization());
+        request.setHeader("Client-Id", creds.clientId());
+        if (json != null) {
+            request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        }
+
+        HelixRequestEvent event = new HelixRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int status = -1;
+        String responseBody = null;
+        try {
+            HelixResponse response = client().execute(request, httpResponse -> new HelixResponse(
+                    httpResponse.getCode(),
+                    httpResponse.getEntity() != null ? EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8) : ""));
+            status = response.status();
+            responseBody = response.body();
+            if (status == 401) {
+                credentials.onUnauthorized();
+            }
+            return response;
+        } finally {
+            timer(method, endpoint, status).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = method;
+                event.endpoint = endpoint;
+                event.status = status;
+                // Encoded only for the slow requests that get recorded; String.length() would count UTF-16 chars
+                event.requestBytes = json != null ? json.getBytes(StandardCharsets.UTF_8).length : 0;
+                event.responseBytes = responseBody != null ? responseBody.getBytes(StandardCharsets.UTF_8).length : 0;
+                event.commit();
+            }
+        }
+    }
+
+    private Timer timer(String method, String endpoint, int status) {
+        String statusTag = status < 0 ? "IO_ERROR" : String.valueOf(status);
+        return timers.computeIfAbsent(method + ' ' + endpoint + ' ' + statusTag, key -> Timer.builder("twitch.helix.requests")
+                .description("Helix request latency")
+                .tag("method", method)
+                .tag("endpoint", endpoint)
+                .tag("status", statusTag)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -0,0 +1,39 @@
+package be.tomcools.twitchmcp.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for one Helix request. Only requests slower than the threshold are recorded.
+ */
+@Name("be.tomcools.twitchmcp.HelixRequest")
+@Label("Helix Request")
+@Category({"Twitch MCP", "Helix"})
+@Description("HTTP request to the Twitch Helix API")
+@Threshold("200 ms")
+@StackTrace(false)
+class HelixRequestEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Status")
+    int status;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+}
@@ -0,0 +1,227 @@
+package be.tomcools.twitchmcp.client;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Spots chat explosions as they happen. Chat is counted in one-second buckets (messages, distinct chatters, emotes);
+ * each finished second updates an exponentially weighted mean and variance per signal, about a minute's worth.
+ * A highlight is raised as soon as the running second exceeds the message rate baseline by
+ * {@code twitch.hype.threshold} standard deviations and either the distinct chatters or the emote density is up as
+ * well, so one user flooding chat is not a highlight. Optionally a clip is requested, at most once per cooldown.
+ * <p>
+ * Every message costs a bucket increment, one bit in a small chatter bitmap and a scan of its words for emotes;
+ * thresholds are only recomputed when the second rolls over.
+ */
+@ApplicationScoped
+public class HypeDetector {
+
+    private static final Logger LOG = Logger.getLogger(HypeDetector.class);
+
+    // Weight of one second in the baseline; about the last minute counts
+    private static final double ALPHA = 2.0 / (60 + 1);
+    // Seconds of baseline needed before anything counts as a spike
+    private static final int WARMUP_SECONDS = 60;
+    // Quiet stretches longer than this fold in as this many empty seconds
+    private static final int MAX_GAP_SECONDS = 600;
+    private static final int CHATTER_BITS = 1024;
+    private static final int MAX_HIGHLIGHTS = 20;
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    // Emotes that are plain words or all capitals, so the mixed-case rule below does not catch them
+    private static final int[] EMOTE_HASHES = Arrays.stream(new String[]{
+            "Kappa", "LUL", "LULW", "KEKW", "OMEGALUL", "Pog", "PogU", "POGGERS", "POG", "Kreygasm", "EZ", "Clap",
+            "HYPERS", "Sadge", "COPIUM", "KEK", "GIGACHAD", "Jebaited", "WutFace", "FeelsGoodMan", "gg", "GG",
+            "xD", "XD", "lol", "LOL", "LMAO", "W"
+    }).mapToInt(String::hashCode).sorted().toArray();
+
+    @ConfigProperty(name = "twitch.hype.enabled", defaultValue = "true")
+    boolean enabled = true;
+
+    // Standard deviations above the baseline message rate
+    @ConfigProperty(name = "twitch.hype.threshold", defaultValue = "3.0")
+    double threshold = 3.0;
+
+    // Messages per second below which nothing is a spike, however quiet the baseline
+    @ConfigProperty(name = "twitch.hype.min_rate", defaultValue = "3")
+    int minRate = 3;
+
+    @ConfigProperty(name = "twitch.hype.auto_clip", defaultValue = "false")
+    boolean autoClip;
+
+    @ConfigProperty(name = "twitch.hype.cooldown", defaultValue = "PT1M")
+    Duration cooldown = Duration.ofMinutes(1);
+
+    @Inject
+    ClipPipeline clips;
+
+    /**
+     * A detected spike: the running second's counts against the baseline.
+     */
+    public record Highlight(long timestamp, int messages, double baselineMessages, double zScore, int chatters,
+                            double emotesPerMessage, String clip) {
+
+        String format(ZoneId zone) {
+            return String.format("[%s] %d msgs/s (baseline %.1f, z %.1f), %d chatters, %.1f emotes/msg%s",
+                    CLOCK.format(Instant.ofEpochMilli(timestamp).atZone(zone)), messages, baselineMessages, zScore,
+                    chatters, emotesPerMessage, clip != null ? " - " + clip : "");
+        }
+    }
+
+    // Exponentially weighted mean and variance of one signal
+    private static final class Baseline {
+        double mean;
+        double variance;
+
+        void add(double value) {
+            double delta = value - mean;
+            mean += ALPHA * delta;
+            variance = (1 - ALPHA) * (variance + ALPHA * delta * delta);
+        }
+
+        // A floor on the deviation keeps a perfectly steady chat from alarming on one extra message
+        double limit(double z) {
+            return mean + z * Math.max(0.5, Math.sqrt(variance));
+        }
+    }
+
+    // Guarded by this
+    private long second = -1;
+    private int messages;
+    private int emotes;
+    private int chatters;
+    private final long[] chatterBits = new long[CHATTER_BITS / 64];
+    private final Baseline rate = new Baseline();
+    private final Baseline distinct = new Baseline();
+    private final Baseline emoteDensity = new Baseline();
+    private long baselineSeconds;
+    private double rateLimit = Double.MAX_VALUE;
+    private double chatterLimit = Double.MAX_VALUE;
+    private double emoteLimit = Double.MAX_VALUE;
+    private long lastHighlightAt;
+    private final Deque<Highlight> highlights = new ArrayDeque<>();
+
+    /**
+     * Counts one chat message; returns the highlight it triggered, or null.
+     */
+    public synchronized Highlight observe(long timestamp, String username, String text) {
+        if (!enabled) {
+            return null;
+        }
+        long now = timestamp / 1000;
+        if (now != second) {
+            roll(now);
+        }
+        messages++;
+        emotes += countEmotes(text);
+        int bit = (username.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(CHATTER_BITS));
+        long mask = 1L << bit;
+        if ((chatterBits[bit >>> 6] & mask) == 0) {
+            chatterBits[bit >>> 6] |= mask;
+            chatters++;
+        }
+
+        if (messages < rateLimit || messages < minRate || timestamp - lastHighlightAt < cooldown.toMillis()) {
+            return null;
+        }
+        double density = (double) emotes / messages;
+        if (chatters < chatterLimit && density < emoteLimit) {
+            return null;
+        }
+        lastHighlightAt = timestamp;
+        double z = (messages - rate.mean) / Math.max(0.5, Math.sqrt(rate.variance));
+        String clip = null;
+        if (autoClip && clips != null) {
+            clip = clips.request(String.format("hype spike, %d msgs/s", messages));
+        }
+        Highlight highlight = new Highlight(timestamp, messages, rate.mean, z, chatters, density, clip);
+        highlights.addLast(highlight);
+        if (highlights.size() > MAX_HIGHLIGHTS) {
+            highlights.removeFirst();
+        }
+        LOG.infof("Chat highlight: %d msgs/s against a baseline of %.1f", messages, rate.mean);
+        return highlight;
+    }
+
+    /**
+     * The most recent highlights, newest first.
+     */
+    public synchronized List<String> recentHighlights(int limit, ZoneId zone) {
+        List<String> lines = new ArrayList<>();
+        Iterator<Highlight> newestFirst = highlights.descendingIterator();
+        while (newestFirst.hasNext() && lines.size() < limit) {
+            lines.add(newestFirst.next().format(zone));
+        }
+        return lines;
+    }
+
+    // Folds the finished second, and the empty ones after it, into the baselines and starts a new bucket
+    private void roll(long now) {
+        if (second >= 0) {
+            rate.add(messages);
+            distinct.add(chatters);
+            if (messages > 0) {
+                emoteDensity.add((double) emotes / messages);
+            }
+            long gap = Math.min(MAX_GAP_SECONDS, Math.max(0, now - second - 1));
+            for (long i = 0; i < gap; i++) {
+                rate.add(0);
+                distinct.add(0);
+            }
+            baselineSeconds += 1 + gap;
+        }
+        second = now;
+        messages = 0;
+        emotes = 0;
+        chatters = 0;
+        Arrays.fill(chatterBits, 0);
+        boolean warm = baselineSeconds >= WARMUP_SECONDS;
+        rateLimit = warm ? rate.limit(threshold) : Double.MAX_VALUE;
+        chatterLimit = warm ? distinct.limit(threshold * 2 / 3) : Double.MAX_VALUE;
+        emoteLimit = warm ? emoteDensity.limit(threshold * 2 / 3) : Double.MAX_VALUE;
+    }
+
+    // Words that look like emotes: mixed case inside the word (PogChamp, monkaS, catJAM) or a known emote. Words are
+    // hashed as String.hashCode would, so they are matched without allocating a substring
+    static int countEmotes(String text) {
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            int hash = 0;
+            boolean lower = false;
+            boolean innerUpper = false;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                char c = text.charAt(i);
+                hash = 31 * hash + c;
+                if (Character.isLowerCase(c)) {
+                    lower = true;
+                } else if (Character.isUpperCase(c) && i > start && lower) {
+                    innerUpper = true;
+                }
+                i++;
+            }
+            if (i > start && (innerUpper || Arrays.binarySearch(EMOTE_HASHES, hash) >= 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
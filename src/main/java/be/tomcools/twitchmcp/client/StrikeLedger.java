@@ -0,0 +1,379 @@
+package be.tomcools.twitchmcp.client;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Moderation history per user as a single decaying strike score: each timeout or ban adds its weight, and the score
+ * halves every {@code twitch.strikes.half_life}. Reading or adding to a score is a map lookup and one exponential,
+ * so timeout durations can be escalated for repeat offenders on every call.
+ * <p>
+ * The ledger is kept in a log file per channel under {@code twitch.strikes.dir}. Every change appends the user's new
+ * score and its time; on startup the log is replayed (the last record of a user wins) and rewritten without
+ * superseded and forgotten records once it has grown to twice the live entries.
+ * <p>
+ * Several processes may use the same log, e.g. one per stdio session. Every read and change locks the file and first
+ * applies what the others appended, and a process that finds the file replaced by another's compaction reopens it.
+ */
+@ApplicationScoped
+public class StrikeLedger {
+
+    private static final Logger LOG = Logger.getLogger(StrikeLedger.class);
+
+    private static final int MAGIC = 0x54534C31; // "TSL1"
+    // Scores below this are forgotten when the log is compacted
+    private static final double FORGOTTEN = 0.05;
+    // Twitch allows timeouts of up to two weeks
+    static final int MAX_TIMEOUT_SECONDS = 14 * 24 * 3600;
+    // File locks belong to the whole JVM and must not overlap within it, so ledgers of one JVM take turns here
+    private static final Object FILES = new Object();
+
+    /**
+     * Moderation actions and the strikes they add.
+     */
+    public enum Action {
+        TIMEOUT(1.0), BAN(3.0);
+
+        final double weight;
+
+        Action(double weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A user's score as last updated, for handing a channel's ledger to another server.
+     */
+    public record Strike(String username, double score, long updatedAt) {
+    }
+
+    @ConfigProperty(name = "twitch.strikes.dir")
+    Optional<String> directory = Optional.empty();
+
+    @ConfigProperty(name = "twitch.strikes.half_life", defaultValue = "P7D")
+    Duration halfLife = Duration.ofDays(7);
+
+    @ConfigProperty(name = "twitch.channel")
+    String channel;
+
+    private static final class Entry {
+        double score;
+        long updatedAt;
+    }
+
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private Path path;
+    private FileChannel log;
+    // Identity of the file the log channel was opened on, to notice another process replacing it by compacting
+    private Object fileKey;
+    // Bytes of the log applied to entries, and the records among them
+    private long position;
+    private int records;
+    // Records of the current change, written once the change is complete
+    private final List<ByteBuffer> pending = new ArrayList<>();
+
+    /**
+     * A ledger that is neither loaded nor saved, e.g. for tenant contexts.
+     */
+    static StrikeLedger inMemory(Duration halfLife) {
+        StrikeLedger ledger = new StrikeLedger();
+        ledger.halfLife = halfLife;
+        return ledger;
+    }
+
+    @PostConstruct
+    synchronized void init() {
+        if (directory.isEmpty()) {
+            return;
+        }
+        path = Path.of(directory.get(), channel.toLowerCase(Locale.ROOT) + ".strikes");
+        try {
+            Files.createDirectories(path.getParent());
+            openLog();
+            synchronized (FILES) {
+                FileLock lock = lockLog();
+                try {
+                    if (log.size() == 0) {
+                        write(ByteBuffer.allocate(4).putInt(MAGIC).flip(), 0);
+                    }
+                    if (!catchUp() || records > 2 * entries.size() + 64) {
+                        lock = compact(lock);
+                    }
+                } finally {
+                    release(lock);
+                }
+            }
+            LOG.infof("Loaded %d users with strikes from %s", entries.size(), path);
+        } catch (IOException e) {
+            LOG.warnf("Strike ledger is not persisted, cannot use %s: %s", path, e.getMessage());
+            closeLog();
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        closeLog();
+    }
+
+    /**
+     * Adds the strikes of an action against a user, whether taken through a tool or automatically.
+     *
+     * @return the user's score before this action
+     */
+    public synchronized double record(String username, Action action) {
+        double[] before = new double[1];
+        locked(() -> {
+            long now = System.currentTimeMillis();
+            Entry entry = entries.computeIfAbsent(username.toLowerCase(Locale.ROOT), key -> new Entry());
+            before[0] = decayed(entry, now);
+            entry.score = before[0] + action.weight;
+            entry.updatedAt = now;
+            append(username.toLowerCase(Locale.ROOT), entry);
+        });
+        return before[0];
+    }
+
+    /**
+     * The user's current, decayed strike score; 0 for users without strikes.
+     */
+    public synchronized double strikes(String username) {
+        refresh();
+        Entry entry = entries.get(username.toLowerCase(Locale.ROOT));
+        return entry != null ? decayed(entry, System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Escalates a timeout for a repeat offender: the duration doubles for every strike on record, rounded to the
+     * nearest whole strike, up to the two weeks Twitch allows.
+     */
+    public int escalate(String username, int seconds) {
+        long doublings = Math.round(strikes(username));
+        if (doublings == 0) {
+            return seconds;
+        }
+        long escalated = (long) seconds << Math.min(20, doublings);
+        return (int) Math.min(MAX_TIMEOUT_SECONDS, escalated);
+    }
+
+    public synchronized List<Strike> snapshot() {
+        refresh();
+        List<Strike> strikes = new ArrayList<>(entries.size());
+        entries.forEach((username, entry) -> strikes.add(new Strike(username, entry.score, entry.updatedAt)));
+        return strikes;
+    }
+
+    /**
+     * Takes over scores from another ledger of the channel; a user's more recent record wins.
+     */
+    public synchronized void merge(List<Strike> strikes) {
+        locked(() -> {
+            for (Strike strike : strikes) {
+                Entry entry = entries.computeIfAbsent(strike.username().toLowerCase(Locale.ROOT), key -> new Entry());
+                if (strike.updatedAt() > entry.updatedAt) {
+                    entry.score = strike.score();
+                    entry.updatedAt = strike.updatedAt();
+                    append(strike.username().toLowerCase(Locale.ROOT), entry);
+                }
+            }
+        });
+    }
+
+    private double decayed(Entry entry, long now) {
+        long age = Math.max(0, now - entry.updatedAt);
+        return entry.score * Math.pow(0.5, (double) age / halfLife.toMillis());
+    }
+
+    // One record: time of the change, the new score, then the lowercase username
+    private static ByteBuffer encode(String username, Entry entry) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(name.length, 255);
+        return ByteBuffer.allocate(8 + 8 + 1 + length)
+                .putLong(entry.updatedAt)
+                .putDouble(entry.score)
+                .put((byte) length)
+                .put(name, 0, length)
+                .flip();
+    }
+
+    private void append(String username, Entry entry) {
+        if (log != null) {
+            pending.add(encode(username, entry));
+        }
+    }
+
+    // Takes in what other processes recorded since the last read or change
+    private void refresh() {
+        locked(() -> {
+        });
+    }
+
+    // Runs a read or change of the entries with the log locked against other processes (one JVM per stdio session
+    // may share the file) and caught up with their records, so a change builds on their scores and its records go
+    // after theirs. Without a log it only runs the change
+    private void locked(Runnable change) {
+        if (log == null) {
+            change.run();
+            return;
+        }
+        try {
+            synchronized (FILES) {
+                FileLock lock = lockLog();
+                try {
+                    if (!catchUp()) {
+                        lock = compact(lock);
+                    }
+                    change.run();
+                    for (ByteBuffer record : pending) {
+                        write(record, position);
+                        position += record.limit();
+                        records++;
+                    }
+                } finally {
+                    pending.clear();
+                    release(lock);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf("Could not use strike ledger %s, continuing in memory: %s", path, e.getMessage());
+            closeLog();
+        }
+    }
+
+    // Locks the log file, first reopening it when another process replaced it by compacting
+    private FileLock lockLog() throws IOException {
+        while (true) {
+            FileLock lock = log.lock();
+            if (Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey())) {
+                return lock;
+            }
+            release(lock);
+            closeLog();
+            openLog();
+            entries.clear();
+            position = 0;
+            records = 0;
+        }
+    }
+
+    // Opens the log at path, making sure fileKey is the identity of the file actually opened
+    private void openLog() throws IOException {
+        while (true) {
+            Object before = Files.exists(path) ? Files.readAttributes(path, BasicFileAttributes.class).fileKey() : null;
+            log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            if (before == null || Objects.equals(before, fileKey)) {
+                return;
+            }
+            closeLog();
+        }
+    }
+
+    private void release(FileLock lock) throws IOException {
+        // Closing the channel, as reopening does, already released it
+        if (lock.isValid()) {
+            lock.release();
+        }
+    }
+
+    private void write(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += log.write(buffer, at);
+        }
+    }
+
+    // Applies the records appended since the last call, by this or another process; the last record of a user
+    // wins. False when the log ends in a partial record, which must not be followed by new ones
+    private boolean catchUp() throws IOException {
+        long size = log.size();
+        if (size <= position) {
+            return true;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - position));
+        while (buffer.hasRemaining() && log.read(buffer, position + buffer.position()) >= 0) {
+            // Read until full; the log only grows while locked
+        }
+        buffer.flip();
+        if (position == 0 && (buffer.remaining() < 4 || buffer.getInt() != MAGIC)) {
+            throw new IOException("not a strike ledger");
+        }
+        // A record cut short by a crash is dropped with everything after it
+        while (buffer.remaining() >= 17) {
+            int start = buffer.position();
+            long updatedAt = buffer.getLong();
+            double score = buffer.getDouble();
+            int length = buffer.get() & 0xFF;
+            if (buffer.remaining() < length) {
+                buffer.position(start);
+                break;
+            }
+            String username = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            Entry entry = entries.computeIfAbsent(username, key -> new Entry());
+            entry.score = score;
+            entry.updatedAt = updatedAt;
+            records++;
+        }
+        position = size - buffer.remaining();
+        return !buffer.hasRemaining();
+    }
+
+    // Rewrites the log with only the live entries while holding its lock, then continues on the new file under the
+    // lock of that. Other processes notice the replaced file when they next take the lock
+    private FileLock compact(FileLock lock) throws IOException {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> decayed(entry, now) < FORGOTTEN);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC).flip();
+            while (magic.hasRemaining()) {
+                out.write(magic);
+            }
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                ByteBuffer record = encode(entry.getKey(), entry.getValue());
+                while (record.hasRemaining()) {
+                    out.write(record);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        release(lock);
+        FileLock relocked = lockLog();
+        catchUp();
+        return relocked;
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOG.debugf("Could not close strike ledger: %s", e.getMessage());
+            }
+            log = null;
+        }
+    }
+}
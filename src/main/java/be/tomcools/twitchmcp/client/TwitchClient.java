@@ -1,130 +1,191 @@
 package be.tomcools.twitchmcp.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.quarkus.runtime.StartupEvent;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import org.apache.camel.ProducerTemplate;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.stream.Collectors;
-import java.util.ArrayList;
-import org.apache.hc.client5.http.classic.methods.HttpPatch;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 
 @ApplicationScoped
 public class TwitchClient {
 
+    private static final Logger LOG = Logger.getLogger(TwitchClient.class);
+
     @Inject
     ProducerTemplate producerTemplate;
 
     @Inject
     CamelRoute camelRoute;
 
-    @ConfigProperty(name = "twitch.auth")
-    String authToken;
+    @Inject
+    TwitchCredentials credentials;
+
+    @Inject
+    HelixApi helix;
+
+    @Inject
+    ChatClassifier classifier;
+
+    @Inject
+    StrikeLedger strikes;
+
+    @Inject
+    EventSubClient eventSub;
+
+    @Inject
+    ClipPipeline clips;
+
+    @Inject
+    HypeDetector hype;
 
-    @ConfigProperty(name = "twitch.client_id")
-    String clientId;
+    @Inject
+    ObjectMapper objectMapper;
 
     @ConfigProperty(name = "twitch.broadcaster_id")
     String broadcasterId;
 
-    // List of descriptors and associated keywords
-    private static final Map<String, List<String>> DESCRIPTOR_KEYWORDS = Map.of(
-        "toxic", List.of("idiot", "stupid", "hate", "kill", "dumb", "trash", "noob", "loser", "shut up", "annoying", "toxic", "rude", "mean", "sucks", "bad", "worst", "report", "ban"),
-        "spam", List.of("buy followers", "free", "promo", "visit", "http", "www", "spam", "emote", "caps", "repeated"),
-        "rude", List.of("shut up", "idiot", "stupid", "dumb", "annoying", "rude", "mean", "trash", "loser", "bad", "worst")
-    );
+    // Join chat right after startup instead of on first use, so history is collected before the first chat tool call
+    @ConfigProperty(name = "twitch.chat.connect_on_startup", defaultValue = "false")
+    boolean connectOnStartup;
+
+    // Messages getChatContext condenses, and its default size in tokens
+    @ConfigProperty(name = "twitch.chat.context_messages", defaultValue = "500")
+    int contextMessages = 500;
+
+    @ConfigProperty(name = "twitch.chat.context_tokens", defaultValue = "400")
+    int contextTokens = 400;
+
+    // Cached title and category are reloaded from Helix once they are this old without a channel.update notification
+    @ConfigProperty(name = "twitch.channel.state_ttl", defaultValue = "PT5M")
+    Duration channelStateTtl = Duration.ofMinutes(5);
+
+    // Flagged messages before a chatter is offered for a descriptor like "the toxic one"; one rude word is not enough
+    private static final int DESCRIPTOR_MIN_MESSAGES = 2;
+    // Name similarity from which a recent chatter is offered as the user a name may have meant
+    private static final double CANDIDATE_SIMILARITY = 0.5;
+
+    /**
+     * Who a moderation tool should act on: a confirmed username, or, when a name only resembles recent chatters or a
+     * descriptor fits some of them, those candidates (described for the caller) to pick from.
+     */
+    public record ModerationTarget(String username, List<String> candidates) {
+
+        public boolean confirmed() {
+            return username != null;
+        }
+
+        public String confirmation(String input) {
+            return "Not sure which user '" + input + "' means. Possible matches among recent chatters: "
+                    + String.join(", ", candidates) + ". Call again with the exact username and confirm set to true.";
+        }
+    }
 
     public void sendMessage(String message) {
-        producerTemplate.sendBody("direct:sendToIrc", message);
+        connectChat();
+        producerTemplate.sendBody(camelRoute.sendEndpoint(), message);
     }
 
-    // Post something to the Twitch chat after connect.
+    // Chat is joined on first use; optionally right after startup, off the startup path, to collect history early
     void onStart(@Observes StartupEvent ev) {
-        // Only send a message if authentication token is not a placeholder
-        if (authToken != null && !authToken.isEmpty() && !authToken.equals("placeholder")) {
-            this.sendMessage("Twitch MCP Server connected");
-        } else {
-            System.out.println("Twitch authentication token not configured. Skipping 'Twitch MCP Server connected' message.");
+        if (connectOnStartup) {
+            Thread.ofVirtual().name("twitch-chat-connect").start(() -> {
+                try {
+                    connectChat();
+                } catch (RuntimeException e) {
+                    LOG.warnf("Could not connect to Twitch chat: %s", e.getMessage());
+                }
+            });
         }
     }
 
-    public String createPoll(String title, List<String> choices, int duration) throws Exception {
-        URL url = new URL("https://api.twitch.tv/helix/polls");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        conn.setRequestProperty("Client-Id", clientId);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-
-        StringBuilder choicesJson = new StringBuilder();
-        for (String choice : choices) {
-            if (choicesJson.length() > 0) choicesJson.append(",");
-            choicesJson.append("{\"titleרוי\":\"").append(choice).append("\"}");
+    private void connectChat() {
+        try {
+            camelRoute.connect();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not connect to Twitch chat: " + e.getMessage(), e);
         }
+    }
 
-        String json = String.format(
-            "{\"broadcaster_idרוי\":\"%s\",\"titleרוי\":\"%s\",\"choicesרוי\":[%s],\"durationרוי\":%d}",
-            broadcasterId, title, choicesJson.toString(), duration
-        );
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(json.getBytes());
+    public String createPoll(String title, List<String> choices, int duration) throws Exception {
+        // Subscribing takes a moment; the Helix response covers the status until the first notification
+        eventSub.connect();
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("broadcaster_id", broadcasterId).put("title", title);
+        ArrayNode choicesJson = body.putArray("choices");
+        for (String choice : choices) {
+            choicesJson.addObject().put("title", choice);
         }
+        body.put("duration", duration);
 
-        int responseCode = conn.getResponseCode();
+        HelixApi.HelixResponse response = helix.post("/polls", null, body.toString());
+        int responseCode = response.status();
         if (responseCode == 200 || responseCode == 201) {
-            return "Poll created successfully!";
+            eventSub.created(response.body(), true);
+            return "Poll created successfully! Use getPollStatus for live results.";
         } else {
             return "Failed to create poll: HTTP " + responseCode;
         }
     }
 
     public String createPrediction(String title, List<String> outcomes, int duration) throws Exception {
-        URL url = new URL("https://api.twitch.tv/helix/predictions");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        conn.setRequestProperty("Client-Id", clientId);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-
-        StringBuilder outcomesJson = new StringBuilder();
+        eventSub.connect();
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("broadcaster_id", broadcasterId).put("title", title);
+        ArrayNode outcomesJson = body.putArray("outcomes");
         for (String outcome : outcomes) {
-            if (outcomesJson.length() > 0) outcomesJson.append(",");
-            outcomesJson.append("{\"titleרוי\":\"").append(outcome).append("\"}");
-        }
-
-        String json = String.format(
-            "{\"broadcaster_idרוי\":\"%s\",\"titleרוי\":\"%s\",\"outcomesרוי\":[%s],\"prediction_windowרוי\":%d}",
-            broadcasterId, title, outcomesJson.toString(), duration
-        );
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(json.getBytes());
+            outcomesJson.addObject().put("title", outcome);
         }
+        body.put("prediction_window", duration);
 
-        int responseCode = conn.getResponseCode();
+        HelixApi.HelixResponse response = helix.post("/predictions", null, body.toString());
+        int responseCode = response.status();
         if (responseCode == 200 || responseCode == 201) {
-            return "Prediction created successfully!";
+            eventSub.created(response.body(), false);
+            return "Prediction created successfully! Use getPredictionStatus for live results.";
         } else {
             return "Failed to create prediction: HTTP " + responseCode;
         }
     }
 
+    // The latest poll as last pushed by EventSub; no Helix call
+    public String getPollStatus() {
+        eventSub.connect();
+        String poll = eventSub.events().formatPoll(ZoneId.systemDefault());
+        return poll != null ? poll : "No poll seen yet. " + eventSub.describe();
+    }
+
+    public String getPredictionStatus() {
+        eventSub.connect();
+        String prediction = eventSub.events().formatPrediction(ZoneId.systemDefault());
+        return prediction != null ? prediction : "No prediction seen yet. " + eventSub.describe();
+    }
+
+    // Recent follows, raids and channel updates, newest first; limit defaults to 20, at most 50 are kept
+    public String getChannelActivity(Integer limit) {
+        eventSub.connect();
+        List<String> activity = eventSub.events().recentActivity(limit != null ? Math.max(1, limit) : 20, ZoneId.systemDefault());
+        if (activity.isEmpty()) {
+            return "No follows, raids or channel updates seen yet. " + eventSub.describe();
+        }
+        return String.join("\n", activity);
+    }
+
     public String analyzeChat() {
+        connectChat();
         List<String> messages = camelRoute.getRecentMessages();
         if (messages.isEmpty()) {
             return "No recent chat messages to analyze.";
@@ -175,71 +236,56 @@ public class TwitchClient {
         return analysis.toString();
     }
 
+    // The recent chatter whose name best matches, typos and case aside, or null
     public String findUserInChat(String partialName) {
-        List<String> messages = camelRoute.getRecentMessages();
-        Map<String, Integer> userActivity = new HashMap<>();
-        
-        // Extract usernames from messages and count their activity
-        for (String message : messages) {
-            if (message.startsWith(":")) {
-                String[] parts = message.split("!");
-                if (parts.length > 0) {
-                    String username = parts[0].substring(1).toLowerCase();
-                    userActivity.merge(username, 1, Integer::sum);
-                }
-            }
-        }
-        
-        // Find the most active user that matches the partial name
-        String bestMatch = null;
-        int maxActivity = 0;
-        partialName = partialName.toLowerCase();
-        
-        for (Map.Entry<String, Integer> entry : userActivity.entrySet()) {
-            String username = entry.getKey();
-            if (username.contains(partialName) && entry.getValue() > maxActivity) {
-                bestMatch = username;
-                maxActivity = entry.getValue();
-            }
-        }
-        
-        return bestMatch;
+        connectChat();
+        List<ChatterIndex.Candidate> candidates = camelRoute.chatters().search(partialName, 1, System.currentTimeMillis());
+        return candidates.isEmpty() || candidates.get(0).similarity() < CANDIDATE_SIMILARITY
+                ? null : candidates.get(0).login();
     }
 
-    public int guessTimeoutDuration(String reason) {
-        reason = reason.toLowerCase();
-        if (reason.contains("spam") || reason.contains("caps") || reason.contains("emote")) {
-            return 300; // 5 minutes for spam/caps/emote spam
-        } else if (reason.contains("toxic") || reason.contains("rude") || reason.contains("mean")) {
-            return 1800; // 30 minutes for toxic behavior
-        } else if (reason.contains("severe") || reason.contains("serious")) {
-            return 3600; // 1 hour for severe violations
-        }
-        return 600; // Default 10 minutes
+    // Duration from the reason's words, raised for users whose recent messages the classifier scores as toxic and
+    // doubled for every strike the user still has on record
+    public int guessTimeoutDuration(String username, String reason) {
+        Set<String> words = Set.copyOf(List.of(reason.toLowerCase().split("[^\\p{L}\\p{N}]+")));
+        int duration = 600; // Default 10 minutes
+        if (words.contains("severe") || words.contains("serious")) {
+            duration = 3600; // 1 hour for severe violations
+        } else if (words.contains("toxic") || words.contains("rude") || words.contains("mean")) {
+            duration = 1800; // 30 minutes for toxic behavior
+        } else if (words.contains("spam") || words.contains("caps") || words.contains("emote") || words.contains("emotes")) {
+            duration = 300; // 5 minutes for spam/caps/emote spam
+        }
+        if (username == null) {
+            return duration;
+        }
+        float toxicity = classifier.userScore(username, ChatClassifier.Label.TOXIC);
+        if (toxicity >= 0.9f) {
+            duration = Math.max(duration, 3600);
+        } else if (toxicity >= 0.75f) {
+            duration = Math.max(duration, 1800);
+        }
+        return strikes.escalate(username, duration);
     }
 
+    // Ids Helix returned before are reused, so only the first moderation of a user costs a users lookup. Chat does
+    // not supply them: camel-irc neither requests the twitch.tv/tags capability nor exposes message tags
     private String getUserIdFromUsername(String username) throws Exception {
-        URL url = new URL("https://api.twitch.tv/helix/users?login=" + username);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        conn.setRequestProperty("Client-Id", clientId);
-        int responseCode = conn.getResponseCode();
-        if (responseCode == 200) {
-            StringBuilder response = new StringBuilder();
-            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(conn.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-            }
-            String responseStr = response.toString();
-            int idIndex = responseStr.indexOf("\"idרוי\":\"");
+        String known = camelRoute.userId(username);
+        if (known != null) {
+            return known;
+        }
+        String encodedLogin = java.net.URLEncoder.encode(username, java.nio.charset.StandardCharsets.UTF_8);
+        HelixApi.HelixResponse response = helix.get("/users", "login=" + encodedLogin);
+        if (response.status() == 200) {
+            String responseStr = response.body();
+            int idIndex = responseStr.indexOf("\"id\":\"");
             if (idIndex != -1) {
                 int startIndex = idIndex + 6;
                 int endIndex = responseStr.indexOf("\"", startIndex);
-                return responseStr.substring(startIndex, endIndex);
+                String userId = responseStr.substring(startIndex, endIndex);
+                camelRoute.rememberUserId(username, userId);
+                return userId;
             }
         }
         return null;
@@ -249,82 +295,74 @@ public class TwitchClient {
         if (username == null || username.isEmpty()) {
             return "No username provided for timeout.";
         }
+        String credentialError = credentials.checkUsable("moderator:manage:banned_users");
+        if (credentialError != null) {
+            return "Failed to timeout user: " + credentialError;
+        }
         String userId = getUserIdFromUsername(username);
         if (userId == null) {
             return "Could not resolve user ID for username: " + username;
         }
-        URL url = new URL("https://api.twitch.tv/helix/moderation/bans");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        conn.setRequestProperty("Client-Id", clientId);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-        String json = String.format(
-            "{\"broadcaster_idרוי\":\"%s\",\"moderator_idרוי\":\"%s\",\"dataרוי\":{\"user_idרוי\":\"%s\",\"reasonרוי\":\"%s\",\"durationרוי\":%d}}",
-            broadcasterId, broadcasterId, userId, reason, duration
-        );
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(json.getBytes());
-        }
-        int responseCode = conn.getResponseCode();
+        ObjectNode body = objectMapper.createObjectNode();
+        body.putObject("data").put("user_id", userId).put("reason", reason).put("duration", duration);
+        HelixApi.HelixResponse response = helix.post("/moderation/bans", banQuery(), body.toString());
+        int responseCode = response.status();
         if (responseCode == 200 || responseCode == 201) {
-            return String.format("Successfully timed out %s for %d seconds. Reason: %s", username, duration, reason);
+            camelRoute.events().publishModeration(username, String.format("timeout %ds: %s", duration, reason));
+            classifier.learn(username, reason, camelRoute.getRecentMessages());
+            double previous = strikes.record(username, StrikeLedger.Action.TIMEOUT);
+            return String.format("Successfully timed out %s for %d seconds. Reason: %s", username, duration, reason)
+                    + strikeNote(previous);
         } else {
             String errorMsg = "Failed to timeout user: HTTP " + responseCode;
-            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(conn.getErrorStream()))) {
-                String line;
-                StringBuilder errorResponse = new StringBuilder();
-                while ((line = reader.readLine()) != null) {
-                    errorResponse.append(line);
-                }
-                errorMsg += "\n" + errorResponse.toString();
-            } catch (Exception ignored) {}
+            if (!response.body().isEmpty()) {
+                errorMsg += "\n" + response.body();
+            }
             return errorMsg;
         }
     }
 
+    // The token belongs to the broadcaster, who moderates their own channel
+    private String banQuery() {
+        return "broadcaster_id=" + broadcasterId + "&moderator_id=" + broadcasterId;
+    }
+
     public String banUser(String username, String reason) throws Exception {
         if (username == null || username.isEmpty()) {
             return "No username provided for ban.";
         }
+        String credentialError = credentials.checkUsable("moderator:manage:banned_users");
+        if (credentialError != null) {
+            return "Failed to ban user: " + credentialError;
+        }
         String userId = getUserIdFromUsername(username);
         if (userId == null) {
             return "Could not resolve user ID for username: " + username;
         }
-        URL url = new URL("https://api.twitch.tv/helix/moderation/bans");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        conn.setRequestProperty("Client-Id", clientId);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-        String json = String.format(
-            "{\"broadcaster_idרוי\":\"%s\",\"moderator_idרוי\":\"%s\",\"dataרוי\":{\"user_idרוי\":\"%s\",\"reasonרוי\":\"%s\"}}",
-            broadcasterId, broadcasterId, userId, reason
-        );
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(json.getBytes());
-        }
-        int responseCode = conn.getResponseCode();
+        ObjectNode body = objectMapper.createObjectNode();
+        body.putObject("data").put("user_id", userId).put("reason", reason);
+        HelixApi.HelixResponse response = helix.post("/moderation/bans", banQuery(), body.toString());
+        int responseCode = response.status();
         if (responseCode == 200 || responseCode == 201) {
-            return String.format("Successfully banned %s. Reason: %s", username, reason);
+            camelRoute.events().publishModeration(username, "ban: " + reason);
+            classifier.learn(username, reason, camelRoute.getRecentMessages());
+            double previous = strikes.record(username, StrikeLedger.Action.BAN);
+            return String.format("Successfully banned %s. Reason: %s", username, reason) + strikeNote(previous);
         } else {
             String errorMsg = "Failed to ban user: HTTP " + responseCode;
-            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(conn.getErrorStream()))) {
-                String line;
-                StringBuilder errorResponse = new StringBuilder();
-                while ((line = reader.readLine()) != null) {
-                    errorResponse.append(line);
-                }
-                errorMsg += "\n" + errorResponse.toString();
-            } catch (Exception ignored) {}
+            if (!response.body().isEmpty()) {
+                errorMsg += "\n" + response.body();
+            }
             return errorMsg;
         }
     }
 
+    private static String strikeNote(double previousStrikes) {
+        return previousStrikes >= 0.5
+                ? String.format(" Repeat offender: %.1f recent strikes before this one.", previousStrikes)
+                : "";
+    }
+
     private boolean isCommonWord(String word) {
         // List of common words to filter out
         Set<String> commonWords = Set.of(
@@ -341,139 +379,162 @@ public class TwitchClient {
         return commonWords.contains(word.toLowerCase());
     }
 
-    public String createClip() throws Exception {
-        URL url = new URL("https://api.twitch.tv/helix/clips?broadcaster_id=" + broadcasterId);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        conn.setRequestProperty("Client-Id", clientId);
-        conn.setRequestProperty("Content-Type", "application/json");
+    // Queued on the clip pipeline; requests close together share one clip
+    public String createClip() {
+        return clips.request(null);
+    }
 
-        int responseCode = conn.getResponseCode();
-        if (responseCode == 200 || responseCode == 201) {
-            // Read the response to get the clip URL
-            StringBuilder response = new StringBuilder();
-            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(conn.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-            }
-            
-            // Parse the response to get the clip URL
-            String responseStr = response.toString();
-            int editUrlIndex = responseStr.indexOf("\"edit_urlרוי\":\"");
-            if (editUrlIndex != -1) {
-                int startIndex = editUrlIndex + 12;
-                int endIndex = responseStr.indexOf("\"", startIndex);
-                String clipUrl = responseStr.substring(startIndex, endIndex);
-                return "Clip created successfully! You can view it at: " + clipUrl;
-            }
-            return "Clip created successfully!";
-        } else {
-            return "Failed to create clip: HTTP " + responseCode;
-        }
+    // Recent clips with their processing status, newest first; limit defaults to 10
+    public String listRecentClips(Integer limit) {
+        List<String> recent = clips.recentClips(limit != null ? Math.max(1, limit) : 10, ZoneId.systemDefault());
+        return recent.isEmpty() ? "No clips created since the server started." : String.join("\n", recent);
     }
 
-    // Analyze chat and return the user with the most messages matching the descriptor
-    public String findUserByDescriptor(String descriptor) {
-        List<String> messages = camelRoute.getRecentMessages();
-        Map<String, Integer> userScores = new HashMap<>();
-        List<String> keywords = DESCRIPTOR_KEYWORDS.getOrDefault(descriptor, List.of(descriptor));
-        for (String message : messages) {
-            if (message.startsWith(":")) {
-                String[] parts = message.split("!");
-                if (parts.length > 0) {
-                    String username = parts[0].substring(1).toLowerCase();
-                    String content = message.toLowerCase();
-                    for (String keyword : keywords) {
-                        if (content.contains(keyword)) {
-                            userScores.merge(username, 1, Integer::sum);
-                        }
-                    }
-                }
-            }
-        }
-        // Return the user with the highest score
-        return userScores.entrySet().stream()
-            .max(Map.Entry.comparingByValue())
-            .map(Map.Entry::getKey)
-            .orElse(null);
+    // Chat spikes flagged at ingest, newest first; limit defaults to 10
+    public String getChatHighlights(Integer limit) {
+        connectChat();
+        List<String> recent = hype.recentHighlights(limit != null ? Math.max(1, limit) : 10, ZoneId.systemDefault());
+        return recent.isEmpty() ? "No chat spikes detected since the server started." : String.join("\n", recent);
     }
 
-    // Return the last N chat messages (default 20) as a list of "username: message" strings
-    public List<String> getRecentChatLog(int n) {
-        List<String> messages = camelRoute.getRecentMessages();
-        int start = Math.max(0, messages.size() - n);
-        List<String> result = new ArrayList<>();
-        for (int i = start; i < messages.size(); i++) {
-            String message = messages.get(i);
-            int colonIndex = message.indexOf(':');
-            if (colonIndex > 0) {
-                String username = message.substring(0, colonIndex).trim();
-                String content = message.substring(colonIndex + 1).trim();
-                result.add(username + ": " + content);
-            } else {
-                result.add(message); // fallback, just in case
-            }
+    // Recently active users with several messages flagged for the descriptor's label ("toxic", "spammer", ...),
+    // highest score first
+    public List<ChatClassifier.Suspect> findUsersByDescriptor(String descriptor) {
+        connectChat();
+        ChatClassifier.Label label = ChatClassifier.labelFor(descriptor);
+        return label != null ? classifier.suspects(label, DESCRIPTOR_MIN_MESSAGES, 5) : List.of();
+    }
+
+    /**
+     * Streams new chat messages, moderation actions and stats deltas of this channel to {@code subscriber}
+     * until either side closes the subscription.
+     */
+    public ChatEventBus.Subscription subscribe(ChatEventFilter filter, ChatEventBus.Subscriber subscriber) {
+        connectChat();
+        return camelRoute.events().subscribe(filter, subscriber);
+    }
+
+    // Recent chat condensed to about maxTokens tokens (default twitch.chat.context_tokens), see ChatContext
+    public String getChatContext(Integer maxTokens) {
+        connectChat();
+        List<String> messages = camelRoute.getRecentMessages(contextMessages > 0 ? contextMessages : 500);
+        if (messages.isEmpty()) {
+            return "No recent chat messages available.";
         }
-        return result;
+        int tokens = maxTokens != null ? Math.max(50, Math.min(maxTokens, 8000)) : contextTokens;
+        return ChatContext.build(messages, tokens * ChatContext.CHARS_PER_TOKEN);
     }
 
-    // Updated: Only resolve explicit usernames, otherwise return null
-    public String resolveModerationTarget(String input) {
+    // Messages received after the cursor (default 0, the oldest retained), at most limit (default 50, max 500) of them
+    public ChatHistory.Page getChatLogSince(Long cursor, Integer limit) {
+        int pageSize = limit != null ? Math.max(1, Math.min(limit, 500)) : 50;
+        connectChat();
+        return camelRoute.history().since(cursor != null ? cursor : 0, pageSize);
+    }
+
+    public ModerationTarget resolveModerationTarget(String input) {
+        return resolveModerationTarget(input, false);
+    }
+
+    // Resolve explicit usernames; otherwise return null. A name resolves to a recent chatter only when it is theirs up
+    // to case and underscores; a name that merely resembles chatters returns them as candidates, and one resembling
+    // nobody is taken as given. A descriptor never resolves on its own: the users it fits are returned as candidates.
+    // A confirmed login is taken as given, so users who are not (or no longer) recent chatters can be moderated too
+    public ModerationTarget resolveModerationTarget(String input, boolean confirmed) {
         if (input == null || input.isEmpty()) return null;
-        String lowered = input.toLowerCase();
-        // If the input contains 'user named' or looks like a username, use fuzzy match
-        if (lowered.contains("user named") || lowered.matches("[a-zA-Z0-9_]{3,25}")) {
-            String username = input.replaceAll(".*user named ", "").trim();
-            String match = findUserInChat(username);
-            return match != null ? match : username;
+        if (confirmed) {
+            String login = input.trim().replaceAll("^@+", "");
+            return login.matches("[a-zA-Z0-9_]{3,25}") ? new ModerationTarget(login.toLowerCase(), List.of()) : null;
         }
+        String lowered = input.toLowerCase();
+        boolean named = lowered.contains("user named");
+        // Descriptors such as "toxic" or "the spammer" offer the recent chatters the classifier flagged repeatedly
+        if (!named && ChatClassifier.labelFor(lowered) != null) {
+            List<ChatClassifier.Suspect> suspects = findUsersByDescriptor(lowered);
+            long now = System.currentTimeMillis();
+            return suspects.isEmpty() ? null : new ModerationTarget(null, suspects.stream()
+                    .map(s -> String.format("%s (score %.2f, %d flagged messages, last chatted %d min ago)",
+                            s.username(), s.score(), s.flaggedMessages(), Math.max(0, now - s.lastSeen()) / 60_000))
+                    .toList());
+        }
+        String name = input.replaceAll("(?i).*user named ", "").trim().replaceAll("^[@\"'`]+|[\"'`.,!?]+$", "");
         // Otherwise, return null so the tool can provide the chat log to the LLM
-        return null;
+        if (!name.matches("[a-zA-Z0-9_]{3,25}")) {
+            return null;
+        }
+        connectChat();
+        String login = name.toLowerCase();
+        long now = System.currentTimeMillis();
+        List<ChatterIndex.Candidate> candidates = camelRoute.chatters().search(login, 5, now)
+                .stream()
+                .filter(c -> c.similarity() >= CANDIDATE_SIMILARITY)
+                .toList();
+        if (candidates.isEmpty() || candidates.stream().anyMatch(c -> c.login().equals(login))) {
+            return new ModerationTarget(login, List.of());
+        }
+        List<ChatterIndex.Candidate> same = candidates.stream().filter(c -> c.similarity() >= 1.0).toList();
+        if (same.size() == 1) {
+            return new ModerationTarget(same.get(0).login(), List.of());
+        }
+        return new ModerationTarget(null, candidates.stream()
+                .map(c -> String.format("%s (similarity %.2f, last chatted %d min ago, %d messages)", c.login(),
+                        c.similarity(), Math.max(0, now - c.lastSeen()) / 60_000, c.messages()))
+                .toList());
+    }
+
+    public String getStreamInfo() throws Exception {
+        ChannelEvents.Channel state = channelState();
+        return state != null ? state.format(ZoneId.systemDefault()) : "Could not load the channel information from Twitch.";
+    }
+
+    // Title and category from the cache, loaded from helix/channels when missing or older than twitch.channel.state_ttl;
+    // channel.update notifications and this server's own updates keep it current in between. Null if not loaded
+    private ChannelEvents.Channel channelState() throws Exception {
+        eventSub.connect();
+        ChannelEvents.Channel cached = eventSub.events().channel();
+        if (cached != null && isCurrent(cached)) {
+            return cached;
+        }
+        HelixApi.HelixResponse response = helix.get("/channels", "broadcaster_id=" + broadcasterId);
+        if (response.status() == 200) {
+            eventSub.channelLoaded(response.body());
+        } else {
+            LOG.warnf("Failed to load the channel information: HTTP %d", response.status());
+        }
+        return eventSub.events().channel();
+    }
+
+    // The cached state if it can be trusted to skip an update, otherwise null and the update goes to Helix
+    private ChannelEvents.Channel currentChannelState() {
+        try {
+            ChannelEvents.Channel state = channelState();
+            return state != null && isCurrent(state) ? state : null;
+        } catch (Exception e) {
+            LOG.debugf("Channel information unavailable: %s", e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isCurrent(ChannelEvents.Channel state) {
+        return state.updatedAt().plus(channelStateTtl).isAfter(Instant.now());
     }
 
     public String updateStreamTitle(String newTitle) throws Exception {
         if (newTitle == null || newTitle.isEmpty()) {
             return "No title provided.";
         }
+        ChannelEvents.Channel state = currentChannelState();
+        if (state != null && newTitle.equals(state.title())) {
+            return "Stream title is already: " + newTitle;
+        }
 
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPatch httpPatch = new HttpPatch("https://api.twitch.tv/helix/channels");
-            String bearerToken = authToken.replace("oauth:", "");
-            httpPatch.setHeader("Authorization", "Bearer " + bearerToken);
-            httpPatch.setHeader("Client-Id", clientId);
-            httpPatch.setHeader("Content-Type", "application/json");
-
-            // Escape quotes in the title to prevent JSON formatting issues
-            String escapedTitle = newTitle.replace("\"", "\\\"");
-            String json = String.format("{\"broadcaster_idרוי\":\"%s\",\"titleרוי\":\"%s\"}", broadcasterId, escapedTitle);
-            
-            httpPatch.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
-
-            try (var response = httpClient.execute(httpPatch)) {
-                int statusCode = response.getCode();
-                String responseBody = "";
-                try (var reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(response.getEntity().getContent()))) {
-                    String line;
-                    StringBuilder responseContent = new StringBuilder();
-                    while ((line = reader.readLine()) != null) {
-                        responseContent.append(line);
-                    }
-                    responseBody = responseContent.toString();
-                } catch (Exception e) {
-                    responseBody = "Error reading response: " + e.getMessage();
-                }
-
-                if (statusCode == 204) {
-                    return "Successfully updated stream title to: " + newTitle;
-                } else {
-                    return String.format("Failed to update stream title: HTTP %d\nResponse: %s", statusCode, responseBody);
-                }
-            }
+        ObjectNode body = objectMapper.createObjectNode().put("title", newTitle);
+        HelixApi.HelixResponse response = helix.patch("/channels", "broadcaster_id=" + broadcasterId, body.toString());
+        if (response.status() == 204) {
+            eventSub.events().updateTitle(newTitle);
+            return "Successfully updated stream title to: " + newTitle;
+        } else {
+            return String.format("Failed to update stream title: HTTP %d\nResponse: %s", response.status(), response.body());
         }
     }
 
@@ -481,72 +542,39 @@ public class TwitchClient {
         if (categoryName == null || categoryName.isEmpty()) {
             return "No category provided.";
         }
+        ChannelEvents.Channel state = currentChannelState();
+        if (state != null && categoryName.equalsIgnoreCase(state.categoryName())) {
+            return "Stream category is already: " + state.categoryName();
+        }
 
         // Step 1: Resolve the category/game ID using the search endpoint
         String encodedQuery = java.net.URLEncoder.encode(categoryName, java.nio.charset.StandardCharsets.UTF_8);
-        URL searchUrl = new URL("https://api.twitch.tv/helix/search/categories?query=" + encodedQuery);
-        HttpURLConnection searchConn = (HttpURLConnection) searchUrl.openConnection();
-        searchConn.setRequestMethod("GET");
-        searchConn.setRequestProperty("Authorization", "Bearer " + authToken.replace("oauth:", ""));
-        searchConn.setRequestProperty("Client-Id", clientId);
+        HelixApi.HelixResponse searchResponse = helix.get("/search/categories", "query=" + encodedQuery);
 
-        int searchResponseCode = searchConn.getResponseCode();
+        int searchResponseCode = searchResponse.status();
         if (searchResponseCode != 200) {
             return "Failed to search for category '" + categoryName + "': HTTP " + searchResponseCode;
         }
-        StringBuilder searchResponse = new StringBuilder();
-        try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(searchConn.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                searchResponse.append(line);
-            }
-        }
 
-        String responseStr = searchResponse.toString();
-        int idIndex = responseStr.indexOf("\"idרוי\":\"");
-        if (idIndex == -1) {
+        // The best match comes first; its name is how Twitch spells the category
+        JsonNode match = objectMapper.readTree(searchResponse.body()).path("data").path(0);
+        String categoryId = match.path("id").asText("");
+        if (categoryId.isEmpty()) {
             return "Could not find a Twitch category named '" + categoryName + "'.";
         }
-        int startIndex = idIndex + 6; // length of "idרוירוי\"
-        int endIndex = responseStr.indexOf("\"", startIndex);
-        if (endIndex == -1) {
-            return "Unexpected response while parsing category ID.";
+        String matchedName = match.path("name").asText(categoryName);
+        if (state != null && categoryId.equals(state.categoryId())) {
+            return "Stream category is already: " + state.categoryName();
         }
-        String categoryId = responseStr.substring(startIndex, endIndex);
 
         // Step 2: Patch the channel with the new game_id
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPatch httpPatch = new HttpPatch("https://api.twitch.tv/helix/channels");
-            String bearerToken = authToken.replace("oauth:", "");
-            httpPatch.setHeader("Authorization", "Bearer " + bearerToken);
-            httpPatch.setHeader("Client-Id", clientId);
-            httpPatch.setHeader("Content-Type", "application/json");
-
-            String json = String.format("{\"broadcaster_idרוי\":\"%s\",\"game_idרוי\":\"%s\"}", broadcasterId, categoryId);
-            httpPatch.setEntity(new org.apache.hc.core5.http.io.entity.StringEntity(json, org.apache.hc.core5.http.ContentType.APPLICATION_JSON));
-
-            try (var response = httpClient.execute(httpPatch)) {
-                int statusCode = response.getCode();
-                String responseBody = "";
-                try (var reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(response.getEntity().getContent()))) {
-                    String line;
-                    StringBuilder responseContent = new StringBuilder();
-                    while ((line = reader.readLine()) != null) {
-                        responseContent.append(line);
-                    }
-                    responseBody = responseContent.toString();
-                } catch (Exception e) {
-                    responseBody = "Error reading response: " + e.getMessage();
-                }
-
-                if (statusCode == 204) {
-                    return "Successfully updated stream category to: " + categoryName;
-                } else {
-                    return String.format("Failed to update stream category: HTTP %d\nResponse: %s", statusCode, responseBody);
-                }
-            }
+        ObjectNode body = objectMapper.createObjectNode().put("game_id", categoryId);
+        HelixApi.HelixResponse response = helix.patch("/channels", "broadcaster_id=" + broadcasterId, body.toString());
+        if (response.status() == 204) {
+            eventSub.events().updateCategory(categoryId, matchedName);
+            return "Successfully updated stream category to: " + matchedName;
+        } else {
+            return String.format("Failed to update stream category: HTTP %d\nResponse: %s", response.status(), response.body());
         }
     }
 }
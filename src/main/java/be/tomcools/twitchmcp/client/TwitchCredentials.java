@@ -0,0 +1,289 @@
+package be.tomcools.twitchmcp.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the credentials used for Helix calls.
+ * The token is validated once through {@code oauth2/validate}; scopes, expiry and the ready-made
+ * Authorization and Client-Id headers are cached in an immutable {@link Snapshot} until the credentials change.
+ */
+@ApplicationScoped
+public class TwitchCredentials {
+
+    private static final Logger LOG = Logger.getLogger(TwitchCredentials.class);
+
+    // Twitch asks apps to re-validate tokens at least once an hour
+    private static final Duration MAX_VALIDATION_AGE = Duration.ofHours(1);
+    private static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(1);
+
+    @ConfigProperty(name = "twitch.auth")
+    String authToken;
+
+    @ConfigProperty(name = "twitch.client_id")
+    String clientId;
+
+    @ConfigProperty(name = "twitch.oauth.url", defaultValue = "https://id.twitch.tv/oauth2")
+    String oauthUrl;
+
+    @ConfigProperty(name = "twitch.refresh_token")
+    Optional<String> refreshToken;
+
+    @ConfigProperty(name = "twitch.client_secret")
+    Optional<String> clientSecret;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    private final AtomicReference<String> currentRefreshToken = new AtomicReference<>();
+    private final Object scheduleLock = new Object();
+    private ScheduledExecutorService scheduler;
+    private boolean ownsScheduler;
+    private ScheduledFuture<?> nextCheck;
+
+    /**
+     * Immutable view of one set of credentials. Callers keep the instance they read for the duration of a
+     * request, so a rotation never changes the headers of a request that is already in flight.
+     */
+    public record Snapshot(String accessToken, String clientId, String authorization,
+                           Set<String> scopes, String login, String userId,
+                           Instant expiresAt, Instant validatedAt, boolean valid) {
+
+        public boolean isValidated() {
+            return validatedAt != null;
+        }
+
+        public boolean hasScope(String scope) {
+            // Before the first validation the scopes are unknown, so let the call through
+            return !isValidated() || scopes.contains(scope);
+        }
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        start(Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "twitch-credentials");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        stop();
+    }
+
+    /**
+     * Starts validating and refreshing on {@code executor}. Tenant contexts pass a shared executor they keep
+     * running after {@link #stop()}; the application instance owns its own.
+     */
+    void start(ScheduledExecutorService executor, boolean ownsExecutor) {
+        synchronized (scheduleLock) {
+            scheduler = executor;
+            ownsScheduler = ownsExecutor;
+        }
+        refreshToken.ifPresent(currentRefreshToken::set);
+        current.set(unvalidated(authToken, clientId));
+        if (isConfigured()) {
+            schedule(Duration.ZERO);
+        }
+    }
+
+    void stop() {
+        synchronized (scheduleLock) {
+            if (nextCheck != null) {
+                nextCheck.cancel(false);
+            }
+            if (scheduler != null && ownsScheduler) {
+                scheduler.shutdownNow();
+            }
+            scheduler = null;
+        }
+    }
+
+    public Snapshot current() {
+        Snapshot snapshot = current.get();
+        if (snapshot == null) {
+            // Used before startup completed; build the headers from configuration
+            snapshot = unvalidated(authToken, clientId);
+            current.compareAndSet(null, snapshot);
+            snapshot = current.get();
+        }
+        return snapshot;
+    }
+
+    public boolean isConfigured() {
+        String token = current().accessToken();
+        return token != null && !token.isEmpty() && !token.equals("placeholder");
+    }
+
+    /**
+     * Returns an error message when the cached validation already tells us a call would fail, or null.
+     */
+    public String checkUsable(String requiredScope) {
+        Snapshot snapshot = current();
+        if (snapshot.isValidated() && !snapshot.valid()) {
+            return "Twitch OAuth token is invalid or expired.";
+        }
+        if (requiredScope != null && !snapshot.hasScope(requiredScope)) {
+            return "Twitch OAuth token is missing the required scope: " + requiredScope;
+        }
+        return null;
+    }
+
+    /**
+     * Atomically swaps in new credentials and validates them. Requests already holding the previous
+     * snapshot finish with it.
+     */
+    public Snapshot rotate(String newToken, String newClientId, String newRefreshToken) {
+        if (newRefreshToken != null && !newRefreshToken.isEmpty()) {
+            currentRefreshToken.set(newRefreshToken);
+        }
+        String effectiveClientId = newClientId != null ? newClientId : current().clientId();
+        current.set(unvalidated(newToken, effectiveClientId));
+        return validate();
+    }
+
+    /**
+     * Called when Helix answers 401, so the next call does not repeat the same failure.
+     */
+    public void onUnauthorized() {
+        Snapshot snapshot = current();
+        current.compareAndSet(snapshot, new Snapshot(snapshot.accessToken(), snapshot.clientId(), snapshot.authorization(),
+                snapshot.scopes(), snapshot.login(), snapshot.userId(), snapshot.expiresAt(), Instant.now(), false));
+        schedule(Duration.ZERO);
+    }
+
+    public synchronized Snapshot validate() {
+        Snapshot snapshot = current();
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            HttpGet httpGet = new HttpGet(oauthUrl + "/validate");
+            httpGet.setHeader("Authorization", "OAuth " + snapshot.accessToken());
+            Snapshot validated = httpClient.execute(httpGet, response -> {
+                String body = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : "";
+                if (response.getCode() != 200) {
+                    LOG.warnf("Twitch token validation failed: HTTP %d", response.getCode());
+                    return new Snapshot(snapshot.accessToken(), snapshot.clientId(), snapshot.authorization(),
+                            Set.of(), null, null, null, Instant.now(), false);
+                }
+                JsonNode json = objectMapper.readTree(body);
+                Set<String> scopes = new HashSet<>();
+                json.path("scopes").forEach(scope -> scopes.add(scope.asText()));
+                Instant now = Instant.now();
+                long expiresIn = json.path("expires_in").asLong(0);
+                // expires_in is 0 for tokens that never expire
+                Instant expiresAt = expiresIn > 0 ? now.plusSeconds(expiresIn) : null;
+                String validatedClientId = json.path("client_id").asText(snapshot.clientId());
+                return new Snapshot(snapshot.accessToken(), validatedClientId, snapshot.authorization(),
+                        Set.copyOf(scopes), json.path("login").asText(null), json.path("user_id").asText(null),
+                        expiresAt, now, true);
+            });
+            // Only publish if nobody rotated the token while we were validating
+            current.compareAndSet(snapshot, validated);
+        } catch (Exception e) {
+            LOG.warnf("Could not validate Twitch token: %s", e.getMessage());
+        }
+        return current();
+    }
+
+    public synchronized boolean refresh() {
+        String token = currentRefreshToken.get();
+        if (token == null || token.isEmpty() || clientSecret.isEmpty()) {
+            return false;
+        }
+        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+            HttpPost httpPost = new HttpPost(oauthUrl + "/token");
+            String form = "grant_type=refresh_token"
+                    + "&refresh_token=" + URLEncoder.encode(token, StandardCharsets.UTF_8)
+                    + "&client_id=" + URLEncoder.encode(current().clientId(), StandardCharsets.UTF_8)
+                    + "&client_secret=" + URLEncoder.encode(clientSecret.get(), StandardCharsets.UTF_8);
+            httpPost.setEntity(new StringEntity(form, ContentType.APPLICATION_FORM_URLENCODED));
+            JsonNode json = httpClient.execute(httpPost, response -> {
+                if (response.getCode() != 200) {
+                    LOG.warnf("Twitch token refresh failed: HTTP %d", response.getCode());
+                    return null;
+                }
+                return objectMapper.readTree(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+            });
+            if (json == null || !json.hasNonNull("access_token")) {
+                return false;
+            }
+            rotate(json.get("access_token").asText(), null, json.path("refresh_token").asText(null));
+            return true;
+        } catch (Exception e) {
+            LOG.warnf("Could not refresh Twitch token: %s", e.getMessage());
+            return false;
+        }
+    }
+
+    private void check() {
+        Snapshot snapshot = current();
+        Instant now = Instant.now();
+        boolean expiring = snapshot.expiresAt() != null
+                && now.plus(REFRESH_MARGIN).isAfter(snapshot.expiresAt());
+        if ((expiring || (snapshot.isValidated() && !snapshot.valid())) && refresh()) {
+            snapshot = current();
+        } else {
+            snapshot = validate();
+        }
+        schedule(nextCheckDelay(snapshot, Instant.now()));
+    }
+
+    private Duration nextCheckDelay(Snapshot snapshot, Instant now) {
+        if (!snapshot.isValidated() || !snapshot.valid()) {
+            return RETRY_DELAY;
+        }
+        Duration delay = MAX_VALIDATION_AGE;
+        if (snapshot.expiresAt() != null) {
+            Duration untilRefresh = Duration.between(now, snapshot.expiresAt().minus(REFRESH_MARGIN));
+            if (untilRefresh.compareTo(delay) < 0) {
+                delay = untilRefresh.isNegative() ? Duration.ZERO : untilRefresh;
+            }
+        }
+        return delay;
+    }
+
+    private void schedule(Duration delay) {
+        synchronized (scheduleLock) {
+            if (scheduler == null || scheduler.isShutdown()) {
+                return;
+            }
+            if (nextCheck != null) {
+                nextCheck.cancel(false);
+            }
+            nextCheck = scheduler.schedule(this::check, delay.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static Snapshot unvalidated(String token, String clientId) {
+        String accessToken = token != null ? token.replace("oauth:", "") : null;
+        return new Snapshot(accessToken, clientId, "Bearer " + accessToken, Set.of(), null, null, null, null, true);
+    }
+}
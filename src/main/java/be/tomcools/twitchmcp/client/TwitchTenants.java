@@ -0,0 +1,513 @@
+package be.tomcools.twitchmcp.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.ProducerTemplate;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Pool of isolated Twitch contexts for the HTTP transport, one per broadcaster and credential set.
+ * Each context has its own credentials, chat connection, chat history and Helix connection pool, so concurrent
+ * tenants never see each other's configuration. Contexts are created on first use and evicted when idle, or
+ * least recently used first when their estimated memory exceeds the budget.
+ */
+@ApplicationScoped
+public class TwitchTenants {
+
+    private static final Logger LOG = Logger.getLogger(TwitchTenants.class);
+
+    // Rough fixed cost of a context without chat history: beans, IRC connection buffers, idle HTTP connections
+    private static final long CONTEXT_OVERHEAD_BYTES = 256 * 1024;
+    private static final Duration SWEEP_INTERVAL = Duration.ofSeconds(30);
+
+    @ConfigProperty(name = "twitch.tenants.idle_timeout", defaultValue = "PT30M")
+    Duration idleTimeout;
+
+    @ConfigProperty(name = "twitch.tenants.memory_budget_mb", defaultValue = "256")
+    long memoryBudgetMb;
+
+    @ConfigProperty(name = "twitch.tenants.helix_max_connections", defaultValue = "4")
+    int helixMaxConnections;
+
+    @ConfigProperty(name = "twitch.irc.host", defaultValue = "irc.chat.twitch.tv")
+    String ircHost;
+
+    @ConfigProperty(name = "twitch.irc.port", defaultValue = "6667")
+    int ircPort;
+
+    @ConfigProperty(name = "twitch.chat.max_messages", defaultValue = "100")
+    int maxMessages;
+
+    @ConfigProperty(name = "twitch.chat.retention", defaultValue = "PT1H")
+    Duration retention;
+
+    @ConfigProperty(name = "twitch.chat.context_messages", defaultValue = "500")
+    int contextMessages;
+
+    @ConfigProperty(name = "twitch.chat.context_tokens", defaultValue = "400")
+    int contextTokens;
+
+    @ConfigProperty(name = "twitch.channel.state_ttl", defaultValue = "PT5M")
+    Duration channelStateTtl;
+
+    @ConfigProperty(name = "twitch.chat.history_budget_mb", defaultValue = "32")
+    int historyBudgetMb;
+
+    @ConfigProperty(name = "twitch.chat.hot_tier_mb", defaultValue = "4")
+    int hotTierMb;
+
+    @ConfigProperty(name = "twitch.events.buffer_size", defaultValue = "256")
+    int eventBufferSize;
+
+    @ConfigProperty(name = "twitch.strikes.half_life", defaultValue = "P7D")
+    Duration strikeHalfLife;
+
+    @ConfigProperty(name = "twitch.eventsub.url", defaultValue = "wss://eventsub.wss.twitch.tv/ws")
+    String eventSubUrl;
+
+    @ConfigProperty(name = "twitch.eventsub.enabled", defaultValue = "true")
+    boolean eventSubEnabled;
+
+    @ConfigProperty(name = "twitch.clips.merge_window", defaultValue = "PT15S")
+    Duration clipMergeWindow;
+
+    @ConfigProperty(name = "twitch.hype.enabled", defaultValue = "true")
+    boolean hypeEnabled;
+
+    @ConfigProperty(name = "twitch.hype.threshold", defaultValue = "3.0")
+    double hypeThreshold;
+
+    @ConfigProperty(name = "twitch.hype.min_rate", defaultValue = "3")
+    int hypeMinRate;
+
+    @ConfigProperty(name = "twitch.hype.auto_clip", defaultValue = "false")
+    boolean hypeAutoClip;
+
+    @ConfigProperty(name = "twitch.hype.cooldown", defaultValue = "PT1M")
+    Duration hypeCooldown;
+
+    @ConfigProperty(name = "twitch.helix.url", defaultValue = "https://api.twitch.tv/helix")
+    String helixUrl;
+
+    @ConfigProperty(name = "twitch.oauth.url", defaultValue = "https://id.twitch.tv/oauth2")
+    String oauthUrl;
+
+    @Inject
+    CamelContext camelContext;
+
+    @Inject
+    ProducerTemplate producerTemplate;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Connection settings one tenant passes with its requests.
+     */
+    public record TenantConfig(String channel, String auth, String clientId, String broadcasterId) {
+
+        // Readable in route ids and logs, while the hash keeps different tokens for one channel apart
+        String key() {
+            return channel.toLowerCase() + "-" + hash(broadcasterId + '\n' + clientId + '\n' + auth);
+        }
+    }
+
+    /**
+     * Chat history and strikes of one context, handed to the server that takes its channel over.
+     */
+    public record Handoff(long firstSequence, List<String> messages, List<StrikeLedger.Strike> strikes) {
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        // Shared by the sweeper and the token checks of every context, instead of a thread per tenant
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "twitch-tenants");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL.toMillis(), SWEEP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        Gauge.builder("twitch.tenants.active", tenants, Map::size)
+                .description("Tenant contexts currently held by the HTTP transport")
+                .register(registry);
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        for (Tenant tenant : List.copyOf(tenants.values())) {
+            evict(tenant, "shutdown", true);
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs {@code call} against the context for {@code config}, creating and connecting it on first use.
+     * The context cannot be evicted while the call is running.
+     */
+    public <T> T withClient(TenantConfig config, Function<TwitchClient, T> call) {
+        while (true) {
+            Tenant tenant = tenants.computeIfAbsent(config.key(), key -> create(key, config));
+            if (!tenant.acquire()) {
+                // Evicted between lookup and acquire; the next lookup creates a fresh context
+                continue;
+            }
+            try {
+                boolean created = tenant.ensureStarted();
+                if (created && estimatedBytes() > budgetBytes()) {
+                    scheduler.execute(this::sweep);
+                }
+                return call.apply(tenant.client);
+            } catch (RuntimeException e) {
+                if (!tenant.isStarted()) {
+                    tenants.remove(tenant.key, tenant);
+                }
+                throw e;
+            } finally {
+                tenant.release();
+            }
+        }
+    }
+
+    /**
+     * Closes the context for {@code config} now instead of waiting for it to go idle, unless it is still in use.
+     */
+    public void release(TenantConfig config) {
+        Tenant tenant = tenants.get(config.key());
+        if (tenant != null) {
+            evict(tenant, "released", false);
+        }
+    }
+
+    public int size() {
+        return tenants.size();
+    }
+
+    public List<TenantConfig> configs() {
+        return tenants.values().stream().map(tenant -> tenant.config).toList();
+    }
+
+    /**
+     * Snapshot of the context for {@code config} to hand to another server, or null when there is none here.
+     * The context keeps running until {@link #handedOff} closes it.
+     */
+    public Handoff export(TenantConfig config) {
+        Tenant tenant = tenants.get(config.key());
+        if (tenant == null) {
+            return null;
+        }
+        ChatHistory.Page history = tenant.route.history().since(0, Integer.MAX_VALUE);
+        long firstSequence = history.messages().isEmpty() ? 0 : history.messages().get(0).sequence();
+        return new Handoff(firstSequence, history.messages().stream().map(ChatHistory.Entry::message).toList(),
+                tenant.client.strikes.snapshot());
+    }
+
+    /**
+     * Closes a context another server has taken over, ending its event streams; false while a request still uses it.
+     */
+    public boolean handedOff(TenantConfig config) {
+        Tenant tenant = tenants.get(config.key());
+        return tenant == null || evict(tenant, "handoff", true);
+    }
+
+    /**
+     * Opens the context for {@code config} with the state another server handed over. A context that is already
+     * open here keeps its own chat history and only takes over the strikes.
+     */
+    public void adopt(TenantConfig config, Handoff handoff) {
+        Tenant tenant = tenants.computeIfAbsent(config.key(), key -> create(key, config));
+        if (!handoff.messages().isEmpty() && !tenant.route.history().restore(handoff.firstSequence(), handoff.messages())) {
+            LOG.infof("Twitch context %s was already open, keeping its own chat history", config.key());
+        }
+        tenant.client.strikes.merge(handoff.strikes());
+        // Join chat right away, so the channel has no gap in its history
+        withClient(config, client -> null);
+    }
+
+    private Tenant create(String key, TenantConfig config) {
+        TwitchCredentials credentials = new TwitchCredentials();
+        credentials.authToken = config.auth();
+        credentials.clientId = config.clientId();
+        credentials.oauthUrl = oauthUrl;
+        credentials.refreshToken = Optional.empty();
+        credentials.clientSecret = Optional.empty();
+        credentials.objectMapper = objectMapper;
+
+        HelixApi helix = new HelixApi();
+        helix.helixUrl = helixUrl;
+        helix.maxConnections = helixMaxConnections;
+        helix.credentials = credentials;
+        helix.registry = registry;
+
+        // Each tenant learns from its own moderators only, and neither its model nor its strikes are persisted
+        ChatClassifier classifier = ChatClassifier.inMemory(16);
+        StrikeLedger strikes = StrikeLedger.inMemory(strikeHalfLife);
+
+        EventSubClient eventSub = new EventSubClient();
+        eventSub.url = eventSubUrl;
+        eventSub.enabled = eventSubEnabled;
+        eventSub.broadcasterId = config.broadcasterId();
+        eventSub.helix = helix;
+        eventSub.objectMapper = objectMapper;
+
+        ClipPipeline clips = new ClipPipeline();
+        clips.mergeWindow = clipMergeWindow;
+        clips.broadcasterId = config.broadcasterId();
+        clips.helix = helix;
+        clips.objectMapper = objectMapper;
+
+        HypeDetector hype = new HypeDetector();
+        hype.enabled = hypeEnabled;
+        hype.threshold = hypeThreshold;
+        hype.minRate = hypeMinRate;
+        hype.autoClip = hypeAutoClip;
+        hype.cooldown = hypeCooldown;
+        hype.clips = clips;
+
+        CamelRoute route = new CamelRoute();
+        route.channel = config.channel();
+        route.authToken = config.auth();
+        route.ircHost = ircHost;
+        route.ircPort = ircPort;
+        route.maxMessages = maxMessages;
+        route.retention = retention;
+        route.historyBudgetMb = historyBudgetMb;
+        route.hotTierMb = hotTierMb;
+        route.eventBufferSize = eventBufferSize;
+        route.registry = registry;
+        route.classifier = classifier;
+        route.hype = hype;
+        route.routeSuffix = "-" + key;
+
+        TwitchClient client = new TwitchClient();
+        client.producerTemplate = producerTemplate;
+        client.camelRoute = route;
+        client.credentials = credentials;
+        client.helix = helix;
+        client.classifier = classifier;
+        client.strikes = strikes;
+        client.eventSub = eventSub;
+        client.clips = clips;
+        client.hype = hype;
+        client.objectMapper = objectMapper;
+        client.broadcasterId = config.broadcasterId();
+        client.contextMessages = contextMessages;
+        client.contextTokens = contextTokens;
+        client.channelStateTtl = channelStateTtl;
+
+        return new Tenant(key, config, client, route, credentials, helix);
+    }
+
+    // Evicts idle contexts, then the least recently used ones until the pool fits in its memory budget
+    void sweep() {
+        try {
+            long idleBefore = System.currentTimeMillis() - idleTimeout.toMillis();
+            for (Tenant tenant : List.copyOf(tenants.values())) {
+                if (tenant.lastUsed < idleBefore) {
+                    evict(tenant, "idle", false);
+                }
+            }
+
+            long total = estimatedBytes();
+            long budget = budgetBytes();
+            if (total <= budget) {
+                return;
+            }
+            List<Tenant> byAge = new ArrayList<>(tenants.values());
+            byAge.sort(Comparator.comparingLong(tenant -> tenant.lastUsed));
+            for (Tenant tenant : byAge) {
+                if (total <= budget) {
+                    break;
+                }
+                long bytes = tenant.estimatedBytes();
+                if (evict(tenant, "memory", false)) {
+                    total -= bytes;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warnf("Tenant sweep failed: %s", e.getMessage());
+        }
+    }
+
+    private boolean evict(Tenant tenant, String reason, boolean force) {
+        if (!tenant.close(force)) {
+            return false;
+        }
+        tenants.remove(tenant.key, tenant);
+        Counter.builder("twitch.tenants.evictions")
+                .description("Tenant contexts closed by the pool")
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+        LOG.infof("Closed Twitch context %s (%s)", tenant.key, reason);
+        return true;
+    }
+
+    private long estimatedBytes() {
+        long total = 0;
+        for (Tenant tenant : tenants.values()) {
+            total += tenant.estimatedBytes();
+        }
+        return total;
+    }
+
+    private long budgetBytes() {
+        return memoryBudgetMb * 1024 * 1024;
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * One tenant's context. Starting, acquiring and closing are synchronized on the instance, so a context is
+     * never closed while a request is using it and never used after it was closed.
+     */
+    private final class Tenant {
+        final String key;
+        final TenantConfig config;
+        final TwitchClient client;
+        final CamelRoute route;
+        final TwitchCredentials credentials;
+        final HelixApi helix;
+
+        volatile long lastUsed = System.currentTimeMillis();
+        private int inFlight;
+        private boolean started;
+        private boolean closed;
+
+        Tenant(String key, TenantConfig config, TwitchClient client, CamelRoute route, TwitchCredentials credentials,
+               HelixApi helix) {
+            this.key = key;
+            this.config = config;
+            this.client = client;
+            this.route = route;
+            this.credentials = credentials;
+            this.helix = helix;
+        }
+
+        synchronized boolean acquire() {
+            if (closed) {
+                return false;
+            }
+            inFlight++;
+            lastUsed = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized void release() {
+            inFlight--;
+            lastUsed = System.currentTimeMillis();
+        }
+
+        synchronized boolean isStarted() {
+            return started;
+        }
+
+        // Returns true when this call did the start
+        synchronized boolean ensureStarted() {
+            if (started) {
+                return false;
+            }
+            credentials.start(scheduler, false);
+            try {
+                camelContext.addRoutes(route);
+                route.connect();
+            } catch (Exception e) {
+                shutdown();
+                closed = true;
+                throw new IllegalStateException("Could not connect to Twitch chat #" + route.channel + ": " + e.getMessage(), e);
+            }
+            started = true;
+            LOG.infof("Opened Twitch context %s", key);
+            return true;
+        }
+
+        // Open chat event streams keep a context alive like a running request does, unless forced
+        synchronized boolean close(boolean force) {
+            if (closed || inFlight > 0 || (!force && route.events().hasSubscribers())) {
+                return false;
+            }
+            closed = true;
+            if (started) {
+                shutdown();
+            }
+            return true;
+        }
+
+        long estimatedBytes() {
+            return CONTEXT_OVERHEAD_BYTES + route.getHistoryBytes();
+        }
+
+        private void shutdown() {
+            credentials.stop();
+            route.events().closeAll();
+            for (String routeId : List.of(route.receiveRouteId(), route.sendRouteId())) {
+                try {
+                    if (camelContext.getRoute(routeId) != null) {
+                        camelContext.getRouteController().stopRoute(routeId);
+                        camelContext.removeRoute(routeId);
+                    }
+                } catch (Exception e) {
+                    LOG.warnf("Could not remove route %s: %s", routeId, e.getMessage());
+                }
+            }
+            // The IRC endpoint holds the connection and its password; drop it along with the routes
+            for (String uri : List.of(route.ircUrl(), route.sendEndpoint())) {
+                try {
+                    Endpoint endpoint = camelContext.hasEndpoint(uri);
+                    if (endpoint != null) {
+                        camelContext.removeEndpoint(endpoint);
+                    }
+                } catch (Exception e) {
+                    LOG.warnf("Could not remove endpoint for %s: %s", key, e.getMessage());
+                }
+            }
+            client.eventSub.close();
+            // Before Helix, so no pending clip lookup runs against a closed client
+            client.clips.stop();
+            try {
+                helix.close();
+            } catch (Exception e) {
+                LOG.warnf("Could not close Helix client for %s: %s", key, e.getMessage());
+            }
+            route.clearMessages();
+        }
+    }
+}
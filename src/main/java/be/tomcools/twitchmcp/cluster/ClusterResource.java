@@ -0,0 +1,74 @@
+package be.tomcools.twitchmcp.cluster;
+
+import be.tomcools.twitchmcp.client.TwitchTenants;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.Map;
+
+/**
+ * Internal endpoints between the servers of a cluster: heartbeats and channel handoffs. Forwarded tool calls go to
+ * {@code POST /mcp/forward}, next to the tools they run.
+ */
+@Path("/cluster")
+@Produces(MediaType.APPLICATION_JSON)
+public class ClusterResource {
+
+    @Inject
+    TwitchCluster cluster;
+
+    @Inject
+    TwitchTenants tenants;
+
+    /**
+     * A channel context handed over by the server that owned it before.
+     */
+    public record HandoffRequest(TwitchTenants.TenantConfig config, TwitchTenants.Handoff handoff) {
+    }
+
+    /**
+     * Heartbeat; also shows which servers this one currently sees.
+     */
+    @GET
+    @Path("ping")
+    public Response ping() {
+        if (!cluster.enabled()) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(Map.of("error", "Cluster mode is not enabled"))
+                    .build();
+        }
+        return Response.ok(Map.of("node", cluster.self(), "live", cluster.liveNodes())).build();
+    }
+
+    @POST
+    @Path("handoff")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response handoff(@HeaderParam(TwitchCluster.SECRET_HEADER) String secret, HandoffRequest request) {
+        if (!cluster.authorized(secret)) {
+            return Response.status(Response.Status.UNAUTHORIZED)
+                    .entity(Map.of("error", "Missing or wrong " + TwitchCluster.SECRET_HEADER))
+                    .build();
+        }
+        if (request == null || request.config() == null || request.handoff() == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(Map.of("error", "config and handoff are required"))
+                    .build();
+        }
+        try {
+            tenants.adopt(request.config(), request.handoff());
+            return Response.ok(Map.of("channel", request.config().channel(),
+                    "messages", request.handoff().messages().size())).build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(Map.of("error", "Failed to take over #" + request.config().channel() + ": " + e.getMessage()))
+                    .build();
+        }
+    }
+}
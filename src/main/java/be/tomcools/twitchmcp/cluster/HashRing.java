@@ -0,0 +1,70 @@
+package be.tomcools.twitchmcp.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Consistent hash ring over the live nodes. Each node is placed at many points, so channels spread evenly and a node
+ * joining or leaving only moves the channels between its points and their predecessors. Immutable; membership changes
+ * build a new ring.
+ */
+final class HashRing {
+
+    private static final int POINTS_PER_NODE = 128;
+
+    private final long[] points;
+    private final String[] owners;
+    private final List<String> nodes;
+
+    HashRing(Collection<String> nodes) {
+        this.nodes = nodes.stream().sorted().toList();
+        long[][] placed = new long[this.nodes.size() * POINTS_PER_NODE][];
+        int next = 0;
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                placed[next++] = new long[]{hash(this.nodes.get(node) + "#" + i), node};
+            }
+        }
+        // Ties between nodes are broken by node order, so every server builds the same ring
+        Arrays.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[placed.length];
+        owners = new String[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = this.nodes.get((int) placed[i][1]);
+        }
+    }
+
+    /**
+     * The node owning {@code key}: the first point at or after its hash, wrapping around; null on an empty ring.
+     */
+    String owner(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so similar names land far apart
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53ef83bL;
+        return hash ^ (hash >>> 33);
+    }
+}
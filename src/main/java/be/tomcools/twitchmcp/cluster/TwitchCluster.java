@@ -0,0 +1,358 @@
+package be.tomcools.twitchmcp.cluster;
+
+import be.tomcools.twitchmcp.client.TwitchTenants;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster mode of the HTTP transport: the servers in {@code twitch.cluster.peers} partition channels among themselves
+ * with a consistent hash ring over the servers that answer heartbeats. A tool call for a channel owned by another
+ * server is forwarded to it, so clients can call any server. When membership changes, every server hands the open
+ * contexts of channels it no longer owns (chat history and strikes) to their new owner and closes them.
+ * <p>
+ * Membership is the static peer list; a peer missing three heartbeats in a row, or failing a forwarded call, leaves
+ * the ring until it answers again. State of a server that died is not recovered: its channels start fresh elsewhere.
+ */
+@ApplicationScoped
+public class TwitchCluster {
+
+    private static final Logger LOG = Logger.getLogger(TwitchCluster.class);
+
+    public static final String SECRET_HEADER = "X-Twitch-Cluster-Secret";
+    private static final int MISSED_HEARTBEATS = 3;
+
+    // Base URLs of all servers, this one included, e.g. http://10.0.0.1:8080,http://10.0.0.2:8080
+    @ConfigProperty(name = "twitch.cluster.peers")
+    Optional<String> peers;
+
+    // This server's URL as it appears in the peer list
+    @ConfigProperty(name = "twitch.cluster.self")
+    Optional<String> self;
+
+    // Forwarded calls carry the callers' Twitch tokens, so servers only accept them with this shared secret
+    @ConfigProperty(name = "twitch.cluster.secret")
+    Optional<String> secret;
+
+    @ConfigProperty(name = "twitch.cluster.heartbeat", defaultValue = "PT2S")
+    Duration heartbeat;
+
+    @ConfigProperty(name = "twitch.cluster.call_timeout", defaultValue = "PT30S")
+    Duration callTimeout;
+
+    @Inject
+    TwitchTenants tenants;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    MeterRegistry registry;
+
+    private static final class Peer {
+        final String url;
+        // Guarded by the cluster
+        boolean alive = true;
+        int missed;
+
+        Peer(String url) {
+            this.url = url;
+        }
+    }
+
+    // Other servers by URL; fixed after startup
+    private final Map<String, Peer> members = new LinkedHashMap<>();
+    private String selfUrl;
+    private volatile HashRing ring;
+    private HttpClient http;
+    private ScheduledExecutorService scheduler;
+
+    void onStart(@Observes StartupEvent ev) {
+        List<String> urls = peers.map(TwitchCluster::parse).orElse(List.of());
+        if (urls.isEmpty()) {
+            return;
+        }
+        String configuredSelf = self.map(TwitchCluster::normalize).orElse(null);
+        if (configuredSelf == null || !urls.contains(configuredSelf)) {
+            LOG.warn("twitch.cluster.self must be one of twitch.cluster.peers; running as a single server");
+            return;
+        }
+        if (secret.filter(value -> !value.isBlank()).isEmpty()) {
+            LOG.warn("twitch.cluster.secret is not set; running as a single server");
+            return;
+        }
+        selfUrl = configuredSelf;
+        for (String url : urls) {
+            if (!url.equals(selfUrl)) {
+                members.put(url, new Peer(url));
+            }
+        }
+        // Internal calls are short JSON requests between known servers; HTTP/1.1 keeps them on pooled connections
+        http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        // Peers start out alive, so a cluster starting together does not shuffle channels around
+        ring = new HashRing(urls);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "twitch-cluster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+        Gauge.builder("twitch.cluster.nodes.alive", this, cluster -> cluster.ring.nodes().size())
+                .description("Servers currently in the cluster's hash ring, this one included")
+                .register(registry);
+        LOG.infof("Cluster mode: %s, one of %d servers", selfUrl, urls.size());
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public boolean enabled() {
+        return ring != null;
+    }
+
+    public String self() {
+        return selfUrl;
+    }
+
+    public List<String> liveNodes() {
+        HashRing current = ring;
+        return current != null ? current.nodes() : List.of();
+    }
+
+    /**
+     * The server owning {@code channel}, or null when it is this one or cluster mode is off.
+     */
+    public String remoteOwner(String channel) {
+        HashRing current = ring;
+        if (current == null) {
+            return null;
+        }
+        String owner = current.owner(channel.toLowerCase(Locale.ROOT));
+        return owner == null || owner.equals(selfUrl) ? null : owner;
+    }
+
+    // Compared in constant time, so the secret cannot be guessed from response times
+    public boolean authorized(String presented) {
+        return enabled() && presented != null && MessageDigest.isEqual(
+                presented.getBytes(StandardCharsets.UTF_8), secret.get().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs a tool call on the server owning the tenant's channel and returns its result. Empty when this server owns
+     * the channel, also when the owner refused the connection, is dropped from the ring and the channel of an
+     * idempotent call moved here.
+     * <p>
+     * Only a refused connection proves the owner never saw the call. A timeout or an unreadable answer may come after
+     * the owner acted, so those fail the call and leave the owner in the ring; a tool with side effects is never run
+     * a second time, here or elsewhere.
+     *
+     * @param idempotent whether the tool may run again after a failed connection, i.e. only reads
+     * @throws IllegalStateException when the owner ran the call and it failed, or the call could not be completed
+     */
+    public Optional<Object> forward(TwitchTenants.TenantConfig config, String tool, Map<String, Object> arguments,
+                                    boolean idempotent) {
+        for (int attempt = 0; attempt <= members.size(); attempt++) {
+            String owner = remoteOwner(config.channel());
+            if (owner == null) {
+                return Optional.empty();
+            }
+            Map<String, Object> call = new LinkedHashMap<>();
+            call.put("config", config);
+            call.put("tool", tool);
+            call.put("arguments", arguments);
+            try {
+                HttpResponse<String> response = post(owner, "/mcp/forward", call);
+                Counter.builder("twitch.cluster.calls.forwarded")
+                        .description("Tool calls forwarded to the server owning the channel")
+                        .register(registry)
+                        .increment();
+                JsonNode body = objectMapper.readTree(response.body());
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException(body.path("error").asText("HTTP " + response.statusCode() + " from " + owner));
+                }
+                Object result = objectMapper.convertValue(body.path("result"), Object.class);
+                return Optional.of(result != null ? result : "");
+            } catch (ConnectException | HttpConnectTimeoutException e) {
+                unreachable(owner, e.getMessage());
+                if (!idempotent) {
+                    throw new IllegalStateException("Could not reach " + owner + ", which serves #" + config.channel()
+                            + "; " + tool + " was not run, try again", e);
+                }
+            } catch (IOException e) {
+                // Covers read timeouts and malformed answers; the owner may have acted, so nothing is retried
+                throw new IllegalStateException("Forwarding " + tool + " to " + owner + " failed: " + e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while forwarding to " + owner, e);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private HttpResponse<String> post(String node, String path, Object body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + path))
+                .timeout(callTimeout)
+                .header("Content-Type", "application/json")
+                .header(SECRET_HEADER, secret.get())
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                .build();
+        return http.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void heartbeat() {
+        try {
+            List<CompletableFuture<Boolean>> pings = new ArrayList<>();
+            for (Peer peer : members.values()) {
+                HttpRequest ping = HttpRequest.newBuilder(URI.create(peer.url + "/cluster/ping"))
+                        .timeout(heartbeat)
+                        .GET()
+                        .build();
+                pings.add(http.sendAsync(ping, HttpResponse.BodyHandlers.discarding())
+                        .handle((response, error) -> seen(peer, error == null && response.statusCode() == 200)));
+            }
+            boolean changed = false;
+            for (CompletableFuture<Boolean> ping : pings) {
+                changed |= ping.join();
+            }
+            if (changed) {
+                rebuild();
+            }
+            rebalance();
+        } catch (RuntimeException e) {
+            LOG.warnf("Cluster heartbeat failed: %s", e.getMessage());
+        }
+    }
+
+    // Records a heartbeat answer; true when the peer joined or left the ring
+    private synchronized boolean seen(Peer peer, boolean answered) {
+        if (answered) {
+            peer.missed = 0;
+            if (!peer.alive) {
+                peer.alive = true;
+                LOG.infof("Cluster peer %s is back", peer.url);
+                return true;
+            }
+            return false;
+        }
+        peer.missed++;
+        if (peer.alive && peer.missed >= MISSED_HEARTBEATS) {
+            peer.alive = false;
+            LOG.warnf("Cluster peer %s missed %d heartbeats", peer.url, peer.missed);
+            return true;
+        }
+        return false;
+    }
+
+    private void unreachable(String url, String reason) {
+        synchronized (this) {
+            Peer peer = members.get(url);
+            if (peer == null || !peer.alive) {
+                return;
+            }
+            peer.alive = false;
+            peer.missed = MISSED_HEARTBEATS;
+        }
+        LOG.warnf("Cluster peer %s is unreachable: %s", url, reason);
+        rebuild();
+    }
+
+    private synchronized void rebuild() {
+        List<String> nodes = new ArrayList<>();
+        nodes.add(selfUrl);
+        for (Peer peer : members.values()) {
+            if (peer.alive) {
+                nodes.add(peer.url);
+            }
+        }
+        ring = new HashRing(nodes);
+        LOG.infof("Cluster membership changed, live servers: %s", ring.nodes());
+    }
+
+    // Hands every open context of a channel another server now owns to that server; a context still in use is
+    // handed over again on the next heartbeat
+    private void rebalance() {
+        for (TwitchTenants.TenantConfig config : tenants.configs()) {
+            String owner = remoteOwner(config.channel());
+            if (owner == null) {
+                continue;
+            }
+            TwitchTenants.Handoff handoff = tenants.export(config);
+            if (handoff == null) {
+                continue;
+            }
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("config", config);
+            request.put("handoff", handoff);
+            try {
+                HttpResponse<String> response = post(owner, "/cluster/handoff", request);
+                if (response.statusCode() != 200) {
+                    LOG.warnf("Could not hand #%s over to %s: HTTP %d %s", config.channel(), owner,
+                            response.statusCode(), response.body());
+                    continue;
+                }
+                tenants.handedOff(config);
+                Counter.builder("twitch.cluster.handoffs")
+                        .description("Channel contexts handed over to the server now owning them")
+                        .register(registry)
+                        .increment();
+                LOG.infof("Handed #%s over to %s with %d chat messages", config.channel(), owner, handoff.messages().size());
+            } catch (IOException e) {
+                LOG.warnf("Could not hand #%s over to %s: %s", config.channel(), owner, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static List<String> parse(String urls) {
+        return Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(TwitchCluster::normalize)
+                .distinct()
+                .toList();
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
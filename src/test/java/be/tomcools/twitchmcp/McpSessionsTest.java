@@ -0,0 +1,141 @@
+package be.tomcools.twitchmcp;
+
+import be.tomcools.twitchmcp.client.ChatEvent;
+import be.tomcools.twitchmcp.client.ChatEventBus;
+import be.tomcools.twitchmcp.client.ChatEventFilter;
+import be.tomcools.twitchmcp.client.TwitchTenants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class McpSessionsTest {
+
+    private static final TwitchTenants.TenantConfig CONFIG =
+            new TwitchTenants.TenantConfig("channel", "oauth:token", "client", "42");
+
+    private final List<TwitchTenants.TenantConfig> released = new CopyOnWriteArrayList<>();
+    private McpSessions sessions;
+
+    @BeforeEach
+    void start() {
+        sessions = new McpSessions();
+        sessions.idleTimeout = Duration.ofSeconds(2);
+        sessions.maxSessions = 3;
+        sessions.registry = new SimpleMeterRegistry();
+        sessions.tenants = new TwitchTenants() {
+            @Override
+            public void release(TenantConfig config) {
+                released.add(config);
+            }
+        };
+        sessions.onStart(null);
+    }
+
+    @AfterEach
+    void stop() {
+        sessions.onStop(null);
+    }
+
+    @Test
+    void findsOpenSessions() {
+        McpSession session = sessions.create(null);
+        assertSame(session, sessions.get(session.id()));
+        assertNull(sessions.get("unknown"));
+    }
+
+    @Test
+    void refusesSessionsOverTheLimit() {
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(sessions.create(null));
+        }
+        assertNull(sessions.create(null));
+    }
+
+    @Test
+    void expiresIdleSessions() throws InterruptedException {
+        McpSession session = sessions.create(null);
+        assertTrue(awaitClosed(session, Duration.ofSeconds(5)));
+        assertNull(sessions.get(session.id()));
+        assertEquals(0.0, sessions.registry.get("mcp.sessions.active").gauge().value());
+    }
+
+    @Test
+    void keepsSessionsInUseAlive() throws InterruptedException {
+        McpSession used = sessions.create(null);
+        McpSession idle = sessions.create(null);
+        long until = System.currentTimeMillis() + 4000;
+        while (System.currentTimeMillis() < until) {
+            assertNotNull(sessions.get(used.id()));
+            Thread.sleep(250);
+        }
+        assertFalse(used.isClosed());
+        assertTrue(idle.isClosed());
+    }
+
+    @Test
+    void keepsSessionsReadingAnEventStreamAlive() throws InterruptedException {
+        McpSession streaming = sessions.create(null);
+        ChatEventBus.Subscription subscription = new ChatEventBus(16).subscribe(ChatEventFilter.ALL,
+                new ChatEventBus.Subscriber() {
+                    @Override
+                    public CompletionStage<?> send(ChatEvent event) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+                });
+        streaming.addSubscription(subscription);
+
+        Thread.sleep(4000);
+        assertFalse(streaming.isClosed());
+        assertSame(streaming, sessions.get(streaming.id()));
+
+        streaming.removeSubscription(subscription);
+        assertTrue(awaitClosed(streaming, Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void releasesTheTenantWithItsLastSession() {
+        McpSession first = sessions.create(CONFIG);
+        McpSession second = sessions.create(CONFIG);
+
+        assertTrue(sessions.close(first.id()));
+        assertTrue(first.isClosed());
+        assertEquals(List.of(), released);
+
+        assertTrue(sessions.close(second.id()));
+        assertEquals(List.of(CONFIG), released);
+        assertFalse(sessions.close(second.id()));
+    }
+
+    @Test
+    void closingASessionWithoutConfigReleasesNothing() {
+        McpSession session = sessions.create(null);
+        assertTrue(sessions.close(session.id()));
+        assertEquals(List.of(), released);
+    }
+
+    private static boolean awaitClosed(McpSession session, Duration timeout) throws InterruptedException {
+        long until = System.currentTimeMillis() + timeout.toMillis();
+        while (!session.isClosed() && System.currentTimeMillis() < until) {
+            Thread.sleep(50);
+        }
+        return session.isClosed();
+    }
+}
@@ -0,0 +1,67 @@
+package be.tomcools.twitchmcp.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ChannelEventsTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Test
+    void ownUpdatesChangeTheLoadedChannel() {
+        ChannelEvents events = new ChannelEvents();
+        events.seedChannel(helixChannel());
+
+        events.updateTitle("New title");
+        events.updateCategory("509658", "Just Chatting");
+
+        ChannelEvents.Channel channel = events.channel();
+        assertEquals("New title", channel.title());
+        assertEquals("509658", channel.categoryId());
+        assertEquals("Just Chatting", channel.categoryName());
+        assertEquals("en", channel.language());
+        assertEquals(List.of("English"), channel.tags());
+    }
+
+    @Test
+    void ownUpdatesDoNothingBeforeTheChannelIsLoaded() {
+        ChannelEvents events = new ChannelEvents();
+        events.updateTitle("New title");
+        assertNull(events.channel());
+    }
+
+    @Test
+    void channelUpdateNotificationsReconcileOwnUpdates() {
+        ChannelEvents events = new ChannelEvents();
+        events.seedChannel(helixChannel());
+        events.updateTitle("new title  ");
+
+        ObjectNode notification = JSON.createObjectNode()
+                .put("title", "new title")
+                .put("category_id", "27471")
+                .put("category_name", "Minecraft")
+                .put("language", "en");
+        events.apply("channel.update", notification);
+
+        ChannelEvents.Channel channel = events.channel();
+        assertEquals("new title", channel.title());
+        assertEquals("Minecraft", channel.categoryName());
+        assertEquals(List.of("English"), channel.tags());
+    }
+
+    private static ObjectNode helixChannel() {
+        ObjectNode channel = JSON.createObjectNode()
+                .put("title", "Old title")
+                .put("game_id", "27471")
+                .put("game_name", "Minecraft")
+                .put("broadcaster_language", "en");
+        channel.putArray("tags").add("English");
+        return channel;
+    }
+}
@@ -0,0 +1,102 @@
+package be.tomcools.twitchmcp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatContextTest {
+
+    @Test
+    void keepsEverythingThatFits() {
+        String context = ChatContext.build(List.of("alice: hello there", "bob: how is the stream"), 1000);
+        assertEquals("""
+                [2 messages from 2 chatters]
+                alice: hello there
+                bob: how is the stream""", context);
+    }
+
+    @Test
+    void collapsesRepeatsAcrossChatters() {
+        String context = ChatContext.build(List.of(
+                "alice: LOL so funny",
+                "bob: lol so funny!!",
+                "carol: loool lol so funny"), 1000);
+        assertEquals("""
+                [3 messages from 3 chatters: 2 repeats collapsed]
+                alice and 2 others: LOL so funny ×3""", context);
+    }
+
+    @Test
+    void joinsTheLinesOfOneChatter() {
+        String context = ChatContext.build(List.of(
+                "alice: first thought",
+                "bob: something else",
+                "alice: second thought"), 1000);
+        assertEquals("""
+                [3 messages from 2 chatters]
+                bob: something else
+                alice: first thought | second thought""", context);
+    }
+
+    @Test
+    void dropsLoneLowSignalLines() {
+        String context = ChatContext.build(List.of(
+                "bob: gg",
+                "carol: ???",
+                "dave: PogChamp",
+                "alice: what build is this"), 1000);
+        assertEquals("""
+                [4 messages from 4 chatters: 3 low-signal dropped]
+                alice: what build is this""", context);
+    }
+
+    @Test
+    void keepsLowSignalLinesThatRepeat() {
+        String context = ChatContext.build(List.of("bob: gg", "carol: GG", "dave: ggg"), 1000);
+        assertTrue(context.endsWith("\nbob and 2 others: gg ×3"), context);
+    }
+
+    @Test
+    void keepsTheNewestLinesWithinTheBudget() {
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            messages.add("user" + word(i) + ": talking about " + word(i));
+        }
+        String context = ChatContext.build(messages, 500);
+
+        assertTrue(context.length() <= 500, context);
+        assertTrue(context.startsWith("[200 messages from 200 chatters: "), context);
+        assertTrue(context.contains(" older left out]"), context);
+        assertTrue(context.endsWith(messages.get(199)), context);
+        assertFalse(context.contains(messages.get(0)), context);
+    }
+
+    @Test
+    void cutsLongCopypasta() {
+        String context = ChatContext.build(List.of("alice: " + "spam words here ".repeat(50)), 1000);
+        String line = context.substring(context.indexOf('\n') + 1);
+        assertEquals("alice: ".length() + 200, line.length());
+        assertTrue(line.endsWith("…"));
+    }
+
+    @Test
+    void normalizesCaseDigitsAndRepeats() {
+        StringBuilder key = new StringBuilder();
+        assertEquals(2, ChatContext.normalize("LOOOL!!! 123", key));
+        assertEquals("lol #", key.toString());
+        assertEquals(2, ChatContext.normalize("hype HYPE hype... train", key));
+        assertEquals("hype train", key.toString());
+        assertEquals(0, ChatContext.normalize("?!", key));
+        assertEquals("", key.toString());
+    }
+
+    // Distinct words without digits, which would all normalize alike
+    private static String word(int i) {
+        return String.valueOf((char) ('a' + i / 26 % 26)) + (char) ('a' + i % 26) + "x";
+    }
+}
@@ -0,0 +1,83 @@
+package be.tomcools.twitchmcp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatEventFilterTest {
+
+    @Test
+    void parsesCommaSeparatedLists() {
+        ChatEventFilter filter = ChatEventFilter.parse(" Alice, BOB ,,", "Hype Train,  pog ", "Message, MODERATION");
+        assertEquals(Set.of("alice", "bob"), filter.users());
+        assertEquals(List.of("hype train", "pog"), filter.keywords());
+        assertEquals(Set.of(ChatEvent.Type.MESSAGE, ChatEvent.Type.MODERATION), filter.types());
+    }
+
+    @Test
+    void missingOrBlankParametersMatchEverything() {
+        assertEquals(ChatEventFilter.ALL, ChatEventFilter.parse(null, null, null));
+        assertEquals(ChatEventFilter.ALL, ChatEventFilter.parse("", " ", " , "));
+    }
+
+    @Test
+    void rejectsUnknownTypes() {
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> ChatEventFilter.parse(null, null, "message,whispers"));
+        assertTrue(error.getMessage().contains("whispers"));
+    }
+
+    @Test
+    void filtersOnType() {
+        ChatEventFilter filter = ChatEventFilter.parse(null, null, "moderation");
+        assertTrue(filter.matches(event(ChatEvent.Type.MODERATION, "alice", "spam")));
+        assertFalse(filter.matches(event(ChatEvent.Type.MESSAGE, "alice", "hello")));
+    }
+
+    @Test
+    void filtersOnUserIgnoringCase() {
+        ChatEventFilter filter = ChatEventFilter.parse("alice", null, null);
+        assertTrue(filter.matches(event(ChatEvent.Type.MESSAGE, "Alice", "hello")));
+        assertFalse(filter.matches(event(ChatEvent.Type.MESSAGE, "bob", "hello")));
+    }
+
+    @Test
+    void matchesAnyKeywordInTheText() {
+        ChatEventFilter filter = ChatEventFilter.parse(null, "pog,hype", null);
+        assertTrue(filter.matches(event(ChatEvent.Type.MESSAGE, "alice", "POGGERS")));
+        assertTrue(filter.matches(event(ChatEvent.Type.MESSAGE, "alice", "what a hype moment")));
+        assertFalse(filter.matches(event(ChatEvent.Type.MESSAGE, "alice", "hello")));
+    }
+
+    @Test
+    void userAndKeywordMustBothMatch() {
+        ChatEventFilter filter = ChatEventFilter.parse("alice", "pog", null);
+        assertTrue(filter.matches(event(ChatEvent.Type.MESSAGE, "alice", "pog")));
+        assertFalse(filter.matches(event(ChatEvent.Type.MESSAGE, "alice", "hello")));
+        assertFalse(filter.matches(event(ChatEvent.Type.MESSAGE, "bob", "pog")));
+    }
+
+    @Test
+    void userAndKeywordFiltersSkipEventsWithoutThem() {
+        ChatEventFilter filter = ChatEventFilter.parse("alice", "pog", null);
+        assertTrue(filter.matches(event(ChatEvent.Type.STATS, null, null)));
+        assertTrue(filter.matches(event(ChatEvent.Type.HIGHLIGHT, null, null)));
+    }
+
+    @Test
+    void alwaysDeliversLagNotices() {
+        ChatEventFilter filter = ChatEventFilter.parse("alice", "pog", "message");
+        assertTrue(filter.matches(ChatEvent.lag(5)));
+    }
+
+    private static ChatEvent event(ChatEvent.Type type, String username, String text) {
+        return new ChatEvent(1, type, username, text, 0, Map.of());
+    }
+}
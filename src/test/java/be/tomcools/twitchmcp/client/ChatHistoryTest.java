@@ -0,0 +1,196 @@
+package be.tomcools.twitchmcp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatHistoryTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long T0 = 1_700_000_000_000L;
+    // Records of about 1 KB, so a block holds 63 of them
+    private static final int PER_BLOCK = ChatHistory.BLOCK_BYTES / (message(1).length() + 2);
+
+    @Test
+    void pagesFromACursor() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, history.add(T0, "user: " + i));
+        }
+
+        ChatHistory.Page page = history.since(0, 10);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), sequences(page));
+        assertEquals(5, page.nextCursor());
+        assertEquals(0, page.missed());
+
+        page = history.since(0, 2);
+        assertEquals(List.of(1L, 2L), sequences(page));
+        assertEquals(2, page.nextCursor());
+
+        page = history.since(3, 10);
+        assertEquals(List.of(new ChatHistory.Entry(4, "user: 4"), new ChatHistory.Entry(5, "user: 5")), page.messages());
+    }
+
+    @Test
+    void aCursorAtOrBeyondTheNewestMessageResumesThere() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        history.add(T0, "user: 1");
+        history.add(T0, "user: 2");
+
+        assertEquals(new ChatHistory.Page(List.of(), 2, 0), history.since(2, 10));
+        assertEquals(new ChatHistory.Page(List.of(), 2, 0), history.since(99, 10));
+    }
+
+    @Test
+    void readsAcrossBlockBoundaries() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        List<String> added = fill(history, 4 * PER_BLOCK, T0);
+        assertEquals(4 * ChatHistory.BLOCK_BYTES, history.hotBytes());
+
+        ChatHistory.Page page = history.since(PER_BLOCK - 3, 6);
+        assertEquals(LongStream.rangeClosed(PER_BLOCK - 2, PER_BLOCK + 3).boxed().toList(), sequences(page));
+        assertEquals(added.subList(PER_BLOCK - 3, PER_BLOCK + 3), messages(page));
+        assertEquals(added, history.all());
+        assertEquals(added.subList(added.size() - 3, added.size()), history.last(3));
+    }
+
+    @Test
+    void startsABlockOnceTheLastOneIsPastRetention() {
+        ChatHistory history = new ChatHistory(Duration.ofMinutes(1), 10 * MB, 10 * MB);
+        for (int i = 0; i < 10; i++) {
+            history.add(T0, "old: " + i);
+        }
+        history.add(T0 + Duration.ofMinutes(2).toMillis(), "new: 11");
+
+        assertEquals(1, history.size());
+        assertEquals(ChatHistory.BLOCK_BYTES, history.bytes());
+        ChatHistory.Page page = history.since(3, 10);
+        assertEquals(List.of(new ChatHistory.Entry(11, "new: 11")), page.messages());
+        assertEquals(7, page.missed());
+    }
+
+    @Test
+    void keepsABlockWhileAnyOfItsMessagesIsRetained() {
+        ChatHistory history = new ChatHistory(Duration.ofMinutes(1), 10 * MB, 10 * MB);
+        history.add(T0, "user: 1");
+        history.add(T0 + 50_000, "user: 2");
+        history.add(T0 + 70_000, "user: 3");
+
+        assertEquals(List.of("user: 1", "user: 2", "user: 3"), history.all());
+    }
+
+    @Test
+    void dropsTheOldestBlocksOverBudget() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 2L * ChatHistory.BLOCK_BYTES, 2L * ChatHistory.BLOCK_BYTES);
+        List<String> added = new ArrayList<>();
+        for (int i = 1; i <= 10 * PER_BLOCK; i++) {
+            added.add(message(i));
+            history.add(T0, added.get(i - 1));
+            assertTrue(history.bytes() <= history.budgetBytes());
+        }
+
+        int size = history.size();
+        assertTrue(size < added.size());
+        assertEquals(added.subList(added.size() - size, added.size()), history.all());
+        ChatHistory.Page page = history.since(1, 1);
+        assertEquals(added.size() - size - 1, page.missed());
+        assertEquals(added.size() - size + 1, page.messages().get(0).sequence());
+    }
+
+    @Test
+    void readsBackCompressedBlocks() throws InterruptedException {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, ChatHistory.BLOCK_BYTES);
+        List<String> added = fill(history, 6 * PER_BLOCK + 10, T0);
+        awaitCompressed(history);
+
+        assertTrue(history.warmBytes() > 0);
+        assertTrue(history.warmBytes() < 6L * ChatHistory.BLOCK_BYTES);
+        assertEquals(added, history.all());
+        // Alternate between warm blocks, starting in the middle of one
+        for (long cursor : new long[]{PER_BLOCK / 2, 3 * PER_BLOCK + 7, 10, 5 * PER_BLOCK - 1}) {
+            ChatHistory.Page page = history.since(cursor, 4);
+            assertEquals(added.subList((int) cursor, (int) cursor + 4), messages(page));
+            assertEquals(cursor + 4, page.nextCursor());
+        }
+    }
+
+    @Test
+    void clearKeepsSequenceNumbers() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        history.add(T0, "user: 1");
+        history.add(T0, "user: 2");
+        history.add(T0, "user: 3");
+        history.clear();
+
+        assertEquals(0, history.size());
+        assertEquals(0, history.bytes());
+        assertEquals(4, history.add(T0, "user: 4"));
+        assertEquals(List.of(4L), sequences(history.since(3, 10)));
+        assertEquals(2, history.since(1, 10).missed());
+    }
+
+    @Test
+    void restoresHandedOverNumbering() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        assertTrue(history.restore(41, List.of("user: a", "user: b")));
+        assertFalse(history.restore(1, List.of("user: c")));
+
+        assertEquals(42, history.lastSequence());
+        assertEquals(List.of(new ChatHistory.Entry(42, "user: b")), history.since(41, 10).messages());
+        assertEquals(List.of(41L, 42L), sequences(history.since(0, 10)));
+
+        ChatHistory used = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        used.add(T0, "user: 1");
+        assertFalse(used.restore(41, List.of("user: a")));
+    }
+
+    @Test
+    void truncatesAMessageLongerThanABlock() {
+        ChatHistory history = new ChatHistory(Duration.ofHours(1), 10 * MB, 10 * MB);
+        history.add(T0, "user: before");
+        history.add(T0, "x".repeat(ChatHistory.BLOCK_BYTES + 100));
+        history.add(T0, "user: after");
+
+        List<String> all = history.all();
+        assertEquals(ChatHistory.BLOCK_BYTES - 2, all.get(1).length());
+        assertEquals(List.of("user: before", "user: after"), List.of(all.get(0), all.get(2)));
+    }
+
+    private static List<String> fill(ChatHistory history, int count, long timestamp) {
+        List<String> added = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            String message = message(i);
+            history.add(timestamp, message);
+            added.add(message);
+        }
+        return added;
+    }
+
+    private static String message(int i) {
+        String prefix = String.format("chatter%05d: message %05d ", i, i);
+        return prefix + "lorem ipsum dolor sit amet ".repeat(37);
+    }
+
+    private static void awaitCompressed(ChatHistory history) throws InterruptedException {
+        long until = System.currentTimeMillis() + 5000;
+        while (history.hotBytes() > ChatHistory.BLOCK_BYTES && System.currentTimeMillis() < until) {
+            Thread.sleep(10);
+        }
+        assertEquals(ChatHistory.BLOCK_BYTES, history.hotBytes());
+    }
+
+    private static List<Long> sequences(ChatHistory.Page page) {
+        return page.messages().stream().map(ChatHistory.Entry::sequence).toList();
+    }
+
+    private static List<String> messages(ChatHistory.Page page) {
+        return page.messages().stream().map(ChatHistory.Entry::message).toList();
+    }
+}
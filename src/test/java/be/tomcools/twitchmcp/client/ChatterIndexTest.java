@@ -0,0 +1,130 @@
+package be.tomcools.twitchmcp.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatterIndexTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long MINUTE = 60_000;
+
+    @Test
+    void findsNamesTypedWithDifferentCaseAndUnderscores() {
+        ChatterIndex index = new ChatterIndex(100);
+        index.observe("xX_Gamer_Xx", NOW);
+
+        List<ChatterIndex.Candidate> candidates = index.search("XXGAMERXX", 5, NOW);
+        assertEquals(1, candidates.size());
+        assertEquals("xx_gamer_xx", candidates.get(0).login());
+        assertEquals(1.0, candidates.get(0).similarity());
+    }
+
+    @Test
+    void ranksByEditDistance() {
+        ChatterIndex index = new ChatterIndex(100);
+        index.observe("ninja_fan", NOW);
+        index.observe("ninjafanatic", NOW);
+        index.observe("pirate", NOW);
+
+        assertEquals(List.of("ninja_fan", "ninjafanatic"), logins(index.search("ninja_fna", 5, NOW)));
+    }
+
+    @Test
+    void prefersRecentChattersAmongEquallySimilarNames() {
+        ChatterIndex index = new ChatterIndex(100);
+        index.observe("gamer_one", NOW - 60 * MINUTE);
+        index.observe("gamer_ona", NOW - MINUTE);
+
+        List<ChatterIndex.Candidate> candidates = index.search("gamer_onx", 5, NOW);
+        assertEquals(candidates.get(0).similarity(), candidates.get(1).similarity());
+        assertEquals(List.of("gamer_ona", "gamer_one"), logins(candidates));
+    }
+
+    @Test
+    void aContainedQueryScoresAtLeastHalfway() {
+        ChatterIndex index = new ChatterIndex(100);
+        index.observe("xxgamerxx", NOW);
+
+        ChatterIndex.Candidate candidate = index.search("gamer", 5, NOW).get(0);
+        assertEquals(0.5 + 0.5 * 5 / 9, candidate.similarity(), 1e-9);
+    }
+
+    @Test
+    void countsMessagesAndKeepsTheLatestTime() {
+        ChatterIndex index = new ChatterIndex(100);
+        index.observe("alice", NOW);
+        index.observe("Alice", NOW - MINUTE);
+
+        ChatterIndex.Candidate candidate = index.search("alice", 5, NOW).get(0);
+        assertEquals(2, candidate.messages());
+        assertEquals(NOW, candidate.lastSeen());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyActiveChatter() {
+        ChatterIndex index = new ChatterIndex(3);
+        index.observe("alice", NOW);
+        index.observe("bobby", NOW);
+        index.observe("carol", NOW);
+        // Chatting again makes alice the most recently active
+        index.observe("alice", NOW);
+        index.observe("daniel", NOW);
+
+        assertEquals(3, index.size());
+        assertEquals(List.of(), index.search("bobby", 5, NOW));
+        assertEquals(List.of("alice"), logins(index.search("alice", 5, NOW)));
+        assertEquals(List.of("carol"), logins(index.search("carol", 5, NOW)));
+    }
+
+    @Test
+    void findsTheBestMatchAmongManySimilarNames() {
+        ChatterIndex index = new ChatterIndex(10_000);
+        for (int i = 0; i < 1000; i++) {
+            index.observe("streamfan" + i, NOW);
+        }
+        index.observe("streamfanatic", NOW - 30 * MINUTE);
+
+        // Only the chatters sharing the most trigrams are compared, which must still include the closest one
+        List<ChatterIndex.Candidate> candidates = index.search("streamfanatik", 3, NOW);
+        assertEquals("streamfanatic", candidates.get(0).login());
+    }
+
+    @Test
+    void returnsNothingForAnEmptyQueryOrAfterClear() {
+        ChatterIndex index = new ChatterIndex(100);
+        index.observe("alice", NOW);
+        assertEquals(List.of(), index.search("__", 5, NOW));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(List.of(), index.search("alice", 5, NOW));
+    }
+
+    @Test
+    void measuresOptimalStringAlignmentDistance() {
+        int[][] table = new int[16][16];
+        assertEquals(0, ChatterIndex.distance("gamer", "gamer", table));
+        assertEquals(1, ChatterIndex.distance("gamer", "gaemr", table));
+        assertEquals(1, ChatterIndex.distance("gamer", "gamers", table));
+        assertEquals(3, ChatterIndex.distance("kitten", "sitting", table));
+        assertTrue(ChatterIndex.similarity("abc", "xyz", table) <= 0);
+    }
+
+    @Test
+    void padsTrigramsWithNameEdges() {
+        assertEquals(3, ChatterIndex.trigrams("abc").length);
+        // aaaa has the trigrams ^aa, aaa (twice) and aa$
+        assertEquals(3, ChatterIndex.trigrams("aaaa").length);
+        assertEquals("xxgamerxx", ChatterIndex.normalize("xx_gamer_xx"));
+        assertEquals("alice", ChatterIndex.normalize("@alice"));
+    }
+
+    private static List<String> logins(List<ChatterIndex.Candidate> candidates) {
+        return candidates.stream().map(ChatterIndex.Candidate::login).toList();
+    }
+}
@@ -0,0 +1,204 @@
+package be.tomcools.twitchmcp.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StrikeLedgerTest {
+
+    private static final long DAY = 24 * 3600_000L;
+    // 8 bytes time, 8 bytes score, 1 byte length, then the name
+    private static final int RECORD_HEADER = 17;
+
+    @TempDir
+    Path directory;
+
+    private final List<StrikeLedger> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeLedgers() {
+        opened.forEach(StrikeLedger::close);
+    }
+
+    @Test
+    void replaysTheLogOnStartup() {
+        StrikeLedger ledger = open();
+        ledger.record("Alice", StrikeLedger.Action.TIMEOUT);
+        ledger.record("alice", StrikeLedger.Action.TIMEOUT);
+        ledger.record("bob", StrikeLedger.Action.BAN);
+        ledger.close();
+
+        StrikeLedger replayed = open();
+        assertEquals(2.0, replayed.strikes("ALICE"), 1e-3);
+        assertEquals(3.0, replayed.strikes("bob"), 1e-3);
+        assertEquals(0.0, replayed.strikes("carol"));
+    }
+
+    @Test
+    void recordReturnsTheScoreBeforeTheAction() {
+        StrikeLedger ledger = StrikeLedger.inMemory(Duration.ofDays(7));
+        assertEquals(0.0, ledger.record("alice", StrikeLedger.Action.TIMEOUT));
+        assertEquals(1.0, ledger.record("alice", StrikeLedger.Action.BAN), 1e-3);
+        assertEquals(4.0, ledger.strikes("alice"), 1e-3);
+    }
+
+    @Test
+    void dropsARecordCutShortAndKeepsAppending() throws IOException {
+        StrikeLedger ledger = open();
+        ledger.record("alice", StrikeLedger.Action.TIMEOUT);
+        ledger.record("bob", StrikeLedger.Action.TIMEOUT);
+        ledger.close();
+        try (FileChannel log = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            log.truncate(log.size() - 2);
+        }
+
+        StrikeLedger recovered = open();
+        assertEquals(1.0, recovered.strikes("alice"), 1e-3);
+        assertEquals(0.0, recovered.strikes("bob"));
+        recovered.record("carol", StrikeLedger.Action.BAN);
+        recovered.close();
+
+        StrikeLedger replayed = open();
+        assertEquals(1.0, replayed.strikes("alice"), 1e-3);
+        assertEquals(3.0, replayed.strikes("carol"), 1e-3);
+    }
+
+    @Test
+    void compactsSupersededRecords() throws IOException {
+        StrikeLedger ledger = open();
+        for (int i = 0; i < 100; i++) {
+            ledger.record("alice", StrikeLedger.Action.TIMEOUT);
+        }
+        ledger.close();
+        assertEquals(4 + 100 * (RECORD_HEADER + 5), Files.size(file()));
+
+        StrikeLedger compacted = open();
+        assertEquals(4 + RECORD_HEADER + 5, Files.size(file()));
+        assertEquals(100.0, compacted.strikes("alice"), 1e-2);
+    }
+
+    @Test
+    void compactionForgetsDecayedScores() {
+        long now = System.currentTimeMillis();
+        StrikeLedger ledger = open();
+        ledger.merge(List.of(new StrikeLedger.Strike("old", 1.0, now - 60 * DAY),
+                new StrikeLedger.Strike("recent", 1.0, now - DAY)));
+        for (int i = 0; i < 100; i++) {
+            ledger.record("alice", StrikeLedger.Action.TIMEOUT);
+        }
+        ledger.close();
+
+        StrikeLedger compacted = open();
+        List<String> users = compacted.snapshot().stream().map(StrikeLedger.Strike::username).sorted().toList();
+        assertEquals(List.of("alice", "recent"), users);
+    }
+
+    @Test
+    void scoresHalveEveryHalfLife() {
+        StrikeLedger ledger = StrikeLedger.inMemory(Duration.ofDays(7));
+        ledger.merge(List.of(new StrikeLedger.Strike("alice", 4.0, System.currentTimeMillis() - 14 * DAY)));
+        assertEquals(1.0, ledger.strikes("alice"), 1e-3);
+    }
+
+    @Test
+    void mergeKeepsTheMoreRecentRecord() {
+        long now = System.currentTimeMillis();
+        StrikeLedger ledger = StrikeLedger.inMemory(Duration.ofDays(7));
+        ledger.merge(List.of(new StrikeLedger.Strike("alice", 2.0, now)));
+        ledger.merge(List.of(new StrikeLedger.Strike("Alice", 5.0, now - DAY)));
+        assertEquals(2.0, ledger.strikes("alice"), 1e-3);
+
+        ledger.merge(List.of(new StrikeLedger.Strike("alice", 3.0, now + 1)));
+        assertEquals(3.0, ledger.strikes("alice"), 1e-3);
+    }
+
+    @Test
+    void escalationDoublesPerRoundedStrike() {
+        long now = System.currentTimeMillis();
+        StrikeLedger ledger = StrikeLedger.inMemory(Duration.ofDays(7));
+        ledger.merge(List.of(
+                new StrikeLedger.Strike("low", 1.4, now),
+                new StrikeLedger.Strike("high", 1.6, now),
+                new StrikeLedger.Strike("banned", 3.0, now),
+                new StrikeLedger.Strike("decayed", 2.0, now - 7 * DAY),
+                new StrikeLedger.Strike("forgotten", 0.4, now),
+                new StrikeLedger.Strike("repeat", 40.0, now)));
+
+        assertEquals(600, ledger.escalate("new", 600));
+        assertEquals(600, ledger.escalate("forgotten", 600));
+        assertEquals(1200, ledger.escalate("low", 600));
+        assertEquals(2400, ledger.escalate("high", 600));
+        assertEquals(4800, ledger.escalate("banned", 600));
+        assertEquals(1200, ledger.escalate("decayed", 600));
+        assertEquals(StrikeLedger.MAX_TIMEOUT_SECONDS, ledger.escalate("repeat", 600));
+    }
+
+    @Test
+    void seesWhatOtherProcessesRecorded() {
+        StrikeLedger first = open();
+        StrikeLedger second = open();
+
+        first.record("alice", StrikeLedger.Action.TIMEOUT);
+        assertEquals(1.0, second.strikes("alice"), 1e-3);
+        assertEquals(1.0, second.record("alice", StrikeLedger.Action.TIMEOUT), 1e-3);
+        assertEquals(2.0, first.strikes("alice"), 1e-3);
+        assertEquals(2400, first.escalate("alice", 600));
+    }
+
+    @Test
+    void keepsAppendingAfterAnotherProcessCompacted() throws IOException {
+        StrikeLedger first = open();
+        for (int i = 0; i < 100; i++) {
+            first.record("alice", StrikeLedger.Action.TIMEOUT);
+        }
+        // Starting up compacts the log into a new file while the first one still has the old one open
+        StrikeLedger second = open();
+        assertEquals(4 + RECORD_HEADER + 5, Files.size(file()));
+
+        first.record("bob", StrikeLedger.Action.BAN);
+        second.record("carol", StrikeLedger.Action.TIMEOUT);
+        first.close();
+        second.close();
+
+        StrikeLedger replayed = open();
+        assertEquals(100.0, replayed.strikes("alice"), 1e-2);
+        assertEquals(3.0, replayed.strikes("bob"), 1e-3);
+        assertEquals(1.0, replayed.strikes("carol"), 1e-3);
+        assertEquals(4 + 3 * RECORD_HEADER + 5 + 3 + 5, Files.size(file()));
+    }
+
+    @Test
+    void keepsCountingInMemoryWhenTheFileIsNotALedger() throws IOException {
+        Files.writeString(file(), "not a ledger");
+        StrikeLedger ledger = open();
+        ledger.record("alice", StrikeLedger.Action.TIMEOUT);
+        assertEquals(1.0, ledger.strikes("alice"), 1e-3);
+        assertTrue(Files.readString(file()).startsWith("not a ledger"));
+    }
+
+    private StrikeLedger open() {
+        StrikeLedger ledger = new StrikeLedger();
+        ledger.directory = Optional.of(directory.toString());
+        ledger.channel = "SomeChannel";
+        ledger.init();
+        opened.add(ledger);
+        return ledger;
+    }
+
+    private Path file() {
+        return directory.resolve("somechannel.strikes");
+    }
+}
@@ -0,0 +1,66 @@
+package be.tomcools.twitchmcp.client;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TwitchClientTest {
+
+    private TwitchClient client;
+
+    @BeforeEach
+    void setUp() {
+        CamelRoute route = new CamelRoute();
+        route.recordChatMessage("ninja_fan", "what a play");
+        route.recordChatMessage("xX_Gamer_Xx", "hello chat");
+        client = new TwitchClient();
+        client.camelRoute = route;
+        client.classifier = ChatClassifier.inMemory(18);
+    }
+
+    @Test
+    void resolvesARecentChattersLoginUpToCaseAndUnderscores() {
+        assertEquals("ninja_fan", client.resolveModerationTarget("Ninja_Fan").username());
+        assertEquals("xx_gamer_xx", client.resolveModerationTarget("the user named xxgamerxx").username());
+    }
+
+    @Test
+    void offersLookalikeChattersForConfirmation() {
+        TwitchClient.ModerationTarget target = client.resolveModerationTarget("ninja_fna");
+        assertFalse(target.confirmed());
+        assertTrue(target.candidates().get(0).startsWith("ninja_fan "), target.candidates().toString());
+        assertTrue(target.confirmation("ninja_fna").contains("confirm set to true"));
+    }
+
+    @Test
+    void takesAConfirmedLoginAsGivenEvenIfItResemblesAChatter() {
+        // Never chatted, or aged out of the index, while a similar name is active
+        TwitchClient.ModerationTarget target = client.resolveModerationTarget("@Ninja_Fna", true);
+        assertTrue(target.confirmed());
+        assertEquals("ninja_fna", target.username());
+        assertEquals(List.of(), target.candidates());
+    }
+
+    @Test
+    void takesAConfirmedDescriptorWordAsALogin() {
+        assertNull(client.resolveModerationTarget("toxic"));
+        assertEquals("toxic", client.resolveModerationTarget("toxic", true).username());
+    }
+
+    @Test
+    void refusesToConfirmSomethingThatIsNotALogin() {
+        assertNull(client.resolveModerationTarget("the toxic one", true));
+        assertNull(client.resolveModerationTarget("ab", true));
+    }
+
+    @Test
+    void takesANameResemblingNobodyAsGiven() {
+        assertEquals("pirate_king", client.resolveModerationTarget("pirate_king").username());
+    }
+}
@@ -2,6 +2,7 @@
 
 const { spawn } = require('child_process');
 const fs = require('fs');
+const os = require('os');
 const path = require('path');
 const { JAR_PATH } = require('../scripts/build-jar');
 
@@ -18,6 +19,44 @@ function checkJavaHome() {
     });
 }
 
+function javaMajorVersion() {
+    return new Promise((resolve) => {
+        const { exec } = require('child_process');
+        exec('java -version', (error, stdout, stderr) => {
+            // "1.8.0_392" for Java 8, "21.0.1" from 9 on
+            const match = /version "(?:1\.)?(\d+)/.exec(stderr || stdout || '');
+            resolve(match ? parseInt(match[1], 10) : 0);
+        });
+    });
+}
+
+// JVM options for a class data sharing archive, which spares every stdio session most of the class loading.
+// The JVM (19+) records the archive on the first run and maps it on later ones, recreating it when the jar or the
+// JVM changes. An archive built with "mvn package -Dappcds" next to the jar seeds it, so even the first run is fast.
+function sharedArchiveArgs(javaVersion) {
+    if (process.env.TWITCH_MCP_CDS === 'off' || javaVersion < 19) {
+        return [];
+    }
+    const cacheDir = path.join(os.homedir(), '.cache', 'twitch-mcp');
+    const archive = path.join(cacheDir, path.basename(JAR_PATH, '.jar') + '.jsa');
+    const bundled = JAR_PATH.replace(/\.jar$/, '.jsa');
+    try {
+        fs.mkdirSync(cacheDir, { recursive: true });
+        if (!fs.existsSync(archive) && fs.existsSync(bundled)) {
+            fs.copyFileSync(bundled, archive);
+        }
+    } catch (error) {
+        return [];
+    }
+    return [
+        '-XX:SharedArchiveFile=' + archive,
+        '-XX:+AutoCreateSharedArchive',
+        // Archive mismatch warnings would otherwise land on stdout, which carries the MCP protocol
+        '-Xlog:disable',
+        '-Xlog:all=warning:stderr'
+    ];
+}
+
 function ensureJarNotCommitted() {
     const { exec } = require('child_process');
     return new Promise((resolve) => {
@@ -64,7 +103,7 @@ async function launchJar() {
     // Launch Java process
     console.log('📦 Launching:', JAR_PATH);
     
-    const javaArgs = ['-jar', JAR_PATH];
+    const javaArgs = [...sharedArchiveArgs(await javaMajorVersion()), '-jar', JAR_PATH];
     
     // Pass through all command line arguments
     const args = process.argv.slice(2);